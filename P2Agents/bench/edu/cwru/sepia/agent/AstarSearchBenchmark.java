@@ -0,0 +1,104 @@
+package edu.cwru.sepia.agent;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmark of the grid searches behind AstarAgent.findPath.
+ *
+ * The searches are called through AstarAgent.search, which takes an ObstacleGrid instead
+ * of a SEPIA StateView, on maps from BenchmarkMaps. Every invocation answers the next of a
+ * fixed set of queries with a path. Besides throughput, the number of nodes expanded is
+ * reported as the expandedNodes counter, and running with -prof gc adds the allocation rate.
+ *
+ * The default parameters are a smoke grid of 24 forks of 16 seconds each. The full sweep
+ * over sizes 32 to 4096, densities 0 to 40 and every mode is opt-in with -p, see the
+ * README.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class AstarSearchBenchmark {
+
+    private static final int QUERY_COUNT = 16;
+    private static final long SEED = 42;
+
+    @Param({"128", "512"})
+    public int size;
+
+    // percentage of trees on open maps, percentage of walls knocked out on mazes
+    @Param({"0", "20"})
+    public int density;
+
+    @Param({BenchmarkMaps.OPEN, BenchmarkMaps.MAZE})
+    public String layout;
+
+    // the modes of AstarAgent that answer a query without state from earlier queries. distance_field
+    // keeps the field of the last goal, but consecutive queries have different goals so every
+    // invocation builds it again. portfolio races astar with landmarks, jps and bidirectional.
+    // bidirectional, distance_field and portfolio are left to the full sweep
+    @Param({"astar", "jps", "alt"})
+    public String mode;
+
+    private AstarAgent agent;
+    private ObstacleGrid obstacles;
+    private int[] starts, goals;
+    private int next;
+
+    /**
+     * Nodes expanded during an iteration. Dividing it by the number of invocations in the
+     * same iteration gives the expansions per search.
+     */
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Expansions {
+        public long expandedNodes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            expandedNodes = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        agent = new AstarAgent(0, new String[] {mode});
+        obstacles = BenchmarkMaps.generate(layout, size, density, SEED);
+        int[][] queries = BenchmarkMaps.queries(obstacles, QUERY_COUNT, SEED);
+        starts = queries[0];
+        goals = queries[1];
+
+        // the first alt query builds the landmark table, keep that out of the measurement
+        for(int i = 0; i < QUERY_COUNT; i++) {
+            if(agent.search(obstacles, starts[i], goals[i], -1) == null) {
+                throw new IllegalStateException("No path for query " + i);
+            }
+        }
+    }
+
+    @Benchmark
+    public int[] search(Expansions expansions) {
+        int query = next;
+        next = (next + 1) % QUERY_COUNT;
+
+        int[] path = agent.search(obstacles, starts[query], goals[query], -1);
+        expansions.expandedNodes += agent.getLastExpandedNodes();
+        return path;
+    }
+}
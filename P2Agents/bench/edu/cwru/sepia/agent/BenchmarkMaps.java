@@ -0,0 +1,172 @@
+package edu.cwru.sepia.agent;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Generated maps and queries for the search benchmarks.
+ *
+ * Two layouts are generated:
+ * - open: trees placed independently on each cell with the given density.
+ * - maze: a maze with one-cell corridors carved by a randomized depth first search, in which
+ *   the given density is the percentage of the inner walls knocked out afterwards. At 0 it is
+ *   a perfect maze in 4-connectivity, though diagonal steps across the corners of its
+ *   corridors still give some cells more than one route. Higher values add loops.
+ *
+ * The same seed always produces the same map and queries, so results can be compared
+ * between runs.
+ */
+public class BenchmarkMaps {
+
+    public static final String OPEN = "open";
+    public static final String MAZE = "maze";
+
+    private BenchmarkMaps()
+    {
+    }
+
+    /**
+     * @param layout OPEN or MAZE
+     * @param size Number of cells per side
+     * @param density Percentage of trees (open) or of maze walls removed (maze)
+     */
+    public static ObstacleGrid generate(String layout, int size, int density, long seed) {
+        Random random = new Random(seed);
+        if(OPEN.equals(layout)) {
+            return open(random, size, density);
+        } else if(MAZE.equals(layout)) {
+            return maze(random, size, density);
+        }
+        throw new IllegalArgumentException("Unknown layout " + layout);
+    }
+
+    private static ObstacleGrid open(Random random, int size, int density) {
+        ObstacleGrid grid = new ObstacleGrid(size, size);
+        for(int cell = 0; cell < grid.cellCount(); cell++) {
+            if(random.nextInt(100) < density) {
+                grid.block(cell);
+            }
+        }
+        return grid;
+    }
+
+    private static ObstacleGrid maze(Random random, int size, int density) {
+        ObstacleGrid grid = new ObstacleGrid(size, size);
+        for(int cell = 0; cell < grid.cellCount(); cell++) {
+            grid.block(cell);
+        }
+
+        // corridors run over the odd coordinates, walls between them are knocked out while carving
+        int[] stack = new int[grid.cellCount()];
+        int top = 0;
+        stack[top++] = grid.indexOf(1, 1);
+        grid.unblock(grid.indexOf(1, 1));
+        int[][] steps = {{2, 0}, {-2, 0}, {0, 2}, {0, -2}};
+        int[] options = new int[4];
+        while(top > 0) {
+            int cell = stack[top - 1];
+            int x = cell / size;
+            int y = cell % size;
+            int optionCount = 0;
+            for(int i = 0; i < steps.length; i++) {
+                int nextX = x + steps[i][0];
+                int nextY = y + steps[i][1];
+                if(nextX > 0 && nextX < size - 1 && nextY > 0 && nextY < size - 1 && grid.isBlocked(nextX, nextY)) {
+                    options[optionCount++] = i;
+                }
+            }
+            if(optionCount == 0) {
+                top--;
+                continue;
+            }
+            int[] step = steps[options[random.nextInt(optionCount)]];
+            grid.unblock(grid.indexOf(x + step[0] / 2, y + step[1] / 2));
+            grid.unblock(grid.indexOf(x + step[0], y + step[1]));
+            stack[top++] = grid.indexOf(x + step[0], y + step[1]);
+        }
+
+        for(int x = 1; x < size - 1; x++) {
+            for(int y = 1; y < size - 1; y++) {
+                if(grid.isBlocked(x, y) && random.nextInt(100) < density) {
+                    grid.unblock(grid.indexOf(x, y));
+                }
+            }
+        }
+        return grid;
+    }
+
+    /**
+     * Picks pairs of free cells that are connected to each other and at least half the map
+     * apart, so that every query has a path and none of them is trivial.
+     *
+     * @return starts in row 0 and goals in row 1
+     */
+    public static int[][] queries(ObstacleGrid grid, int count, long seed) {
+        Random random = new Random(seed);
+        int[] component = label(grid);
+        int size = grid.getXExtent();
+        int[][] queries = new int[2][count];
+
+        int found = 0;
+        for(int attempt = 0; found < count; attempt++) {
+            if(attempt > 1000 * count) {
+                throw new IllegalStateException("Map has too few connected free cells for " + count + " queries");
+            }
+            int start = random.nextInt(grid.cellCount());
+            int goal = random.nextInt(grid.cellCount());
+            if(component[start] == -1 || component[start] != component[goal]) {
+                continue;
+            }
+            int distance = Math.max(Math.abs(start / size - goal / size), Math.abs(start % size - goal % size));
+            if(distance < size / 2) {
+                continue;
+            }
+            queries[0][found] = start;
+            queries[1][found] = goal;
+            found++;
+        }
+        return queries;
+    }
+
+    /**
+     * @return Connected component of every cell under 8-connected moves, -1 for trees
+     */
+    private static int[] label(ObstacleGrid grid) {
+        int xExtent = grid.getXExtent();
+        int yExtent = grid.getYExtent();
+        int[] component = new int[grid.cellCount()];
+        Arrays.fill(component, -1);
+        int[] queue = new int[grid.cellCount()];
+
+        int components = 0;
+        for(int source = 0; source < grid.cellCount(); source++) {
+            if(component[source] != -1 || grid.isBlocked(source)) {
+                continue;
+            }
+            int head = 0, tail = 0;
+            queue[tail++] = source;
+            component[source] = components;
+            while(head < tail) {
+                int cell = queue[head++];
+                int x = cell / yExtent;
+                int y = cell % yExtent;
+                for(int dx = -1; dx <= 1; dx++) {
+                    for(int dy = -1; dy <= 1; dy++) {
+                        int nextX = x + dx;
+                        int nextY = y + dy;
+                        if(nextX < 0 || nextX >= xExtent || nextY < 0 || nextY >= yExtent) {
+                            continue;
+                        }
+                        int next = nextX * yExtent + nextY;
+                        if(component[next] == -1 && !grid.isBlocked(next)) {
+                            component[next] = components;
+                            queue[tail++] = next;
+                        }
+                    }
+                }
+            }
+            components++;
+        }
+        return component;
+    }
+}
@@ -0,0 +1,435 @@
+package edu.cwru.sepia.agent;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks of the searches and the artifact file, started from main. They need the SEPIA jar for
+ * AstarAgent but not JMH. Prints every failure and exits with status 1 if there was one.
+ *
+ * - Every mode that promises shortest paths is compared with plain A* through
+ *   AstarAgent.search on maps from BenchmarkMaps, with and without a cell blocked by the
+ *   enemy footman. The paths must have the same length, and must be null for the same queries.
+ * - Every path those modes return is walked to check that it only takes single steps onto
+ *   free cells, avoids the enemy footman and ends next to the goal.
+ * - Random trees are added and removed, and every structure updated in place is compared with
+ *   one built from scratch: DStarLite and FlowField with new ones, ConnectedComponents with a
+ *   breadth-first search before and after its articulation arrays are refreshed, and
+ *   RunLengthRows and ObstacleQuadtree with the bitmap.
+ * - Detours that come back to cells of the path are spliced in with AstarAgent.spliceDetour,
+ *   which must leave a walk to the goal around the blocked cell that visits no cell twice.
+ * - MapArtifacts.write and MapArtifacts.map round trip the sections of a map, and a file
+ *   written for other trees or with a changed byte is not mapped.
+ */
+public class SearchChecks {
+
+    // modes whose paths are as short as those of astar
+    private static final String[] OPTIMAL_MODES = {"alt", "jps", "bidirectional", "dstar_lite", "distance_field", "portfolio"};
+
+    private static int checks;
+    private static int failures;
+
+    public static void main(String[] args) throws IOException {
+        int mapCount = args.length > 0 ? Integer.parseInt(args[0]) : 40;
+        checkOptimality(mapCount);
+        checkIncrementalUpdates(mapCount);
+        checkRepairs(mapCount);
+        checkArtifacts();
+        System.out.println(checks + " checks, " + failures + " failed");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    private static void checkOptimality(int mapCount) {
+        AstarAgent reference = new AstarAgent(0, new String[] {"astar"});
+        AstarAgent[] agents = new AstarAgent[OPTIMAL_MODES.length];
+        for(int i = 0; i < OPTIMAL_MODES.length; i++) {
+            agents[i] = new AstarAgent(0, new String[] {OPTIMAL_MODES[i]});
+        }
+
+        Random random = new Random(7);
+        for(int map = 0; map < mapCount; map++) {
+            String layout = map % 2 == 0 ? BenchmarkMaps.OPEN : BenchmarkMaps.MAZE;
+            int size = 16 + random.nextInt(80);
+            ObstacleGrid obstacles = BenchmarkMaps.generate(layout, size, random.nextInt(40), map);
+            int[][] queries = BenchmarkMaps.queries(obstacles, 8, map);
+            for(int k = 0; k < queries[0].length; k++) {
+                int start = queries[0][k];
+                int goal = queries[1][k];
+                // every other query has the enemy footman on a random free cell, which may cut the map
+                int enemyCell = -1;
+                if(k % 2 == 1) {
+                    enemyCell = random.nextInt(obstacles.cellCount());
+                    if(obstacles.isBlocked(enemyCell) || enemyCell == start || enemyCell == goal) {
+                        enemyCell = -1;
+                    }
+                }
+
+                int[] expected = reference.search(obstacles, start, goal, enemyCell);
+                checkPath("astar", obstacles, start, goal, enemyCell, expected);
+                for(int i = 0; i < agents.length; i++) {
+                    int[] path = agents[i].search(obstacles, start, goal, enemyCell);
+                    String query = OPTIMAL_MODES[i] + " on " + layout + " map " + map + " from " + start + " to " + goal
+                            + " with the enemy on " + enemyCell;
+                    check(query + ": " + length(path) + " steps, astar " + length(expected),
+                            (path == null) == (expected == null) && (path == null || path.length == expected.length));
+                    checkPath(OPTIMAL_MODES[i], obstacles, start, goal, enemyCell, path);
+                }
+            }
+        }
+    }
+
+    private static void checkPath(String mode, ObstacleGrid obstacles, int start, int goal, int enemyCell, int[] path) {
+        if(path == null) {
+            return;
+        }
+        int yExtent = obstacles.getYExtent();
+        int previous = start;
+        boolean valid = true;
+        for(int cell : path) {
+            valid &= cell >= 0 && cell < obstacles.cellCount() && !obstacles.isBlocked(cell) && cell != enemyCell
+                    && isNeighbor(previous, cell, yExtent);
+            previous = cell;
+        }
+        valid &= previous != goal && isNeighbor(previous, goal, yExtent);
+        check(mode + " path from " + start + " to " + goal + " is a walk to the goal", valid);
+    }
+
+    private static void checkIncrementalUpdates(int mapCount) {
+        Random random = new Random(13);
+        for(int map = 0; map < mapCount; map++) {
+            String layout = map % 2 == 0 ? BenchmarkMaps.OPEN : BenchmarkMaps.MAZE;
+            ObstacleGrid obstacles = BenchmarkMaps.generate(layout, 16 + random.nextInt(48), random.nextInt(40), map);
+            int xExtent = obstacles.getXExtent();
+            int yExtent = obstacles.getYExtent();
+            int goal = randomFreeCell(obstacles, random, -1);
+
+            DStarLite dStarLite = new DStarLite(obstacles, goal);
+            FlowField flowField = new FlowField(obstacles, goal);
+            ConnectedComponents components = new ConnectedComponents(obstacles);
+            RunLengthRows runs = new RunLengthRows(xExtent);
+            ObstacleQuadtree quadtree = new ObstacleQuadtree(xExtent, yExtent);
+            for(int cell = 0; cell < obstacles.cellCount(); cell++) {
+                if(obstacles.isBlocked(cell)) {
+                    runs.block(cell / yExtent, cell % yExtent);
+                    quadtree.block(cell / yExtent, cell % yExtent);
+                }
+            }
+            // D* Lite only repairs a search it has run
+            dStarLite.moveStart(randomFreeCell(obstacles, random, goal));
+            dStarLite.findPath();
+
+            for(int round = 0; round < 12; round++) {
+                int changes = 1 + random.nextInt(4);
+                for(int i = 0; i < changes; i++) {
+                    int cell = random.nextInt(obstacles.cellCount());
+                    if(cell == goal) {
+                        continue;
+                    }
+                    int x = cell / yExtent;
+                    int y = cell % yExtent;
+                    if(obstacles.isBlocked(cell)) {
+                        obstacles.unblock(cell);
+                        runs.unblock(x, y);
+                        quadtree.unblock(x, y);
+                    } else {
+                        obstacles.block(cell);
+                        runs.block(x, y);
+                        quadtree.block(x, y);
+                    }
+                    dStarLite.cellChanged(cell);
+                    flowField.cellChanged(cell);
+                    components.cellChanged(cell);
+                }
+
+                String where = layout + " map " + map + " after round " + round;
+                checkStorage(where, obstacles, runs, quadtree, random);
+                checkFlowField(where, obstacles, flowField, new FlowField(obstacles, goal));
+                checkDStarLite(where, obstacles, dStarLite, goal, random);
+                checkComponents(where, obstacles, components, goal, random);
+            }
+        }
+    }
+
+    private static void checkStorage(String where, ObstacleGrid obstacles, SparseObstacles runs, SparseObstacles quadtree, Random random) {
+        int yExtent = obstacles.getYExtent();
+        boolean runsMatch = true;
+        boolean quadtreeMatch = true;
+        for(int cell = 0; cell < obstacles.cellCount(); cell++) {
+            boolean blocked = obstacles.isBlocked(cell);
+            runsMatch &= runs.isBlocked(cell / yExtent, cell % yExtent) == blocked;
+            quadtreeMatch &= quadtree.isBlocked(cell / yExtent, cell % yExtent) == blocked;
+        }
+        for(int i = 0; i < 16; i++) {
+            int x = random.nextInt(obstacles.getXExtent());
+            int y = random.nextInt(yExtent);
+            int count = 1 + random.nextInt(Math.min(64, yExtent - y));
+            long expected = 0;
+            for(int k = 0; k < count; k++) {
+                if(obstacles.isBlocked(x, y + k)) {
+                    expected |= 1L << k;
+                }
+            }
+            runsMatch &= runs.rowBits(x, y, count) == expected;
+            quadtreeMatch &= quadtree.rowBits(x, y, count) == expected;
+        }
+        check("RunLengthRows matches the bitmap on " + where, runsMatch);
+        check("ObstacleQuadtree matches the bitmap on " + where, quadtreeMatch);
+    }
+
+    private static void checkFlowField(String where, ObstacleGrid obstacles, FlowField updated, FlowField rebuilt) {
+        int yExtent = obstacles.getYExtent();
+        boolean distancesMatch = true;
+        boolean stepsCloser = true;
+        for(int cell = 0; cell < obstacles.cellCount(); cell++) {
+            int distance = updated.distance(cell);
+            distancesMatch &= distance == rebuilt.distance(cell);
+            if(distance != FlowField.UNREACHABLE && distance > 0) {
+                int next = updated.nextCell(cell);
+                stepsCloser &= next != -1 && isNeighbor(cell, next, yExtent) && updated.distance(next) == distance - 1
+                        && !obstacles.isBlocked(next);
+            }
+        }
+        check("FlowField distances match a rebuilt field on " + where, distancesMatch);
+        check("FlowField steps lead one cell closer on " + where, stepsCloser);
+    }
+
+    private static void checkDStarLite(String where, ObstacleGrid obstacles, DStarLite updated, int goal, Random random) {
+        int start = randomFreeCell(obstacles, random, goal);
+        int enemyCell = random.nextBoolean() ? randomFreeCell(obstacles, random, goal) : -1;
+        if(enemyCell == start) {
+            enemyCell = -1;
+        }
+        updated.moveStart(start);
+        updated.setBlockedCell(enemyCell);
+        int[] path = updated.findPath();
+
+        DStarLite rebuilt = new DStarLite(obstacles, goal);
+        rebuilt.moveStart(start);
+        rebuilt.setBlockedCell(enemyCell);
+        int[] expected = rebuilt.findPath();
+        check("DStarLite on " + where + " from " + start + ": " + length(path) + " steps, rebuilt " + length(expected),
+                (path == null) == (expected == null) && (path == null || path.length == expected.length));
+        checkPath("dstar_lite", obstacles, start, goal, enemyCell, path);
+    }
+
+    private static void checkComponents(String where, ObstacleGrid obstacles, ConnectedComponents components, int goal, Random random) {
+        int[][] queries = new int[16][];
+        for(int i = 0; i < queries.length; i++) {
+            int start = randomFreeCell(obstacles, random, goal);
+            // every other query goes to a random cell, free or not, instead of the townhall
+            int target = i % 2 == 0 ? goal : random.nextInt(obstacles.cellCount());
+            int blockedCell = randomFreeCell(obstacles, random, goal);
+            if(target == start || blockedCell == start || blockedCell == target) {
+                blockedCell = -1;
+            }
+            queries[i] = new int[] {start, target, blockedCell};
+        }
+
+        // the labels are exact at once, a blocked cell may only make a stale answer too optimistic
+        boolean lazyExact = true;
+        boolean lazyConservative = true;
+        for(int[] query : queries) {
+            if(query[0] == query[1]) {
+                continue;
+            }
+            lazyExact &= components.isReachable(query[0], query[1], -1) == isReachable(obstacles, query[0], query[1], -1);
+            lazyConservative &= components.isReachable(query[0], query[1], query[2])
+                    || !isReachable(obstacles, query[0], query[1], query[2]);
+        }
+        check("ConnectedComponents labels match a breadth-first search on " + where, lazyExact);
+        check("ConnectedComponents stale answers never miss a path on " + where, lazyConservative);
+
+        components.refresh();
+        boolean refreshedExact = true;
+        for(int[] query : queries) {
+            if(query[0] == query[1]) {
+                continue;
+            }
+            refreshedExact &= components.isReachable(query[0], query[1], query[2]) == isReachable(obstacles, query[0], query[1], query[2]);
+        }
+        check("ConnectedComponents with the enemy footman matches a breadth-first search on " + where, refreshedExact);
+        check("ConnectedComponents counts the components of a rebuilt labeling on " + where,
+                components.getComponentCount() == new ConnectedComponents(obstacles).getComponentCount());
+    }
+
+    /**
+     * Blocks a step of a shortest path and splices in a detour through a random cell near it,
+     * which often comes back to cells the path already visits.
+     */
+    private static void checkRepairs(int mapCount) {
+        AstarAgent agent = new AstarAgent(0, new String[] {"astar"});
+        Random random = new Random(17);
+        for(int map = 0; map < mapCount; map++) {
+            String layout = map % 2 == 0 ? BenchmarkMaps.OPEN : BenchmarkMaps.MAZE;
+            ObstacleGrid obstacles = BenchmarkMaps.generate(layout, 16 + random.nextInt(48), random.nextInt(40), map);
+            int yExtent = obstacles.getYExtent();
+            int[][] queries = BenchmarkMaps.queries(obstacles, 8, map);
+            PathOccupancy remaining = new PathOccupancy(obstacles.cellCount());
+            for(int k = 0; k < queries[0].length; k++) {
+                int origin = queries[0][k];
+                int goal = queries[1][k];
+                int[] path = agent.search(obstacles, origin, goal, -1);
+                if(path == null || path.length < 2) {
+                    continue;
+                }
+                // the path is indexed with the last step at 0, as AstarAgent.setPath does
+                remaining.clear();
+                for(int i = path.length - 1; i >= 0; i--) {
+                    remaining.add(path[i]);
+                }
+                int blockedIndex = random.nextInt(path.length);
+                int blockedCell = remaining.cellAt(blockedIndex);
+                int before = blockedIndex + 1 < remaining.size() ? remaining.cellAt(blockedIndex + 1) : origin;
+                int after = blockedIndex > 0 ? remaining.cellAt(blockedIndex - 1) : goal;
+
+                int x = Math.max(0, Math.min(obstacles.getXExtent() - 1, blockedCell / yExtent + random.nextInt(7) - 3));
+                int y = Math.max(0, Math.min(yExtent - 1, blockedCell % yExtent + random.nextInt(7) - 3));
+                int via = x * yExtent + y;
+                if(obstacles.isBlocked(via) || via == blockedCell || via == before || via == after || via == goal) {
+                    continue;
+                }
+                int[] toVia = agent.search(obstacles, before, via, blockedCell);
+                int[] fromVia = agent.search(obstacles, via, after, blockedCell);
+                if(toVia == null || fromVia == null) {
+                    continue;
+                }
+                int[] detour = Arrays.copyOf(toVia, toVia.length + 1 + fromVia.length);
+                detour[toVia.length] = via;
+                System.arraycopy(fromVia, 0, detour, toVia.length + 1, fromVia.length);
+
+                int[] repaired = agent.spliceDetour(obstacles, origin, remaining, blockedIndex, detour);
+                checkPath("spliced detour", obstacles, origin, goal, blockedCell, repaired);
+                boolean distinct = true;
+                PathOccupancy visited = new PathOccupancy(obstacles.cellCount());
+                visited.add(origin);
+                for(int cell : repaired) {
+                    distinct &= !visited.contains(cell);
+                    visited.add(cell);
+                }
+                check("spliced detour from " + origin + " to " + goal + " around " + blockedCell + " visits no cell twice", distinct);
+                check("spliced detour is not longer than the path and detour it was made of",
+                        repaired.length <= path.length - 1 + detour.length);
+            }
+        }
+    }
+
+    private static void checkArtifacts() throws IOException {
+        File directory = Files.createTempDirectory("astar-checks").toFile();
+        try {
+            ObstacleGrid obstacles = BenchmarkMaps.generate(BenchmarkMaps.OPEN, 64, 20, 1);
+            Random random = new Random(11);
+            List<MapArtifacts.Section> sections = new ArrayList<MapArtifacts.Section>();
+            sections.add(new MapArtifacts.Section(MapArtifacts.LANDMARKS, 8, randomContent(random, 4096)));
+            sections.add(new MapArtifacts.Section(MapArtifacts.DISTANCE_FIELD, 0, randomContent(random, 1001)));
+            MapArtifacts.write(directory, obstacles, sections);
+
+            MapArtifacts artifacts = MapArtifacts.map(directory, obstacles);
+            check("artifacts are mapped back", artifacts != null);
+            if(artifacts != null) {
+                for(MapArtifacts.Section written : sections) {
+                    MapArtifacts.Section read = artifacts.getSection(written.getType(), written.getParameter());
+                    check("section " + written.getType() + " is read back unchanged",
+                            read != null && read.getContent().equals(written.getContent()));
+                }
+            }
+
+            // a file written for other trees must not be mapped, nor must one with a changed byte
+            ObstacleGrid other = BenchmarkMaps.generate(BenchmarkMaps.OPEN, 64, 20, 2);
+            File file = MapArtifacts.fileFor(directory, obstacles.fingerprint());
+            File otherFile = MapArtifacts.fileFor(directory, other.fingerprint());
+            Files.copy(file.toPath(), otherFile.toPath());
+            check("artifacts of other trees are not mapped", MapArtifacts.map(directory, other) == null);
+
+            try(RandomAccessFile corrupt = new RandomAccessFile(file, "rw")) {
+                long position = corrupt.length() - 1;
+                corrupt.seek(position);
+                int value = corrupt.read();
+                corrupt.seek(position);
+                corrupt.write(value ^ 1);
+            }
+            check("artifacts with a changed byte are not mapped", MapArtifacts.map(directory, obstacles) == null);
+        } finally {
+            File[] files = directory.listFiles();
+            if(files != null) {
+                for(File file : files) {
+                    file.delete();
+                }
+            }
+            directory.delete();
+        }
+    }
+
+    private static ByteBuffer randomContent(Random random, int length) {
+        byte[] bytes = new byte[length];
+        random.nextBytes(bytes);
+        return ByteBuffer.wrap(bytes);
+    }
+
+    private static int randomFreeCell(ObstacleGrid obstacles, Random random, int except) {
+        while(true) {
+            int cell = random.nextInt(obstacles.cellCount());
+            if(!obstacles.isBlocked(cell) && cell != except) {
+                return cell;
+            }
+        }
+    }
+
+    /**
+     * Breadth-first search from the start over the free cells other than blockedCell, for
+     * whether a path can end next to the target as the searches look for.
+     */
+    private static boolean isReachable(ObstacleGrid obstacles, int start, int target, int blockedCell) {
+        if(target == blockedCell) {
+            return false;
+        }
+        int yExtent = obstacles.getYExtent();
+        boolean[] seen = new boolean[obstacles.cellCount()];
+        int[] queue = new int[obstacles.cellCount()];
+        int head = 0, tail = 0;
+        seen[start] = true;
+        queue[tail++] = start;
+        while(head < tail) {
+            int cell = queue[head++];
+            if(isNeighbor(cell, target, yExtent)) {
+                return true;
+            }
+            int x = cell / yExtent;
+            int y = cell % yExtent;
+            for(int dx = -1; dx <= 1; dx++) {
+                for(int dy = -1; dy <= 1; dy++) {
+                    int next = (x + dx) * yExtent + y + dy;
+                    if(!obstacles.inBounds(x + dx, y + dy) || seen[next] || next == blockedCell || next == target
+                            || obstacles.isBlocked(next)) {
+                        continue;
+                    }
+                    seen[next] = true;
+                    queue[tail++] = next;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean isNeighbor(int a, int b, int yExtent) {
+        return a != b && Math.abs(a / yExtent - b / yExtent) <= 1 && Math.abs(a % yExtent - b % yExtent) <= 1;
+    }
+
+    private static int length(int[] path) {
+        return path == null ? -1 : path.length;
+    }
+
+    private static void check(String description, boolean passed) {
+        checks++;
+        if(!passed) {
+            failures++;
+            System.out.println("FAILED: " + description);
+        }
+    }
+}
@@ -0,0 +1,308 @@
+package edu.cwru.sepia.agent;
+
+import java.util.Arrays;
+
+/**
+ * Anytime Repairing A* (ARA*) with a time budget per call.
+ *
+ * The first iteration runs weighted A* with f = g + inflation * h, which finds a path
+ * quickly that is at most inflation times longer than the shortest one. Every following
+ * iteration lowers the inflation and reuses the previous search, re-expanding only the
+ * cells whose cost improved, until the inflation reaches 1 and the path is optimal.
+ * improve runs iterations until its deadline and can be called again on later turns to
+ * continue where it stopped.
+ *
+ * The search runs backwards from the townhall, so every reached cell keeps a parent chain
+ * to the townhall that only gets shorter as the search improves. The footman can keep
+ * following the path while it is being improved, and the better path is read from
+ * whatever cell it has reached.
+ */
+public class AnytimeRepairingAstar {
+
+    public static final double INITIAL_INFLATION = 3.0;
+    public static final double INFLATION_STEP = 0.5;
+
+    private static final int INFINITY = Integer.MAX_VALUE;
+    // f values are stored in the heap as fixed point numbers
+    private static final double KEY_SCALE = 1024.0;
+    // how many expansions run between two checks of the deadline
+    private static final int DEADLINE_CHECK_INTERVAL = 64;
+
+    private final ObstacleGrid obstacles;
+    private final int xExtent, yExtent;
+    private final int start, goal, blockedCell;
+    private final long treeVersion;
+
+    private final int[] g;
+    private final int[] parent;
+    private final boolean[] closed;
+    private final boolean[] inconsistent;
+    private final IndexedMinHeap openSet;
+    private int[] closedList = new int[64];
+    private int closedCount;
+    private int[] inconsistentList = new int[64];
+    private int inconsistentCount;
+
+    private double inflation = INITIAL_INFLATION;
+    private double solutionInflation = Double.POSITIVE_INFINITY;
+    private boolean exhausted;
+
+    private int expandedNodes;
+
+    /**
+     * @param obstacles Bitmap of the positions occupied by resources
+     * @param start Cell index of the footman
+     * @param goal Cell index of the townhall
+     * @param blockedCell Cell index of an additional blocker such as the enemy footman, or -1
+     */
+    public AnytimeRepairingAstar(ObstacleGrid obstacles, int start, int goal, int blockedCell)
+    {
+        this.obstacles = obstacles;
+        this.xExtent = obstacles.getXExtent();
+        this.yExtent = obstacles.getYExtent();
+        this.start = start;
+        this.goal = goal;
+        this.blockedCell = blockedCell;
+        this.treeVersion = obstacles.fingerprint();
+
+        int cellCount = xExtent * yExtent;
+        this.g = new int[cellCount];
+        this.parent = new int[cellCount];
+        this.closed = new boolean[cellCount];
+        this.inconsistent = new boolean[cellCount];
+        this.openSet = new IndexedMinHeap(cellCount);
+        Arrays.fill(g, INFINITY);
+
+        g[goal] = 0;
+        parent[goal] = -1;
+        openSet.insert(goal, key(goal));
+    }
+
+    /**
+     * The search only vouches for the cell it was built for and the cells it expanded in its
+     * current iteration: any other reached cell may still have a parent chain found through a
+     * cell that is open, which can be longer than the bound. A footman that left the path, for
+     * example after a local repair, is therefore only planned for from a cell the search closed.
+     *
+     * The blocked cell is not part of the check, so the path can keep being improved between
+     * turns after the enemy footman moved. Its old cell only keeps the search from using one
+     * free cell, and a path onto its new cell is caught by shouldReplanPath. A new query around
+     * another blocked cell needs a new search, because the bound only holds for the blocked cell
+     * the search was built with; callers compare getBlockedCell for that.
+     *
+     * @return true when the search was built for the same map, townhall and trees and has a
+     *         path from the given cell within its bound, so it can keep being improved
+     */
+    public boolean plansFor(ObstacleGrid obstacles, int from, int goal) {
+        return this.obstacles == obstacles && this.goal == goal
+                && obstacles.fingerprint() == treeVersion && isSettled(from);
+    }
+
+    /**
+     * @return true when the path from the given cell is the shortest one, which only holds for
+     *         the cells plansFor accepts once the search is optimal
+     */
+    public boolean isOptimalFrom(int from) {
+        return isOptimal() && isSettled(from);
+    }
+
+    public int getBlockedCell() {
+        return blockedCell;
+    }
+
+    /**
+     * Improves the path until the deadline passes or the path is optimal. The first path is
+     * always searched to completion, even if that takes longer than the deadline.
+     *
+     * @param deadline System.nanoTime() value at which the search stops, even in the middle of an iteration
+     * @return true if a better path was found during this call
+     */
+    public boolean improve(long deadline) {
+        expandedNodes = 0;
+        boolean improved = false;
+
+        while(!exhausted && !isOptimal()) {
+            if(!improvePath(hasSolution() ? deadline : Long.MAX_VALUE)) {
+                return improved;
+            }
+
+            if(g[start] == INFINITY) {
+                // the open set ran empty without reaching the footman
+                exhausted = true;
+                return improved;
+            }
+
+            solutionInflation = inflation;
+            improved = true;
+            if(isOptimal()) {
+                return improved;
+            }
+            startNextIteration();
+            if(System.nanoTime() >= deadline) {
+                return improved;
+            }
+        }
+        return improved;
+    }
+
+    public boolean hasSolution() {
+        return solutionInflation != Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * @return true when the current path is the shortest one
+     */
+    public boolean isOptimal() {
+        return solutionInflation <= 1.0;
+    }
+
+    /**
+     * @return Bound on how many times longer than the shortest path the current path can be
+     */
+    public double getSolutionInflation() {
+        return solutionInflation;
+    }
+
+    /**
+     * Follows the parent chain from a cell to the townhall.
+     *
+     * @return Cell indices after from up to the cell next to the goal, or null if from has not been reached
+     */
+    public int[] pathFrom(int from) {
+        if(g[from] == INFINITY) {
+            return null;
+        }
+
+        int length = 0;
+        for(int cell = parent[from]; cell != goal && cell != -1; cell = parent[cell]) {
+            length++;
+        }
+        int[] path = new int[length];
+        int i = 0;
+        for(int cell = parent[from]; cell != goal && cell != -1; cell = parent[cell]) {
+            path[i++] = cell;
+        }
+        return path;
+    }
+
+    /**
+     * @return Number of cells expanded by the last call to improve
+     */
+    public int getExpandedNodes() {
+        return expandedNodes;
+    }
+
+    /**
+     * Expands cells in order of their inflated f value until the footman's cell cannot be
+     * improved by any cell left on the open set.
+     *
+     * @return true if the iteration finished, false if the deadline passed first
+     */
+    private boolean improvePath(long deadline) {
+        int sinceCheck = 0;
+        while(!openSet.isEmpty() && openSet.peekKey() < key(start)) {
+            if(++sinceCheck == DEADLINE_CHECK_INTERVAL) {
+                sinceCheck = 0;
+                if(System.nanoTime() >= deadline) {
+                    return false;
+                }
+            }
+
+            int current = openSet.poll();
+            closed[current] = true;
+            closedList = append(closedList, closedCount++, current);
+            expandedNodes++;
+
+            int x = current / yExtent;
+            int y = current % yExtent;
+            int nextCost = g[current] + 1;
+            for(int dx = -1; dx <= 1; dx++) {
+                for(int dy = -1; dy <= 1; dy++) {
+                    int nextX = x + dx;
+                    int nextY = y + dy;
+                    if((dx == 0 && dy == 0) || !isWalkable(nextX, nextY)) {
+                        continue;
+                    }
+
+                    int next = nextX * yExtent + nextY;
+                    if(nextCost >= g[next]) {
+                        continue;
+                    }
+
+                    g[next] = nextCost;
+                    parent[next] = current;
+                    if(!closed[next]) {
+                        openSet.update(next, key(next));
+                    } else if(!inconsistent[next]) {
+                        // closed cells are only expanded again in the next iteration
+                        inconsistent[next] = true;
+                        inconsistentList = append(inconsistentList, inconsistentCount++, next);
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Lowers the inflation, moves the inconsistent cells back to the open set, orders the
+     * open set by the new f values and empties the closed set.
+     */
+    private void startNextIteration() {
+        inflation = Math.max(1.0, inflation - INFLATION_STEP);
+
+        int[] queued = new int[openSet.size() + inconsistentCount];
+        int queuedCount = 0;
+        while(!openSet.isEmpty()) {
+            queued[queuedCount++] = openSet.poll();
+        }
+        for(int i = 0; i < inconsistentCount; i++) {
+            inconsistent[inconsistentList[i]] = false;
+            queued[queuedCount++] = inconsistentList[i];
+        }
+        inconsistentCount = 0;
+
+        for(int i = 0; i < closedCount; i++) {
+            closed[closedList[i]] = false;
+        }
+        closedCount = 0;
+
+        for(int i = 0; i < queuedCount; i++) {
+            openSet.update(queued[i], key(queued[i]));
+        }
+    }
+
+    private boolean isSettled(int cell) {
+        return g[cell] != INFINITY && (cell == start || closed[cell]);
+    }
+
+    private long key(int cell) {
+        if(g[cell] == INFINITY) {
+            return Long.MAX_VALUE;
+        }
+        return (long) ((g[cell] + inflation * heuristic(cell)) * KEY_SCALE);
+    }
+
+    /**
+     * Chebyshev distance to the footman, the target of the backward search.
+     */
+    private int heuristic(int cell) {
+        return Math.max(Math.abs(cell / yExtent - start / yExtent), Math.abs(cell % yExtent - start % yExtent));
+    }
+
+    private boolean isWalkable(int x, int y) {
+        if(x < 0 || x >= xExtent || y < 0 || y >= yExtent) {
+            return false;
+        }
+        int cell = x * yExtent + y;
+        return cell != blockedCell && !obstacles.isBlocked(cell);
+    }
+
+    private static int[] append(int[] list, int index, int value) {
+        if(index == list.length) {
+            list = Arrays.copyOf(list, list.length * 2);
+        }
+        list[index] = value;
+        return list;
+    }
+}
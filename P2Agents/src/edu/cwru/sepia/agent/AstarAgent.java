@@ -7,34 +7,182 @@ import edu.cwru.sepia.environment.model.state.State;
 import edu.cwru.sepia.environment.model.state.Unit;
 import edu.cwru.sepia.util.Direction;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class AstarAgent extends Agent {
 
-    class MapLocation
+    /**
+     * Everything an AstarSearch call writes to besides the map: the arena, the neighbor buffer
+     * and the number of expanded nodes, with the heuristics it reads on top of Chebyshev distance.
+     * The detours searched between turns have a state of their own, so a search left running on
+     * the detour thread never touches a search on the main thread.
+     */
+    private static final class AstarSearchState
     {
-    	public int x, y;
-        public MapLocation cameFrom;
-        public float cost;
-        public float heuristicCost;
-        public float f;
-        public MapLocation(int x, int y, MapLocation cameFrom, float cost)
+        final SearchArena arena;
+        final int[] neighbors = new int[8];
+        // null when the search uses Chebyshev distance alone
+        LandmarkHeuristic landmarks;
+        BitParallelDistanceField field;
+        int expandedNodes;
+
+        AstarSearchState(SearchArena arena)
         {
-            this.x = x;
-            this.y = y;
-            this.cameFrom=cameFrom;
-            this.cost=cost;
+            this.arena = arena;
         }
     }
 
-    Stack<MapLocation> path;
+    /**
+     * Search algorithms findPath can use. Selected with the first agent argument.
+     */
+    enum SearchMode
+    {
+        ASTAR,         // A* over every neighbor of a cell
+        JPS,           // Jump Point Search, only expands cells where the path may turn
+        DSTAR_LITE,    // D* Lite, repairs the previous search when the enemy footman moves
+        BIDIRECTIONAL, // A* from the footman and from the townhall until the two searches meet
+        HPA,           // hierarchical A* over map clusters, refines one segment at a time
+        ARA,           // anytime A*, returns the best path found within a per-turn time budget
+        ALT,           // A* with lower bounds from precomputed landmark distances as heuristic
+        COOPERATIVE,   // windowed cooperative A* moving every footman against a shared reservation table
+        FLOW_FIELD,    // one search from the townhall gives every footman its next step with a table lookup
+        DISTANCE_FIELD, // bit-parallel breadth first search from the townhall, paths follow the distances down
+        PREDICTIVE,    // space-time A* around the predicted moves of the enemy footman, waiting where it helps
+        PORTFOLIO,     // several of the searches above race on a thread pool, the first answer is used
+        COMPOUND,      // A*, with stretches of the path handed to SEPIA as compound moves while the enemy footman is far
+        LRTA           // Learning Real-Time A*, a bounded lookahead per turn with estimates learned over the runs
+    }
+
+    // steps of the plan being followed, its cursor is on the cell the footman was last sent to
+    DirectionPath path;
     int footmanID, townhallID, enemyFootmanID;
-    MapLocation nextLoc;
+
+    // tree bitmap built on the first findPath call and the cell of every resource it contains
+    private ObstacleGrid obstacleGrid;
+    private final Map<Integer, Integer> resourceCells = new HashMap<Integer, Integer>();
 
     private long totalPlanTime = 0; // nsecs
     private long totalExecutionTime = 0; //nsecs
+    private long totalExpandedNodes = 0;
+
+    // per-turn distributions written by terminalStep to <prefix>-<episode>.json and <prefix>.csv
+    private final EpisodeStats episodeStats = new EpisodeStats();
+    private static final String STATS_FILE_PREFIX = System.getProperty("astar.stats", "AstarAgent-stats");
+    private int episode = 0;
+    private boolean statsWritten;
+
+    private SearchMode searchMode = SearchMode.ASTAR;
+    private final JumpPointSearch jumpPointSearch = new JumpPointSearch();
+    private DStarLite dStarLite;
+    private final BidirectionalAstar bidirectionalAstar = new BidirectionalAstar();
+    private HierarchicalPathfinder hierarchicalPathfinder;
+    private static final int HPA_CLUSTER_SIZE = 16;
+    private AnytimeRepairingAstar anytimeSearch;
+    // time the anytime search may spend per turn, set with the second agent argument
+    private long planBudget = 5000000; // nsecs
+
+    // landmark distances used by AstarSearch in addition to Chebyshev distance, null unless in ALT mode
+    private LandmarkHeuristic landmarkHeuristic;
+    // distances to the townhall in DISTANCE_FIELD mode
+    private BitParallelDistanceField distanceField;
+    // number of landmarks, set with the second agent argument, and the memory the table may use
+    private int landmarkCount = 8;
+    private static final long LANDMARK_MEMORY_LIMIT = 64L << 20; // bytes
+
+    // every footman of the player in COOPERATIVE and FLOW_FIELD modes, and the time steps each cooperative plan looks ahead
+    private final List<Integer> footmanIDs = new ArrayList<Integer>();
+    private CooperativePathfinder cooperativePathfinder;
+    private int cooperativeWindow = 16;
+    // distance and next step towards the townhall for every cell in FLOW_FIELD mode
+    private FlowField flowField;
+    // search in PREDICTIVE mode and the number of turns it predicts the enemy footman for
+    private SpaceTimeAstar spaceTimeAstar;
+    private int predictionHorizon = 8;
+    // searches raced in PORTFOLIO mode, set with the second agent argument, and the pool shared by every agent in the JVM
+    private PortfolioSearch portfolioSearch;
+    private String portfolioEngines = "alt,jps,bidirectional";
+    private boolean portfolioLandmarks;
+    private static final int PORTFOLIO_MAX_THREADS = 3;
+    private static ExecutorService portfolioExecutor;
+    // COMPOUND mode: compound moves are only issued while the enemy footman is farther away than the
+    // radius, set with the second agent argument. A compound move covers at most COMPOUND_MAX_STEPS
+    private int compoundRadius = 4;
+    private static final int COMPOUND_MAX_STEPS = 16;
+    // turns a compound move may leave the footman where it is before it counts as failed
+    private static final int COMPOUND_STALL_TURNS = 2;
+    // cell the compound move in progress ends in, -1 while the footman is stepped by hand
+    private int compoundWaypoint = -1;
+    private int compoundLastCell;
+    private int compoundStalledTurns;
+    // turns left to step by hand after a compound move got stuck, so it is not handed over again at once
+    private int handSteppedTurns;
+    private int compoundMoves, primitiveMoves;
+    // LRTA mode: moves looked ahead per turn, set with the second agent argument. The estimates
+    // learned on every map played are carried over to the next run through savePlayerData
+    private int lrtaLookahead = 1;
+    private static final int LRTA_MAX_LOOKAHEAD = 5;
+    private static final int LRTA_MAX_TABLES = 16;
+    // most recently used first
+    private final List<LearningRealTimeAstar> learnedEstimates = new ArrayList<LearningRealTimeAstar>();
+    private LearningRealTimeAstar realTimeSearch;
+    // cell the footman was last sent to, -1 before the first move
+    private int realTimeTarget = -1;
+
+    // shared by every agent in the JVM so that restarts on the same map reuse the paths
+    private static final int PATH_CACHE_CAPACITY = 256;
+    private static final PathCache pathCache = new PathCache(PATH_CACHE_CAPACITY);
+    // lookups of this agent in the current episode, the hit and miss totals of the cache are JVM-wide
+    private int cacheHits, cacheMisses;
+    private int lastExpandedNodes;
+
+    // reused by every AstarSearch call on the main thread so that a search allocates nothing per node
+    private AstarSearchState searchState;
+
+    // preprocessing results saved per map fingerprint, see MapArtifacts. The directory is set with
+    // -Dastar.artifacts and carried over to the next run through savePlayerData. Version 2 added
+    // the estimates learned in LRTA mode
+    private static final int PLAYER_DATA_VERSION = 2;
+    private File artifactDirectory = new File(System.getProperty("astar.artifacts", "AstarAgent-artifacts"));
+    // the mapped file of the trees last looked up, null if there was none
+    private MapArtifacts mapArtifacts;
+    private long artifactFingerprint;
+    private boolean artifactsLookedUp;
+    // set when something was built that the file of the current trees does not hold yet
+    private boolean artifactsChanged;
+    // components of the free cells, answers queries without a path before any search runs
+    private ConnectedComponents connectedComponents;
+
+    // index of the cells on the current path, kept in sync with path by setPath
+    private PathOccupancy pathOccupancy;
+    // scratch index used by repairPath to cut loops out of a repaired path
+    private PathOccupancy repairCells;
+    // a local detour around the enemy footman may expand at most this many nodes before a full replan
+    private static final int LOCAL_REPAIR_MAX_EXPANSIONS = 256;
+    // detours around the cells the enemy footman may block next, searched between turns on a daemon
+    // thread and turned off with -Dastar.detours=false
+    private static final boolean PRECOMPUTE_DETOURS = !"false".equals(System.getProperty("astar.detours"));
+    private static final int PRECOMPUTED_DETOURS = 4;
+    private static ExecutorService detourExecutor;
+    private DetourPrecomputer detourPrecomputer;
+
+    //All the moves that are possible in any location.
+    private static final int[][] DIRECTIONS = {
+
+            {-1, 0}, {1, 0}, {0, -1}, {0, 1},   //Moving up,down,left,right
+
+            {-1, -1}, {-1, 1}, {1, -1}, {1, 1}  //Moving diagonally
+
+    };
 
     public AstarAgent(int playernum)
     {
@@ -43,6 +191,67 @@ public class AstarAgent extends Agent {
         System.out.println("Constructed AstarAgent");
     }
 
+    public AstarAgent(int playernum, String[] args)
+    {
+        this(playernum);
+
+        if(args.length > 0) {
+            try {
+                searchMode = SearchMode.valueOf(args[0].trim().toUpperCase());
+            } catch(IllegalArgumentException e) {
+                System.err.println("Unknown search mode " + args[0] + ", using " + searchMode);
+            }
+        }
+        // the second argument configures the selected mode
+        if(args.length > 1 && searchMode == SearchMode.ARA) {
+            try {
+                planBudget = (long) (Double.parseDouble(args[1].trim()) * 1e6);
+            } catch(NumberFormatException e) {
+                System.err.println("Invalid plan budget " + args[1] + ", using " + planBudget/1e6 + " ms");
+            }
+        } else if(args.length > 1 && searchMode == SearchMode.ALT) {
+            try {
+                landmarkCount = Integer.parseInt(args[1].trim());
+            } catch(NumberFormatException e) {
+                System.err.println("Invalid landmark count " + args[1] + ", using " + landmarkCount);
+            }
+        } else if(args.length > 1 && searchMode == SearchMode.COOPERATIVE) {
+            try {
+                cooperativeWindow = Math.max(2, Math.min(255, Integer.parseInt(args[1].trim())));
+            } catch(NumberFormatException e) {
+                System.err.println("Invalid window " + args[1] + ", using " + cooperativeWindow);
+            }
+        } else if(args.length > 1 && searchMode == SearchMode.PREDICTIVE) {
+            try {
+                predictionHorizon = Math.max(1, Math.min(64, Integer.parseInt(args[1].trim())));
+            } catch(NumberFormatException e) {
+                System.err.println("Invalid prediction horizon " + args[1] + ", using " + predictionHorizon);
+            }
+        } else if(args.length > 1 && searchMode == SearchMode.PORTFOLIO) {
+            portfolioEngines = args[1].trim();
+        } else if(args.length > 1 && searchMode == SearchMode.COMPOUND) {
+            try {
+                compoundRadius = Math.max(0, Integer.parseInt(args[1].trim()));
+            } catch(NumberFormatException e) {
+                System.err.println("Invalid enemy radius " + args[1] + ", using " + compoundRadius);
+            }
+        } else if(args.length > 1 && searchMode == SearchMode.LRTA) {
+            try {
+                lrtaLookahead = Math.max(1, Math.min(LRTA_MAX_LOOKAHEAD, Integer.parseInt(args[1].trim())));
+            } catch(NumberFormatException e) {
+                System.err.println("Invalid lookahead " + args[1] + ", using " + lrtaLookahead);
+            }
+        }
+        if(searchMode == SearchMode.PORTFOLIO) {
+            portfolioSearch = createPortfolio(portfolioEngines);
+        }
+
+        System.out.println("Search mode: " + searchMode);
+        if(searchMode == SearchMode.ARA) {
+            System.out.println("Plan budget per turn: " + planBudget/1e6 + " ms");
+        }
+    }
+
     @Override
     public Map<Integer, Action> initialStep(State.StateView newstate, History.HistoryView statehistory) {
         // get the footman location
@@ -63,6 +272,14 @@ public class AstarAgent extends Agent {
             return null;
         }
 
+        footmanIDs.clear();
+        for(Integer unitID : unitIDs)
+        {
+            if(newstate.getUnit(unitID).getTemplateView().getName().equals("Footman")) {
+                footmanIDs.add(unitID);
+            }
+        }
+
         // find the enemy playernum
         Integer[] playerNums = newstate.getPlayerNumbers();
         int enemyPlayerNum = -1;
@@ -114,15 +331,81 @@ public class AstarAgent extends Agent {
             return null;
         }
 
+        if(episode == 0) {
+            // number on from the episodes an earlier run already wrote with the same prefix
+            try {
+                episode = EpisodeStats.countEpisodes(STATS_FILE_PREFIX);
+            } catch(IOException e) {
+                System.err.println("Failed to read the episode statistics: " + e.getMessage());
+            }
+        }
+        episode++;
+        episodeStats.reset();
+        statsWritten = false;
+        cacheHits = 0;
+        cacheMisses = 0;
+        compoundWaypoint = -1;
+        handSteppedTurns = 0;
+        realTimeTarget = -1;
+        if(detourPrecomputer == null && usesDetourPrecomputation()) {
+            // the detours are searched like repairPath does, on an arena bounded to the cells a detour search can reach,
+            // with Chebyshev distance alone since the heuristics of the main thread change under it
+            AstarSearchState detourState = new AstarSearchState(
+                    new SearchArena(newstate.getXExtent() * newstate.getYExtent(), 8 * LOCAL_REPAIR_MAX_EXPANSIONS + 1));
+            detourPrecomputer = new DetourPrecomputer(detourExecutor(), PRECOMPUTED_DETOURS,
+                    (obstacles, start, goal, blockedCell, cancelled) -> AstarSearch(start, goal, obstacles, blockedCell,
+                            LOCAL_REPAIR_MAX_EXPANSIONS, cancelled, detourState), () -> detourState.expandedNodes);
+        }
+
+        if(searchMode == SearchMode.COOPERATIVE || searchMode == SearchMode.FLOW_FIELD || searchMode == SearchMode.LRTA) {
+            // these modes plan in middleStep, which sets up the townhall distances or learned estimates on the first turn
+            return middleStep(newstate, statehistory);
+        }
+
         long startTime = System.nanoTime();
-        path = findPath(newstate);
+        if(searchMode == SearchMode.HPA) {
+            // split the map into clusters and precompute the abstract graph once
+            hierarchicalPathfinder = createHierarchicalPathfinder(updateObstacleGrid(newstate));
+        }
+        if(searchMode == SearchMode.ALT || usesLandmarks()) {
+            // one breadth first search per landmark over the whole map
+            landmarkHeuristic = createLandmarkHeuristic(updateObstacleGrid(newstate));
+        }
+        setPath(findPath(newstate));
         totalPlanTime += System.nanoTime() - startTime;
 
+        if(searchMode == SearchMode.ALT) {
+            reportLandmarkReduction(newstate);
+        }
+
         return middleStep(newstate, statehistory);
     }
 
     @Override
     public Map<Integer, Action> middleStep(State.StateView newstate, History.HistoryView statehistory) {
+        if(detourPrecomputer != null) {
+            // the background search reads the tree bitmap, which this turn may change
+            detourPrecomputer.stop();
+        }
+        if(connectedComponents != null) {
+            connectedComponents.stopRefresh();
+        }
+        if(searchMode == SearchMode.COOPERATIVE) {
+            return cooperativeStep(newstate, statehistory);
+        }
+        if(searchMode == SearchMode.FLOW_FIELD) {
+            return flowFieldStep(newstate, statehistory);
+        }
+        if(searchMode == SearchMode.LRTA) {
+            return realTimeStep(newstate, statehistory);
+        }
+        if(searchMode == SearchMode.COMPOUND) {
+            Map<Integer, Action> delegated = compoundStep(newstate, statehistory);
+            if(delegated != null) {
+                return delegated;
+            }
+        }
+
         long startTime = System.nanoTime();
         long planTime = 0;
 
@@ -130,9 +413,32 @@ public class AstarAgent extends Agent {
 
         if(shouldReplanPath(newstate, statehistory, path)) {
             long planStartTime = System.nanoTime();
-            path = findPath(newstate);
+            // try a detour around the blocked step before planning again from scratch, a space-time
+            // path is only valid as a whole
+            if(searchMode == SearchMode.PREDICTIVE || !repairPath(newstate)) {
+                setPath(findPath(newstate));
+            }
             planTime = System.nanoTime() - planStartTime;
             totalPlanTime += planTime;
+            episodeStats.recordReplan(planTime);
+        }
+
+        // the hierarchical planner only refines the segment being executed, refine the next one once it is used up
+        if(path.isDone() && searchMode == SearchMode.HPA && hierarchicalPathfinder.hasNextSegment()) {
+            long planStartTime = System.nanoTime();
+            setPath(nextHierarchicalSegment(newstate));
+            long segmentTime = System.nanoTime() - planStartTime;
+            planTime += segmentTime;
+            totalPlanTime += segmentTime;
+        }
+
+        // the anytime planner keeps improving its path on later turns while the footman follows it
+        if(searchMode == SearchMode.ARA && anytimeSearch != null && !anytimeSearch.isOptimal()) {
+            long planStartTime = System.nanoTime();
+            improveAnytimePath(newstate);
+            long improveTime = System.nanoTime() - planStartTime;
+            planTime += improveTime;
+            totalPlanTime += improveTime;
         }
 
         Unit.UnitView footmanUnit = newstate.getUnit(footmanID);
@@ -140,28 +446,49 @@ public class AstarAgent extends Agent {
         int footmanX = footmanUnit.getXPosition();
         int footmanY = footmanUnit.getYPosition();
 
-        if(!path.empty() && (nextLoc == null || (footmanX == nextLoc.x && footmanY == nextLoc.y))) {
+        int yExtent = obstacleGrid.getYExtent();
+        int footmanCell = footmanX * yExtent + footmanY;
+
+        boolean waiting = false;
+        if(!path.isDone() && path.currentCell() == footmanCell) {
 
             // stat moving to the next step in the path
-            nextLoc = path.pop();
+            waiting = path.advance() == null;
+            pathOccupancy.removeNext();
 
-            System.out.println("Moving to (" + nextLoc.x + ", " + nextLoc.y + ")");
+            if(waiting) {
+                System.out.println("Waiting at (" + footmanX + ", " + footmanY + ")");
+            } else {
+                System.out.println("Moving to (" + path.currentCell() / yExtent + ", " + path.currentCell() % yExtent + ")");
+            }
         }
 
-        if(nextLoc != null && (footmanX != nextLoc.x || footmanY != nextLoc.y))
+        if(path.currentCell() != footmanCell)
         {
-            int xDiff = nextLoc.x - footmanX;
-            int yDiff = nextLoc.y - footmanY;
-
-            // figure out the direction the footman needs to move in
-            Direction nextDirection = getNextDirection(xDiff, yDiff);
+            Direction nextDirection;
+            if(path.previousCell() == footmanCell) {
+                // the step was planned from here, its direction is stored in the path
+                nextDirection = path.lastDirection();
+            } else {
+                // a repaired or improved path starts from the cell the footman is still moving to
+                int xDiff = path.currentCell() / yExtent - footmanX;
+                int yDiff = path.currentCell() % yExtent - footmanY;
+                nextDirection = getNextDirection(xDiff, yDiff);
+            }
 
             actions.put(footmanID, Action.createPrimitiveMove(footmanID, nextDirection));
-        } else {
+            primitiveMoves++;
+            startDetourPrecomputation(newstate);
+            if(connectedComponents != null) {
+                // a query with the enemy footman blocking a cell on changed trees asked for the articulation arrays
+                connectedComponents.startRefresh(detourExecutor());
+            }
+        } else if(!waiting) {
             Unit.UnitView townhallUnit = newstate.getUnit(townhallID);
 
             // if townhall was destroyed on the last turn
             if(townhallUnit == null) {
+                episodeStats.recordTurn(System.nanoTime() - startTime);
                 terminalStep(newstate, statehistory);
                 return actions;
             }
@@ -171,6 +498,7 @@ public class AstarAgent extends Agent {
             {
                 System.err.println("Invalid plan. Cannot attack townhall");
                 totalExecutionTime += System.nanoTime() - startTime - planTime;
+                episodeStats.recordTurn(System.nanoTime() - startTime);
                 return actions;
             }
             else {
@@ -181,266 +509,1478 @@ public class AstarAgent extends Agent {
         }
 
         totalExecutionTime += System.nanoTime() - startTime - planTime;
+        episodeStats.recordTurn(System.nanoTime() - startTime);
         return actions;
     }
 
-    @Override
-    public void terminalStep(State.StateView newstate, History.HistoryView statehistory) {
-        System.out.println("Total turns: " + newstate.getTurnNumber());
-        System.out.println("Total planning time: " + totalPlanTime/1e9);
-        System.out.println("Total execution time: " + totalExecutionTime/1e9);
-        System.out.println("Total time: " + (totalExecutionTime + totalPlanTime)/1e9);
-        
-        //for dynamic map manually calling the System.exit() as scenario wont end
-        if(enemyFootmanID!=-1) {
-        	System.out.println("Destroyed the Townhall");
-        	System.exit(0);
+    /**
+     * middleStep for COMPOUND mode while the enemy footman is far away. The footman is sent
+     * to a waypoint further along its path with one compound move, and SEPIA walks it there
+     * over the next turns while the agent only checks whether it arrived, got stuck, or the
+     * enemy footman came within compoundRadius.
+     *
+     * @param state
+     * @param history
+     * @return The actions of this turn, or null when middleStep should step the footman by hand
+     */
+    private Map<Integer, Action> compoundStep(State.StateView state, History.HistoryView history)
+    {
+        long startTime = System.nanoTime();
+        Unit.UnitView footmanUnit = state.getUnit(footmanID);
+        int yExtent = obstacleGrid.getYExtent();
+        int footmanCell = footmanUnit.getXPosition() * yExtent + footmanUnit.getYPosition();
+        boolean threatened = isEnemyWithin(state, footmanUnit, compoundRadius);
+
+        if(compoundWaypoint != -1) {
+            if(!threatened && footmanCell != compoundWaypoint) {
+                if(footmanCell != compoundLastCell) {
+                    compoundLastCell = footmanCell;
+                    compoundStalledTurns = 0;
+                } else {
+                    compoundStalledTurns++;
+                }
+                if(compoundStalledTurns < COMPOUND_STALL_TURNS) {
+                    // SEPIA is still carrying out the move
+                    totalExecutionTime += System.nanoTime() - startTime;
+                    episodeStats.recordTurn(System.nanoTime() - startTime);
+                    return new HashMap<Integer, Action>();
+                }
+            }
+            boolean arrived = footmanCell == compoundWaypoint;
+            compoundWaypoint = -1;
+            if(!arrived && !threatened) {
+                handSteppedTurns = COMPOUND_MAX_STEPS;
+            }
+            if(!arrived) {
+                // the enemy footman came close or the move got stuck, plan again from where the footman is
+                long planStartTime = System.nanoTime();
+                setPath(findPath(state));
+                long planTime = System.nanoTime() - planStartTime;
+                totalPlanTime += planTime;
+                episodeStats.recordReplan(planTime);
+                return null;
+            }
         }
-    }
 
-    @Override
-    public void savePlayerData(OutputStream os) {
+        if(handSteppedTurns > 0) {
+            handSteppedTurns--;
+            return null;
+        }
+        // a stretch can only be handed over from a cell of the path
+        if(threatened || path == null || path.isDone() || path.currentCell() != footmanCell) {
+            return null;
+        }
 
-    }
+        // the stretch is as long as it takes no more steps than walking straight there, so any
+        // shortest route SEPIA picks to the waypoint is as short as the planned one
+        int[] cells = path.remainingCells();
+        int steps = 0;
+        while(steps < Math.min(cells.length, COMPOUND_MAX_STEPS)
+                && calculateChebyshevDistance(footmanCell / yExtent, footmanCell % yExtent,
+                        cells[steps] / yExtent, cells[steps] % yExtent) == steps + 1) {
+            steps++;
+        }
+        if(steps < 2) {
+            // a compound move of one step saves nothing over a primitive one
+            return null;
+        }
 
-    @Override
-    public void loadPlayerData(InputStream is) {
+        for(int i = 0; i < steps; i++) {
+            path.advance();
+            pathOccupancy.removeNext();
+        }
+        compoundWaypoint = path.currentCell();
+        compoundLastCell = footmanCell;
+        compoundStalledTurns = 0;
+        compoundMoves++;
+        System.out.println("Compound move to (" + compoundWaypoint / yExtent + ", " + compoundWaypoint % yExtent + ")");
 
+        Map<Integer, Action> actions = new HashMap<Integer, Action>();
+        actions.put(footmanID, Action.createCompoundMove(footmanID, compoundWaypoint / yExtent, compoundWaypoint % yExtent));
+        totalExecutionTime += System.nanoTime() - startTime;
+        episodeStats.recordTurn(System.nanoTime() - startTime);
+        return actions;
     }
 
     /**
-     * You will implement this method.
-     *
-     * This method should return true when the path needs to be replanned
-     * and false otherwise. This will be necessary on the dynamic map where the
-     * footman will move to block your unit.
-     * 
-     * You can check the position of the enemy footman with the following code:
-     * state.getUnit(enemyFootmanID).getXPosition() or .getYPosition().
-     * 
-     * There are more examples of getting the positions of objects in SEPIA in the findPath method.
-     *
-     * @param state
-     * @param history
-     * @param currentPath
-     * @return
+     * @return true when the enemy footman is alive and at most radius cells away from the unit in either direction
      */
-    private boolean shouldReplanPath(State.StateView state, History.HistoryView history, Stack<MapLocation> currentPath)
-    {
-    	Unit.UnitView enemyFootman = state.getUnit(enemyFootmanID);
-
-	   	if (enemyFootman == null ) {
-	   		 
-	   		//if enemy does not exist, returning false
-	   		 return false;
-	   	 }
-	   	
-	   	//checking/iterating the whole path to find if the enemy is blocking the current path 
-	   	for(MapLocation presentLocation: currentPath) {
-	   		
-	   		// getting x & y coordinates of enemy and checking with present location
-	   		if(presentLocation.x == enemyFootman.getXPosition() && presentLocation.y == enemyFootman.getYPosition() ) {
-	   			
-	   			// presentLocation has enemy, so replanning is required 
-	   			System.out.println("Current path has been blocked by enemy, replanning!!!");
-	   			return true;
-	   		}	 
-	
-	   	}
-
-	   	return false;
+    private boolean isEnemyWithin(State.StateView state, Unit.UnitView unit, int radius) {
+        Unit.UnitView enemyFootman = enemyFootmanID == -1 ? null : state.getUnit(enemyFootmanID);
+        if(enemyFootman == null) {
+            return false;
+        }
+        return Math.abs(enemyFootman.getXPosition() - unit.getXPosition()) <= radius
+                && Math.abs(enemyFootman.getYPosition() - unit.getYPosition()) <= radius;
     }
-    
-    
 
     /**
-     * This method is implemented for you. You should look at it to see examples of
-     * how to find units and resources in Sepia.
+     * middleStep for COOPERATIVE mode. Every footman still alive gets the next step of its
+     * cooperative plan, and footmen next to the townhall attack it.
      *
      * @param state
-     * @return
+     * @param history
+     * @return One action per footman that moves or attacks
      */
-    private Stack<MapLocation> findPath(State.StateView state)
+    private Map<Integer, Action> cooperativeStep(State.StateView state, History.HistoryView history)
     {
+        long startTime = System.nanoTime();
+        Map<Integer, Action> actions = new HashMap<Integer, Action>();
+
         Unit.UnitView townhallUnit = state.getUnit(townhallID);
-        Unit.UnitView footmanUnit = state.getUnit(footmanID);
+        if(townhallUnit == null) {
+            episodeStats.recordTurn(System.nanoTime() - startTime);
+            terminalStep(state, history);
+            return actions;
+        }
 
-        MapLocation startLoc = new MapLocation(footmanUnit.getXPosition(), footmanUnit.getYPosition(), null, 0);
+        long planStartTime = System.nanoTime();
+        ObstacleGrid obstacles = updateObstacleGrid(state);
+        int yExtent = obstacles.getYExtent();
+        int goalCell = townhallUnit.getXPosition() * yExtent + townhallUnit.getYPosition();
+        if(cooperativePathfinder == null || !cooperativePathfinder.plansFor(obstacles, goalCell)) {
+            cooperativePathfinder = new CooperativePathfinder(obstacles, goalCell, cooperativeWindow);
+        }
 
-        MapLocation goalLoc = new MapLocation(townhallUnit.getXPosition(), townhallUnit.getYPosition(), null, 0);
+        removeDeadFootmen(state);
+        int[] units = new int[footmanIDs.size()];
+        int[] cells = new int[units.length];
+        for(int i = 0; i < units.length; i++) {
+            Unit.UnitView footmanUnit = state.getUnit(footmanIDs.get(i));
+            units[i] = footmanIDs.get(i);
+            cells[i] = footmanUnit.getXPosition() * yExtent + footmanUnit.getYPosition();
+        }
 
-        MapLocation footmanLoc = null;
-        if(enemyFootmanID != -1) {
+        int enemyCell = -1;
+        if(enemyFootmanID != -1 && state.getUnit(enemyFootmanID) != null) {
             Unit.UnitView enemyFootmanUnit = state.getUnit(enemyFootmanID);
-            footmanLoc = new MapLocation(enemyFootmanUnit.getXPosition(), enemyFootmanUnit.getYPosition(), null, 0);
+            enemyCell = enemyFootmanUnit.getXPosition() * yExtent + enemyFootmanUnit.getYPosition();
         }
 
-        // get resource locations
-        List<Integer> resourceIDs = state.getAllResourceIds();
-        Set<MapLocation> resourceLocations = new HashSet<MapLocation>();
-        for(Integer resourceID : resourceIDs)
-        {
-            ResourceNode.ResourceView resource = state.getResourceNode(resourceID);
+        int[] nextCells = cooperativePathfinder.nextCells(units, cells, enemyCell);
+        long planTime = System.nanoTime() - planStartTime;
+        totalPlanTime += planTime;
+        if(cooperativePathfinder.getSearches() > 0) {
+            // all footmen are planned together, which counts as one search
+            totalExpandedNodes += cooperativePathfinder.getExpandedNodes();
+            episodeStats.recordSearch(cooperativePathfinder.getExpandedNodes());
+        }
+        if(cooperativePathfinder.wasUnscheduledReplan()) {
+            episodeStats.recordReplan(planTime);
+        }
 
-            resourceLocations.add(new MapLocation(resource.getXPosition(), resource.getYPosition(), null, 0));
+        for(int i = 0; i < units.length; i++) {
+            if(nextCells[i] == cells[i] && cooperativePathfinder.stepsToGoal(cells[i]) == 0) {
+                actions.put(units[i], Action.createPrimitiveAttack(units[i], townhallID));
+            } else if(nextCells[i] != cells[i]) {
+                Direction nextDirection = getNextDirection(nextCells[i] / yExtent - cells[i] / yExtent,
+                        nextCells[i] % yExtent - cells[i] % yExtent);
+                actions.put(units[i], Action.createPrimitiveMove(units[i], nextDirection));
+            }
         }
 
-        return AstarSearch(startLoc, goalLoc, state.getXExtent(), state.getYExtent(), footmanLoc, resourceLocations);
+        totalExecutionTime += System.nanoTime() - startTime - planTime;
+        episodeStats.recordTurn(System.nanoTime() - startTime);
+        return actions;
     }
+
     /**
-     * This is the method you will implement for the assignment. Your implementation
-     * will use the A* algorithm to compute the optimum path from the start position to
-     * a position adjacent to the goal position.
-     *
-     * Therefore your you need to find some possible adjacent steps which are in range 
-     * and are not trees or the enemy footman.
-     * Hint: Set<MapLocation> resourceLocations contains the locations of trees
-     *
-     * You will return a Stack of positions with the top of the stack being the first space to move to
-     * and the bottom of the stack being the last space to move to. If there is no path to the townhall
-     * then return null from the method and the agent will print a message and do nothing.
-     * The code to execute the plan is provided for you in the middleStep method.
-     *
-     * As an example consider the following simple map
-     *
-     * F - - - -
-     * x x x - x
-     * H - - - -
-     *
-     * F is the footman
-     * H is the townhall
-     * x's are occupied spaces
-     *
-     * xExtent would be 5 for this map with valid X coordinates in the range of [0, 4]
-     * x=0 is the left most column and x=4 is the right most column
-     *
-     * yExtent would be 3 for this map with valid Y coordinates in the range of [0, 2]
-     * y=0 is the top most row and y=2 is the bottom most row
-     *
-     * resourceLocations would be {(0,1), (1,1), (2,1), (4,1)}
+     * middleStep for FLOW_FIELD mode. Every footman still alive takes the step the flow field
+     * gives for its cell, and footmen next to the townhall attack it.
      *
-     * The path would be
-     *
-     * (1,0)
-     * (2,0)
-     * (3,1)
-     * (2,2)
-     * (1,2)
-     *
-     * Notice how the initial footman position and the townhall position are not included in the path stack
+     * A footman whose next cell is taken by the enemy footman or by another footman moves to
+     * another free neighbor that is closer to the townhall. If there is none, it steps aside to
+     * a neighbor as close as its cell from which a free closer cell can be reached, or waits.
      *
-     * @param start Starting position of the footman
-     * @param goal MapLocation of the townhall
-     * @param xExtent Width of the map
-     * @param yExtent Height of the map
-     * @param resourceLocations Set of positions occupied by resources
-     * @return Stack of positions with top of stack being first move in plan
+     * @param state
+     * @param history
+     * @return One action per footman that moves or attacks
      */
-
-
-    private Stack<MapLocation> AstarSearch(MapLocation start, MapLocation goal, int xExtent, int yExtent, MapLocation enemyFootmanLoc, Set<MapLocation> resourceLocations)
+    private Map<Integer, Action> flowFieldStep(State.StateView state, History.HistoryView history)
     {
+        long startTime = System.nanoTime();
+        Map<Integer, Action> actions = new HashMap<Integer, Action>();
 
-        //Comparator for MapLocation objects based on its fvalues
-        Comparator<MapLocation> mapLocationComparator = Comparator.comparingDouble(mapLocation -> mapLocation.f);
-
-        //Initializing a priorityQueue using a mapLocationComparator defined above.
-        PriorityQueue<MapLocation> openSet = new PriorityQueue<>(mapLocationComparator);
-
-        //Initializing a HashSet
-        Set<MapLocation> closedSet = new HashSet<>();
-    	
-        //Calculating the heuristic values for the root node and assigning them to a MapLocation object - start
-        start.cost = 0;
-        start.heuristicCost = calculateChebyshevDistance(start, goal);
-        start.f = start.cost + start.heuristicCost;
-
-        //Adding the starting node to the openSet
-        openSet.add(start);
+        Unit.UnitView townhallUnit = state.getUnit(townhallID);
+        if(townhallUnit == null) {
+            episodeStats.recordTurn(System.nanoTime() - startTime);
+            terminalStep(state, history);
+            return actions;
+        }
 
-        //Iterating in the openSet until all the nodes have been explored.
-        while (!openSet.isEmpty()) {
+        // removed trees are repaired in the flow field by updateObstacleGrid
+        long planStartTime = System.nanoTime();
+        ObstacleGrid obstacles = updateObstacleGrid(state);
+        int yExtent = obstacles.getYExtent();
+        int goalCell = townhallUnit.getXPosition() * yExtent + townhallUnit.getYPosition();
+        if(flowField == null || !flowField.plansFor(obstacles, goalCell)) {
+            flowField = new FlowField(obstacles, goalCell);
+            // the whole field counts as one search
+            totalExpandedNodes += flowField.getUpdatedCells();
+            episodeStats.recordSearch(flowField.getUpdatedCells());
+        }
+        long planTime = System.nanoTime() - planStartTime;
+        totalPlanTime += planTime;
 
-            //Retrieve the node with the smallest f value from the openSet.
-            MapLocation currentNode = openSet.poll();
+        removeDeadFootmen(state);
 
-            //Verifying if we have reached the goal node
-            if (currentNode.x==goal.x && currentNode.y==goal.y) {
+        // cells no footman may move into this turn, where footmen stand now or are moving to
+        Set<Integer> takenCells = new HashSet<Integer>();
+        for(Integer unitID : footmanIDs) {
+            Unit.UnitView footmanUnit = state.getUnit(unitID);
+            takenCells.add(footmanUnit.getXPosition() * yExtent + footmanUnit.getYPosition());
+        }
+        if(enemyFootmanID != -1 && state.getUnit(enemyFootmanID) != null) {
+            Unit.UnitView enemyFootmanUnit = state.getUnit(enemyFootmanID);
+            takenCells.add(enemyFootmanUnit.getXPosition() * yExtent + enemyFootmanUnit.getYPosition());
+        }
 
-                //returning the path
-                return configurePath(currentNode.cameFrom);
+        for(Integer unitID : footmanIDs) {
+            Unit.UnitView footmanUnit = state.getUnit(unitID);
+            int cell = footmanUnit.getXPosition() * yExtent + footmanUnit.getYPosition();
+            int distance = flowField.distance(cell);
+            if(distance == 1) {
+                actions.put(unitID, Action.createPrimitiveAttack(unitID, townhallID));
+                continue;
+            }
+            if(distance == FlowField.UNREACHABLE) {
+                // the trees wall this footman off from the townhall, which ends the game like in the other modes
+                System.out.println("No available path.");
+                System.exit(0);
+                return actions;
             }
 
-            //Adding the currentNode to the closedSet as it has been visited
-            closedSet.add(currentNode);
-
-            //Retrieving the available valid neighbor nodes for the currentNode
-            Stack<MapLocation> neighborNodes = expandNextAvailableValidSteps(currentNode,goal,xExtent, yExtent, resourceLocations);
+            int nextCell = flowField.nextCell(cell);
+            if(takenCells.contains(nextCell)) {
+                nextCell = freeNeighbor(obstacles, cell, distance - 1, takenCells, false);
+            }
+            if(nextCell == -1) {
+                nextCell = freeNeighbor(obstacles, cell, distance, takenCells, true);
+            }
+            if(nextCell == -1) {
+                continue;
+            }
+            takenCells.add(nextCell);
+            Direction nextDirection = getNextDirection(nextCell / yExtent - cell / yExtent, nextCell % yExtent - cell % yExtent);
+            actions.put(unitID, Action.createPrimitiveMove(unitID, nextDirection));
+        }
 
-            //Iterating through the available neighborNodes
-            for (MapLocation neighborNode : neighborNodes) {
-
-                //Initialized Iterators for closedSet and openSet
-            	Iterator<MapLocation> closedSetIterator = closedSet.iterator();
-            	Iterator<MapLocation> openSetIterator = openSet.iterator();
-                
-            	boolean inOpenSet=false;
-            	boolean inClosedSet=false;
-            	
-            	while (closedSetIterator.hasNext()){
-    	            MapLocation closedSetNode = closedSetIterator.next();
-
-    	            //Checking if the closedSet contains the current neighborNode
-    	            if((closedSetNode.x == neighborNode.x && closedSetNode.y == neighborNode.y)) {
-    	            	inClosedSet=true;
-    	            	break;
-    	            }         
-            	}
+        totalExecutionTime += System.nanoTime() - startTime - planTime;
+        episodeStats.recordTurn(System.nanoTime() - startTime);
+        return actions;
+    }
 
-            	//Skipping this neighbor node if it already exists in the closedSet
-            	if (inClosedSet) {
-            		continue;
-            	}
+    /**
+     * @param leadsCloser Only return a neighbor that has a neighbor one step closer that is not in takenCells
+     * @return A neighbor of the cell at the given flow field distance that is not in takenCells, or -1
+     */
+    private int freeNeighbor(ObstacleGrid obstacles, int cell, int distance, Set<Integer> takenCells, boolean leadsCloser)
+    {
+        int yExtent = obstacles.getYExtent();
+        int x = cell / yExtent;
+        int y = cell % yExtent;
+        for(int dx = -1; dx <= 1; dx++) {
+            for(int dy = -1; dy <= 1; dy++) {
+                int nextX = x + dx;
+                int nextY = y + dy;
+                if(nextX < 0 || nextX >= obstacles.getXExtent() || nextY < 0 || nextY >= yExtent) {
+                    continue;
+                }
+                int next = nextX * yExtent + nextY;
+                if(next == cell || flowField.distance(next) != distance || takenCells.contains(next)) {
+                    continue;
+                }
+                if(!leadsCloser || freeNeighbor(obstacles, next, distance - 1, takenCells, false) != -1) {
+                    return next;
+                }
+            }
+        }
+        return -1;
+    }
 
-                //Checking if the current neighbor node position is occupied by a footman
-            	if (enemyFootmanLoc!=null) {
-            		
-            		if (enemyFootmanLoc.x==neighborNode.x && enemyFootmanLoc.y==neighborNode.y) {
-            			continue;
-            		}
-            	}          	
-            	
-            	while (openSetIterator.hasNext()){
-    	            MapLocation openSetNode = openSetIterator.next();
+    /**
+     * Drops the footmen killed since the last turn from footmanIDs.
+     */
+    private void removeDeadFootmen(State.StateView state)
+    {
+        Iterator<Integer> footmen = footmanIDs.iterator();
+        while(footmen.hasNext()) {
+            if(state.getUnit(footmen.next()) == null) {
+                footmen.remove();
+            }
+        }
+    }
 
-    	            //Checking if the openSet contains the current neighbor node and comparing the costs between the neighborNode and the
-                    //node existing in the openSet
-    	            if (openSetNode.x == neighborNode.x && openSetNode.y == neighborNode.y && openSetNode.cost >= neighborNode.cost) {
-    	            	inOpenSet=true;
+    /**
+     * middleStep for LRTA mode. Once the footman stands on the cell it was sent to, it looks
+     * ahead lrtaLookahead moves, learns the estimate of its cell and takes one move, so a
+     * turn costs the same on any map. The estimates of the current trees and townhall are
+     * taken from earlier runs if there are any. Whether the townhall can be reached is only
+     * checked when the trees change.
+     *
+     * @param state
+     * @param history
+     * @return The move or attack of the footman, none while it waits for the enemy footman
+     */
+    private Map<Integer, Action> realTimeStep(State.StateView state, History.HistoryView history)
+    {
+        long startTime = System.nanoTime();
+        Map<Integer, Action> actions = new HashMap<Integer, Action>();
 
-    	            	//removing from the openSet
-    	            	openSet.remove(openSetNode);
+        Unit.UnitView townhallUnit = state.getUnit(townhallID);
+        if(townhallUnit == null) {
+            episodeStats.recordTurn(System.nanoTime() - startTime);
+            terminalStep(state, history);
+            return actions;
+        }
 
-    	            	//Adding the new neighbor node as it has the lesser cost/fvalue
-    	            	openSet.add(neighborNode);
-    	            	break;
-    	            }
-    	        }
+        ObstacleGrid obstacles = updateObstacleGrid(state);
+        int yExtent = obstacles.getYExtent();
+        int goalCell = townhallUnit.getXPosition() * yExtent + townhallUnit.getYPosition();
+        Unit.UnitView footmanUnit = state.getUnit(footmanID);
+        int footmanX = footmanUnit.getXPosition();
+        int footmanY = footmanUnit.getYPosition();
+        int footmanCell = footmanX * yExtent + footmanY;
+
+        if(Math.abs(footmanX - townhallUnit.getXPosition()) <= 1 && Math.abs(footmanY - townhallUnit.getYPosition()) <= 1) {
+            System.out.println("Attacking TownHall");
+            actions.put(footmanID, Action.createPrimitiveAttack(footmanID, townhallID));
+            totalExecutionTime += System.nanoTime() - startTime;
+            episodeStats.recordTurn(System.nanoTime() - startTime);
+            return actions;
+        }
 
-                //Adding this neighbor node if it doesn't exist in the openSet
-            	if (!inOpenSet) {
-            		openSet.add(neighborNode);
-            	} 
+        int enemyCell = -1;
+        if(enemyFootmanID != -1 && state.getUnit(enemyFootmanID) != null) {
+            Unit.UnitView enemyFootmanUnit = state.getUnit(enemyFootmanID);
+            enemyCell = enemyFootmanUnit.getXPosition() * yExtent + enemyFootmanUnit.getYPosition();
+        }
 
+        long planTime = 0;
+        int nextCell = realTimeTarget;
+        // a move still under way is sent again without learning, the estimates change once per cell left
+        boolean moving = realTimeTarget != -1 && realTimeTarget != footmanCell && realTimeTarget != enemyCell
+                && Math.abs(realTimeTarget / yExtent - footmanX) <= 1 && Math.abs(realTimeTarget % yExtent - footmanY) <= 1;
+        if(!moving) {
+            long planStartTime = System.nanoTime();
+            if(realTimeSearch == null || !realTimeSearch.plansFor(obstacles, goalCell)) {
+                // without a route the estimates would only grow turn after turn, check it once per trees
+                if(connectedComponents == null || !connectedComponents.plansFor(obstacles)) {
+                    connectedComponents = new ConnectedComponents(obstacles);
+                }
+                if(!connectedComponents.isReachable(footmanCell, goalCell, -1)) {
+                    System.out.println("No available path.");
+                    System.exit(0);
+                    return actions;
+                }
+                realTimeSearch = learnedEstimatesFor(obstacles, goalCell);
             }
+            nextCell = realTimeSearch.step(obstacles, footmanCell, enemyCell, lrtaLookahead);
+            planTime = System.nanoTime() - planStartTime;
+            totalPlanTime += planTime;
+            totalExpandedNodes += realTimeSearch.getExpandedNodes();
+            episodeStats.recordSearch(realTimeSearch.getExpandedNodes());
+            realTimeTarget = nextCell;
         }
-        
 
-        // Invoking System.ext() if no path can be found.(As per problem statement)
-        System.out.println("No available path.");
-        System.exit(0);
+        if(nextCell == -1) {
+            System.out.println("Waiting at (" + footmanX + ", " + footmanY + ")");
+        } else {
+            if(!moving) {
+                System.out.println("Moving to (" + nextCell / yExtent + ", " + nextCell % yExtent + ")");
+            }
+            Direction nextDirection = getNextDirection(nextCell / yExtent - footmanX, nextCell % yExtent - footmanY);
+            actions.put(footmanID, Action.createPrimitiveMove(footmanID, nextDirection));
+        }
 
-        return new Stack<MapLocation>();
+        totalExecutionTime += System.nanoTime() - startTime - planTime;
+        episodeStats.recordTurn(System.nanoTime() - startTime);
+        return actions;
+    }
+
+    /**
+     * @return The estimates learned on the trees and townhall in an earlier run, or new ones.
+     *         Either way they become the most recently used, and the least recently used are
+     *         dropped beyond LRTA_MAX_TABLES
+     */
+    private LearningRealTimeAstar learnedEstimatesFor(ObstacleGrid obstacles, int goal) {
+        LearningRealTimeAstar estimates = null;
+        for(Iterator<LearningRealTimeAstar> it = learnedEstimates.iterator(); it.hasNext(); ) {
+            LearningRealTimeAstar learned = it.next();
+            if(learned.plansFor(obstacles, goal)) {
+                estimates = learned;
+                it.remove();
+                break;
+            }
+        }
+        if(estimates == null) {
+            estimates = new LearningRealTimeAstar(obstacles, goal);
+        } else {
+            System.out.println("Using " + estimates.size() + " estimates learned in earlier runs");
+        }
+        learnedEstimates.add(0, estimates);
+        while(learnedEstimates.size() > LRTA_MAX_TABLES) {
+            learnedEstimates.remove(learnedEstimates.size() - 1);
+        }
+        return estimates;
+    }
+
+    @Override
+    public void terminalStep(State.StateView newstate, History.HistoryView statehistory) {
+        System.out.println("Total turns: " + newstate.getTurnNumber());
+        System.out.println("Total planning time: " + totalPlanTime/1e9);
+        System.out.println("Total execution time: " + totalExecutionTime/1e9);
+        System.out.println("Total time: " + (totalExecutionTime + totalPlanTime)/1e9);
+        System.out.println("Total nodes expanded: " + totalExpandedNodes);
+        System.out.println("Path cache hits: " + cacheHits + " misses: " + cacheMisses + " this episode, "
+                + pathCache.getHits() + " and " + pathCache.getMisses() + " in the JVM");
+        System.out.println("Replans: " + episodeStats.getReplans() + " in " + episodeStats.getTurns() + " turns");
+        if(portfolioSearch != null) {
+            System.out.println("Searches answered first: " + portfolioSearch.getWins());
+        }
+        if(searchMode == SearchMode.COMPOUND) {
+            System.out.println("Compound moves: " + compoundMoves + " primitive moves: " + primitiveMoves);
+        }
+        if(connectedComponents != null) {
+            connectedComponents.stopRefresh();
+        }
+        if(detourPrecomputer != null) {
+            detourPrecomputer.stop();
+            System.out.println("Detours precomputed: " + detourPrecomputer.getSearched() + " used: " + detourPrecomputer.getUsed()
+                    + " nodes expanded in the background: " + detourPrecomputer.getExpandedNodes());
+        }
+
+        // middleStep calls terminalStep itself when the townhall is destroyed, only write once per episode
+        if(!statsWritten) {
+            statsWritten = true;
+            try {
+                episodeStats.write(STATS_FILE_PREFIX, episode, searchMode.name().toLowerCase());
+            } catch(IOException e) {
+                System.err.println("Failed to write the episode statistics: " + e.getMessage());
+            }
+            saveArtifacts();
+        }
+        
+        //for dynamic map manually calling the System.exit() as scenario wont end
+        if(enemyFootmanID!=-1) {
+        	System.out.println("Destroyed the Townhall");
+        	System.exit(0);
+        }
+    }
+
+    /**
+     * Writes the preprocessing of the current map if anything was built that its artifact
+     * file does not hold yet, and records where the files are kept along with the estimates
+     * learned in LRTA mode.
+     */
+    @Override
+    public void savePlayerData(OutputStream os) {
+        saveArtifacts();
+        try {
+            DataOutputStream out = new DataOutputStream(os);
+            out.writeInt(PLAYER_DATA_VERSION);
+            out.writeUTF(artifactDirectory.getAbsolutePath());
+            out.writeInt(learnedEstimates.size());
+            for(LearningRealTimeAstar estimates : learnedEstimates) {
+                estimates.write(out);
+            }
+            out.flush();
+        } catch(IOException e) {
+            System.err.println("Failed to save player data: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Reads where the preprocessing was saved, so that initialStep maps it from there, and
+     * the estimates learned in LRTA mode. Data of version 1 holds only the directory.
+     */
+    @Override
+    public void loadPlayerData(InputStream is) {
+        try {
+            DataInputStream in = new DataInputStream(is);
+            int version = in.readInt();
+            if(version < 1 || version > PLAYER_DATA_VERSION) {
+                System.err.println("Ignoring player data of version " + version + ", expected " + PLAYER_DATA_VERSION);
+                return;
+            }
+            artifactDirectory = new File(in.readUTF());
+            if(version >= 2) {
+                int count = in.readInt();
+                List<LearningRealTimeAstar> loaded = new ArrayList<LearningRealTimeAstar>();
+                for(int i = 0; i < count; i++) {
+                    loaded.add(LearningRealTimeAstar.read(in));
+                }
+                // only replace the estimates once all of them were read
+                learnedEstimates.clear();
+                learnedEstimates.addAll(loaded.subList(0, Math.min(count, LRTA_MAX_TABLES)));
+                realTimeSearch = null;
+            }
+        } catch(IOException e) {
+            System.err.println("Failed to load player data: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return The mapped artifact file for the current trees, or null if there is none.
+     *         The file system is only checked again once the trees have changed
+     */
+    private MapArtifacts artifactsFor(ObstacleGrid obstacles) {
+        if(!artifactsLookedUp || artifactFingerprint != obstacles.fingerprint()) {
+            artifactsLookedUp = true;
+            artifactFingerprint = obstacles.fingerprint();
+            mapArtifacts = MapArtifacts.map(artifactDirectory, obstacles);
+            if(mapArtifacts != null) {
+                System.out.println("Mapped preprocessing from " + MapArtifacts.fileFor(artifactDirectory, artifactFingerprint));
+            }
+        }
+        return mapArtifacts;
+    }
+
+    /**
+     * @return The saved landmark table for the trees, or a new one if none was saved
+     */
+    private LandmarkHeuristic createLandmarkHeuristic(ObstacleGrid obstacles) {
+        MapArtifacts artifacts = artifactsFor(obstacles);
+        MapArtifacts.Section saved = artifacts == null ? null : artifacts.getSection(MapArtifacts.LANDMARKS, landmarkCount);
+        if(saved != null) {
+            try {
+                return new LandmarkHeuristic(obstacles, saved.getContent());
+            } catch(IllegalArgumentException | BufferUnderflowException e) {
+                System.err.println("Rebuilding the saved landmark table: " + e.getMessage());
+            }
+        }
+        artifactsChanged = true;
+        return new LandmarkHeuristic(obstacles, landmarkCount, LANDMARK_MEMORY_LIMIT);
+    }
+
+    /**
+     * @return The saved cluster graph for the trees, or a new one if none was saved
+     */
+    private HierarchicalPathfinder createHierarchicalPathfinder(ObstacleGrid obstacles) {
+        MapArtifacts artifacts = artifactsFor(obstacles);
+        MapArtifacts.Section saved = artifacts == null ? null : artifacts.getSection(MapArtifacts.CLUSTER_GRAPH, HPA_CLUSTER_SIZE);
+        if(saved != null) {
+            try {
+                return new HierarchicalPathfinder(obstacles, HPA_CLUSTER_SIZE, saved.getContent());
+            } catch(IllegalArgumentException | BufferUnderflowException e) {
+                System.err.println("Rebuilding the saved cluster graph: " + e.getMessage());
+            }
+        }
+        artifactsChanged = true;
+        return new HierarchicalPathfinder(obstacles, HPA_CLUSTER_SIZE);
+    }
+
+    /**
+     * Fills distanceField with the saved distances to the goal on the trees.
+     *
+     * @return false if none were saved
+     */
+    private boolean loadDistanceField(ObstacleGrid obstacles, int goal) {
+        MapArtifacts artifacts = artifactsFor(obstacles);
+        MapArtifacts.Section saved = artifacts == null ? null : artifacts.getSection(MapArtifacts.DISTANCE_FIELD, goal);
+        if(saved == null) {
+            return false;
+        }
+        try {
+            distanceField.load(goal, saved.getContent());
+            return true;
+        } catch(IllegalArgumentException e) {
+            System.err.println("Rebuilding the saved distance field: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Writes the landmark table, cluster graph and distance field that are valid for the
+     * current trees to the artifact file of the trees, keeping the saved sections that were
+     * not built again.
+     */
+    private void saveArtifacts() {
+        if(!artifactsChanged || obstacleGrid == null) {
+            return;
+        }
+        List<MapArtifacts.Section> sections = new ArrayList<MapArtifacts.Section>();
+        if(landmarkHeuristic != null && landmarkHeuristic.plansFor(obstacleGrid)) {
+            sections.add(new MapArtifacts.Section(MapArtifacts.LANDMARKS, landmarkCount, landmarkHeuristic.writeArtifact()));
+        }
+        if(hierarchicalPathfinder != null && hierarchicalPathfinder.plansFor(obstacleGrid)) {
+            sections.add(new MapArtifacts.Section(MapArtifacts.CLUSTER_GRAPH, HPA_CLUSTER_SIZE, hierarchicalPathfinder.writeArtifact()));
+        }
+        if(distanceField != null && distanceField.plansFor(obstacleGrid, distanceField.getGoal())) {
+            sections.add(new MapArtifacts.Section(MapArtifacts.DISTANCE_FIELD, distanceField.getGoal(), distanceField.writeArtifact()));
+        }
+        MapArtifacts artifacts = artifactsFor(obstacleGrid);
+        if(artifacts != null) {
+            for(MapArtifacts.Section saved : artifacts.getSections()) {
+                if(saved.getType() != MapArtifacts.OBSTACLES && !containsSection(sections, saved)) {
+                    sections.add(saved);
+                }
+            }
+        }
+
+        try {
+            MapArtifacts.write(artifactDirectory, obstacleGrid, sections);
+            artifactsChanged = false;
+            // map the new file the next time an artifact is needed
+            artifactsLookedUp = false;
+        } catch(IOException e) {
+            System.err.println("Failed to save the preprocessing: " + e.getMessage());
+        }
+    }
+
+    private static boolean containsSection(List<MapArtifacts.Section> sections, MapArtifacts.Section section) {
+        for(MapArtifacts.Section other : sections) {
+            if(other.getType() == section.getType() && other.getParameter() == section.getParameter()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * You will implement this method.
+     *
+     * This method should return true when the path needs to be replanned
+     * and false otherwise. This will be necessary on the dynamic map where the
+     * footman will move to block your unit.
+     * 
+     * You can check the position of the enemy footman with the following code:
+     * state.getUnit(enemyFootmanID).getXPosition() or .getYPosition().
+     * 
+     * There are more examples of getting the positions of objects in SEPIA in the findPath method.
+     *
+     * The cells of currentPath are indexed in pathOccupancy by setPath, so the check is a
+     * single lookup of the enemy's cell instead of a walk over the whole path.
+     *
+     * @param state
+     * @param history
+     * @param currentPath
+     * @return
+     */
+    private boolean shouldReplanPath(State.StateView state, History.HistoryView history, DirectionPath currentPath)
+    {
+    	Unit.UnitView enemyFootman = state.getUnit(enemyFootmanID);
+
+	   	if (enemyFootman == null ) {
+	   		 
+	   		//if enemy does not exist, returning false
+	   		 return false;
+	   	 }
+	   	
+	   	// getting the cell of the enemy and looking it up in the index of the current path
+	   	int enemyCell = enemyFootman.getXPosition() * obstacleGrid.getYExtent() + enemyFootman.getYPosition();
+	   	if(searchMode == SearchMode.PREDICTIVE && spaceTimeAstar != null) {
+	   		// the enemy on the path only matters if it is predicted to still be there when the footman arrives
+	   		return isPredictedOnPath(state, enemyCell);
+	   	}
+	   	if(pathOccupancy.contains(enemyCell)) {
+	   		
+	   		// the path goes through the enemy, so replanning is required 
+	   		System.out.println("Current path has been blocked by enemy, replanning!!!");
+	   		return true;
+	   	}
+
+	   	return false;
+    }
+
+    /**
+     * shouldReplanPath for PREDICTIVE mode. The enemy footman is predicted again from where
+     * it and the footman are now, and the next turn of the path is checked against it. The
+     * enemy standing on a later step is left alone, it has usually moved on by then.
+     *
+     * @param state
+     * @param enemyCell Cell index of the enemy footman
+     * @return true if the footman would run into the enemy
+     */
+    private boolean isPredictedOnPath(State.StateView state, int enemyCell)
+    {
+        Unit.UnitView footmanUnit = state.getUnit(footmanID);
+        Unit.UnitView townhallUnit = state.getUnit(townhallID);
+        if(townhallUnit == null) {
+            return false;
+        }
+        int yExtent = obstacleGrid.getYExtent();
+        int footmanCell = footmanUnit.getXPosition() * yExtent + footmanUnit.getYPosition();
+        int goalCell = townhallUnit.getXPosition() * yExtent + townhallUnit.getYPosition();
+
+        // the footman first finishes the step in progress, if its last move did not go through
+        int[] remaining = path.remainingCells();
+        int[] plan = remaining;
+        if(path.currentCell() != footmanCell) {
+            plan = new int[remaining.length + 1];
+            plan[0] = path.currentCell();
+            System.arraycopy(remaining, 0, plan, 1, remaining.length);
+        }
+
+        if(spaceTimeAstar.conflicts(footmanCell, plan, goalCell, enemyCell)) {
+            System.out.println("Enemy predicted on the current path, replanning!!!");
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Replaces the path being followed and indexes its cells for shouldReplanPath.
+     *
+     * @param newPath Steps of the plan, the footman is on or moving to its start cell
+     */
+    private void setPath(DirectionPath newPath)
+    {
+        path = newPath;
+
+        if(pathOccupancy == null || !pathOccupancy.fits(obstacleGrid.cellCount())) {
+            pathOccupancy = new PathOccupancy(obstacleGrid.cellCount());
+        }
+        pathOccupancy.clear();
+        int[] cells = newPath.remainingCells();
+        for(int i = cells.length - 1; i >= 0; i--) {
+            pathOccupancy.add(cells[i]);
+        }
+    }
+
+    /**
+     * Repairs the current path around the enemy footman without planning from scratch.
+     *
+     * A detour is searched only between the step just before and the step just after the
+     * blocked one, with a bounded number of expansions, and spliced into the path in place
+     * of the blocked step.
+     *
+     * @param state
+     * @return true if the path was repaired, false if a full replan is needed
+     */
+    private boolean repairPath(State.StateView state)
+    {
+        ObstacleGrid obstacles = updateObstacleGrid(state);
+        int yExtent = obstacles.getYExtent();
+
+        Unit.UnitView enemyFootman = state.getUnit(enemyFootmanID);
+        int enemyCell = enemyFootman.getXPosition() * yExtent + enemyFootman.getYPosition();
+        int blockedIndex = pathOccupancy.indexOf(enemyCell);
+
+        // the step before the blocked one is the next index in pathOccupancy, or the cell the footman is moving to
+        int origin = path.currentCell();
+        int before = blockedIndex + 1 < pathOccupancy.size() ? pathOccupancy.cellAt(blockedIndex + 1) : origin;
+
+        // the step after the blocked one is the previous index, or the townhall itself
+        int after;
+        if(blockedIndex > 0) {
+            after = pathOccupancy.cellAt(blockedIndex - 1);
+        } else if(searchMode == SearchMode.HPA && hierarchicalPathfinder.hasNextSegment()) {
+            // the rest of the hierarchical plan has not been refined yet
+            return false;
+        } else {
+            Unit.UnitView townhallUnit = state.getUnit(townhallID);
+            after = townhallUnit.getXPosition() * yExtent + townhallUnit.getYPosition();
+        }
+
+        int[] detour;
+        boolean precomputed = false;
+        if(before == after) {
+            // the path steps onto the enemy and straight back, leaving the blocked step out is enough
+            detour = new int[0];
+        } else if(detourPrecomputer != null && (detour = detourPrecomputer.take(obstacles, before, enemyCell, after)) != null) {
+            precomputed = true;
+        } else {
+            detour = AstarSearch(before, after, obstacles, enemyCell, LOCAL_REPAIR_MAX_EXPANSIONS);
+            totalExpandedNodes += lastExpandedNodes;
+            episodeStats.recordSearch(lastExpandedNodes);
+            if(detour == null) {
+                return false;
+            }
+        }
+
+        int[] loopFree = spliceDetour(obstacles, origin, pathOccupancy, blockedIndex, detour);
+        setPath(DirectionPath.fromCells(origin, loopFree, yExtent));
+
+        System.out.println("Repaired the path around the enemy with a " + (precomputed ? "precomputed " : "")
+                + "detour of " + detour.length + " steps");
+        return true;
+    }
+
+    /**
+     * Splices a detour into the remaining path in place of the blocked step, for repairPath.
+     *
+     * @param origin Cell the footman is on or moving to, before the first remaining step
+     * @param remaining Remaining steps of the path with the last step at index 0
+     * @param blockedIndex Index of the blocked step in remaining
+     * @param detour Cells between the steps before and after the blocked one, both excluded
+     * @return Cells of the repaired path with the first move first, none of them twice
+     */
+    int[] spliceDetour(ObstacleGrid obstacles, int origin, PathOccupancy remaining, int blockedIndex, int[] detour)
+    {
+        // the steps of the repaired path with the first move first
+        int[] steps = new int[remaining.size() - 1 + detour.length];
+        int count = 0;
+        for(int i = remaining.size() - 1; i > blockedIndex; i--) {
+            steps[count++] = remaining.cellAt(i);
+        }
+        for(int cell : detour) {
+            steps[count++] = cell;
+        }
+        for(int i = blockedIndex - 1; i >= 0; i--) {
+            steps[count++] = remaining.cellAt(i);
+        }
+
+        // a detour can come back to a cell the path already visits, the loop in between is cut out.
+        // repairCells holds the loop-free path from origin at index 0, indexed by cell
+        if(repairCells == null || !repairCells.fits(obstacles.cellCount())) {
+            repairCells = new PathOccupancy(obstacles.cellCount());
+        }
+        repairCells.clear();
+        repairCells.add(origin);
+        for(int cell : steps) {
+            if(repairCells.contains(cell)) {
+                while(repairCells.size() > repairCells.indexOf(cell) + 1) {
+                    repairCells.removeNext();
+                }
+                continue;
+            }
+            repairCells.add(cell);
+        }
+        int[] loopFree = new int[repairCells.size() - 1];
+        for(int i = 0; i < loopFree.length; i++) {
+            loopFree[i] = repairCells.cellAt(i + 1);
+        }
+        repairCells.clear();
+        return loopFree;
+    }
+    
+    
+
+    /**
+     * This method is implemented for you. You should look at it to see examples of
+     * how to find units and resources in Sepia.
+     *
+     * @param state
+     * @return
+     */
+    private DirectionPath findPath(State.StateView state)
+    {
+        Unit.UnitView townhallUnit = state.getUnit(townhallID);
+        Unit.UnitView footmanUnit = state.getUnit(footmanID);
+
+        // positions are passed to the searches as cell indices x * yExtent + y
+        int yExtent = state.getYExtent();
+        int startCell = footmanUnit.getXPosition() * yExtent + footmanUnit.getYPosition();
+        int goalCell = townhallUnit.getXPosition() * yExtent + townhallUnit.getYPosition();
+
+        int enemyCell = -1;
+        if(enemyFootmanID != -1) {
+            Unit.UnitView enemyFootmanUnit = state.getUnit(enemyFootmanID);
+            enemyCell = enemyFootmanUnit.getXPosition() * yExtent + enemyFootmanUnit.getYPosition();
+        }
+
+        // bring the tree bitmap up to date with the resources still on the map
+        ObstacleGrid obstacles = updateObstacleGrid(state);
+
+        // the version changes whenever a tree is harvested or the enemy footman moves
+        long obstacleVersion = obstacles.fingerprint(enemyCell);
+        // the hierarchical planner returns one segment at a time, which is not a complete path to cache,
+        // and a space-time path waits for the predicted enemy moves, which other modes must not be given
+        boolean cacheable = searchMode != SearchMode.HPA && searchMode != SearchMode.PREDICTIVE;
+        int[] cachedCells = cacheable ? pathCache.get(startCell, goalCell, obstacleVersion) : null;
+        if(cacheable && cachedCells == null) {
+            cacheMisses++;
+        }
+        if(cachedCells != null) {
+            cacheHits++;
+            lastExpandedNodes = 0;
+            return buildPath(startCell, cachedCells, yExtent);
+        }
+
+        int[] cells = search(obstacles, startCell, goalCell, enemyCell);
+        if(searchMode == SearchMode.ARA) {
+            // only a path the search vouches to be the shortest may be handed out by the cache
+            cacheable = cells != null && anytimeSearch.isOptimalFrom(startCell);
+        }
+        totalExpandedNodes += lastExpandedNodes;
+        episodeStats.recordSearch(lastExpandedNodes);
+
+        if(cells == null) {
+            // Invoking System.ext() if no path can be found.(As per problem statement)
+            System.out.println("No available path.");
+            System.exit(0);
+            return buildPath(startCell, new int[0], yExtent);
+        }
+
+        if(cacheable) {
+            pathCache.put(startCell, goalCell, obstacleVersion, cells);
+        }
+        return buildPath(startCell, cells, yExtent);
+    }
+
+    /**
+     * Continues the anytime search for at most the per-turn plan budget and switches to the
+     * better path if one was found. The path is read from the cell the footman is moving to,
+     * so the step in progress is not interrupted. Nothing is done when the obstacles changed
+     * since the search started or the footman left its paths after a local repair; the next
+     * replan then starts a new search. A better path through the enemy footman is caught by
+     * shouldReplanPath on the next turn like any other blocked path.
+     *
+     * @param state
+     */
+    private void improveAnytimePath(State.StateView state)
+    {
+        ObstacleGrid obstacles = updateObstacleGrid(state);
+        int yExtent = obstacles.getYExtent();
+
+        int from = path.currentCell();
+
+        Unit.UnitView townhallUnit = state.getUnit(townhallID);
+        if(townhallUnit == null) {
+            return;
+        }
+        int goalCell = townhallUnit.getXPosition() * yExtent + townhallUnit.getYPosition();
+
+        if(!anytimeSearch.plansFor(obstacles, from, goalCell)) {
+            return;
+        }
+
+        boolean improved = anytimeSearch.improve(System.nanoTime() + planBudget);
+        totalExpandedNodes += anytimeSearch.getExpandedNodes();
+        episodeStats.recordSearch(anytimeSearch.getExpandedNodes());
+        if(improved) {
+            setPath(buildPath(from, anytimeSearch.pathFrom(from), yExtent));
+            System.out.println("Improved the path, at most " + anytimeSearch.getSolutionInflation() + " times the shortest");
+        }
+    }
+
+    /**
+     * Runs the search of the selected mode for one query. findPath calls this after
+     * reading the cells from the state, and benchmarks call it directly with a generated
+     * ObstacleGrid, since it needs no SEPIA state. Modes that keep state between queries
+     * (dstar_lite, hpa, ara) reuse it as they do during an episode.
+     *
+     * @param obstacles Bitmap of the positions occupied by resources
+     * @param start Cell index of the footman
+     * @param goal Cell index of the townhall
+     * @param enemyCell Cell index of the enemy footman, or -1 if there is none
+     * @return Cell indices of the path with the first move first, or null if there is no path
+     */
+    int[] search(ObstacleGrid obstacles, int start, int goal, int enemyCell)
+    {
+        if(connectedComponents == null || !connectedComponents.plansFor(obstacles)) {
+            connectedComponents = new ConnectedComponents(obstacles);
+        }
+        // a townhall walled off from the footman, also by the enemy footman alone, would make the search flood the whole region
+        if(!connectedComponents.isReachable(start, goal, enemyCell)) {
+            lastExpandedNodes = 0;
+            return null;
+        }
+
+        int[] cells;
+        switch(searchMode) {
+            case ASTAR:
+            case COMPOUND:
+                cells = AstarSearch(start, goal, obstacles, enemyCell);
+                break;
+            case ALT:
+                // the landmark distances are only valid for the trees they were computed on
+                if(landmarkHeuristic == null || !landmarkHeuristic.plansFor(obstacles)) {
+                    landmarkHeuristic = createLandmarkHeuristic(obstacles);
+                }
+                cells = AstarSearch(start, goal, obstacles, enemyCell);
+                break;
+            case JPS:
+                cells = jumpPointSearch.findPath(obstacles, start, goal, enemyCell);
+                lastExpandedNodes = jumpPointSearch.getExpandedNodes();
+                break;
+            case DSTAR_LITE:
+                // keep the previous search unless the map or townhall changed
+                if(dStarLite == null || !dStarLite.plansFor(obstacles, goal)) {
+                    dStarLite = new DStarLite(obstacles, goal);
+                }
+                dStarLite.moveStart(start);
+                dStarLite.setBlockedCell(enemyCell);
+                cells = dStarLite.findPath();
+                lastExpandedNodes = dStarLite.getExpandedNodes();
+                break;
+            case BIDIRECTIONAL:
+                cells = bidirectionalAstar.findPath(obstacles, start, goal, enemyCell);
+                lastExpandedNodes = bidirectionalAstar.getExpandedNodes();
+                break;
+            case HPA:
+                if(hierarchicalPathfinder == null || !hierarchicalPathfinder.plansFor(obstacles)) {
+                    hierarchicalPathfinder = createHierarchicalPathfinder(obstacles);
+                }
+                cells = hierarchicalPathfinder.findPath(start, goal, enemyCell);
+                lastExpandedNodes = hierarchicalPathfinder.getExpandedNodes();
+                break;
+            case ARA:
+                // keep improving the previous search from a cell it settled, around the same enemy cell
+                if(anytimeSearch == null || !anytimeSearch.plansFor(obstacles, start, goal)
+                        || anytimeSearch.getBlockedCell() != enemyCell) {
+                    anytimeSearch = new AnytimeRepairingAstar(obstacles, start, goal, enemyCell);
+                }
+                anytimeSearch.improve(System.nanoTime() + planBudget);
+                cells = anytimeSearch.pathFrom(start);
+                lastExpandedNodes = anytimeSearch.getExpandedNodes();
+                break;
+            case DISTANCE_FIELD:
+                // the field only depends on the townhall and the trees, the enemy footman is avoided on top of it
+                if(distanceField == null || !distanceField.fits(obstacles)) {
+                    distanceField = new BitParallelDistanceField(obstacles);
+                }
+                int reachedCells = 0;
+                if(!distanceField.plansFor(obstacles, goal) && !loadDistanceField(obstacles, goal)) {
+                    distanceField.build(goal);
+                    reachedCells = distanceField.getReachedCells();
+                    artifactsChanged = true;
+                }
+                cells = distanceField.pathFrom(start, enemyCell);
+                if(cells == null) {
+                    // the enemy footman is on every shortest route from a step of the path, search around it
+                    // with the exact distances as heuristic
+                    cells = AstarSearch(start, goal, obstacles, enemyCell);
+                    lastExpandedNodes += reachedCells;
+                } else {
+                    lastExpandedNodes = reachedCells;
+                }
+                break;
+            case PORTFOLIO:
+                // built here rather than in the race, where every other engine would wait for it
+                if(usesLandmarks() && (landmarkHeuristic == null || !landmarkHeuristic.plansFor(obstacles))) {
+                    landmarkHeuristic = createLandmarkHeuristic(obstacles);
+                }
+                cells = portfolioSearch.findPath(obstacles, start, goal, enemyCell);
+                lastExpandedNodes = portfolioSearch.getExpandedNodes();
+                break;
+            case PREDICTIVE:
+                if(spaceTimeAstar == null || !spaceTimeAstar.fits(obstacles)) {
+                    spaceTimeAstar = new SpaceTimeAstar(obstacles, predictionHorizon);
+                }
+                cells = spaceTimeAstar.findPath(start, goal, enemyCell);
+                lastExpandedNodes = spaceTimeAstar.getExpandedNodes();
+                break;
+            default:
+                throw new IllegalStateException("Unhandled search mode " + searchMode);
+        }
+        return cells;
+    }
+
+    /**
+     * @return Nodes expanded by the last search
+     */
+    int getLastExpandedNodes() {
+        return lastExpandedNodes;
+    }
+
+    /**
+     * Prints how many nodes AstarSearch expands for the first query on this map with the
+     * landmark heuristic and with Chebyshev distance alone. Runs outside the timed planning.
+     *
+     * @param state
+     */
+    private void reportLandmarkReduction(State.StateView state)
+    {
+        ObstacleGrid obstacles = updateObstacleGrid(state);
+        int yExtent = obstacles.getYExtent();
+        Unit.UnitView footmanUnit = state.getUnit(footmanID);
+        Unit.UnitView townhallUnit = state.getUnit(townhallID);
+        int startCell = footmanUnit.getXPosition() * yExtent + footmanUnit.getYPosition();
+        int goalCell = townhallUnit.getXPosition() * yExtent + townhallUnit.getYPosition();
+        int enemyCell = -1;
+        if(enemyFootmanID != -1) {
+            Unit.UnitView enemyFootmanUnit = state.getUnit(enemyFootmanID);
+            enemyCell = enemyFootmanUnit.getXPosition() * yExtent + enemyFootmanUnit.getYPosition();
+        }
+
+        AstarSearch(startCell, goalCell, obstacles, enemyCell);
+        int landmarkExpansions = lastExpandedNodes;
+
+        LandmarkHeuristic landmarks = landmarkHeuristic;
+        landmarkHeuristic = null;
+        AstarSearch(startCell, goalCell, obstacles, enemyCell);
+        int chebyshevExpansions = lastExpandedNodes;
+        landmarkHeuristic = landmarks;
+
+        System.out.println("Landmarks: " + landmarks.getLandmarkCount() + " using " + landmarks.getMemoryUsage() / 1024 + " KB");
+        System.out.println("Nodes expanded with landmarks: " + landmarkExpansions + " with Chebyshev distance: " + chebyshevExpansions
+                + " (" + Math.round(100.0 * (chebyshevExpansions - landmarkExpansions) / Math.max(1, chebyshevExpansions)) + "% fewer)");
+    }
+
+    /**
+     * Builds the race of PORTFOLIO mode from a comma separated list of modes. jps,
+     * bidirectional and one of astar or alt can take part, the two A* variants share the
+     * SearchArena and cannot run at the same time.
+     *
+     * @param engineList Modes to race, e.g. "alt,jps,bidirectional"
+     * @return The portfolio, with jps and bidirectional if the list named none that can race
+     */
+    private PortfolioSearch createPortfolio(String engineList)
+    {
+        PortfolioSearch portfolio = new PortfolioSearch(portfolioExecutor());
+        boolean astarAdded = false;
+        for(String name : engineList.toLowerCase().split(",")) {
+            name = name.trim();
+            if(name.equals("jps")) {
+                portfolio.addEngine(name, jumpPointSearch::findPath, jumpPointSearch::getExpandedNodes);
+            } else if(name.equals("bidirectional")) {
+                portfolio.addEngine(name, bidirectionalAstar::findPath, bidirectionalAstar::getExpandedNodes);
+            } else if((name.equals("astar") || name.equals("alt")) && !astarAdded) {
+                astarAdded = true;
+                if(name.equals("alt")) {
+                    portfolioLandmarks = true;
+                }
+                portfolio.addEngine(name, (obstacles, start, goal, blockedCell, cancelled) ->
+                        AstarSearch(start, goal, obstacles, blockedCell, Integer.MAX_VALUE, cancelled), () -> lastExpandedNodes);
+            } else {
+                System.err.println("Cannot race " + name + " in portfolio mode, skipping it");
+            }
+        }
+        if(portfolio.getEngineCount() == 0) {
+            System.err.println("No searches to race, using jps,bidirectional");
+            return createPortfolio("jps,bidirectional");
+        }
+        return portfolio;
+    }
+
+    /**
+     * @return true when the portfolio races AstarSearch with landmarks
+     */
+    private boolean usesLandmarks()
+    {
+        return searchMode == SearchMode.PORTFOLIO && portfolioLandmarks;
+    }
+
+    /**
+     * @return The fixed pool of daemon threads the portfolio searches run on, created on first use
+     */
+    private static synchronized ExecutorService portfolioExecutor()
+    {
+        if(portfolioExecutor == null) {
+            // more threads than cores would only make the engines share them, so the race takes longer
+            int threads = Math.max(1, Math.min(PORTFOLIO_MAX_THREADS, Runtime.getRuntime().availableProcessors()));
+            portfolioExecutor = Executors.newFixedThreadPool(threads, runnable -> {
+                Thread thread = new Thread(runnable, "portfolio-search");
+                // the pool must not keep SEPIA running after the episode ends
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return portfolioExecutor;
+    }
+
+    /**
+     * @return true when the mode repairs its path with repairPath and there is an enemy footman to detour around
+     */
+    private boolean usesDetourPrecomputation()
+    {
+        return PRECOMPUTE_DETOURS && enemyFootmanID != -1 && searchMode != SearchMode.PREDICTIVE
+                && searchMode != SearchMode.COOPERATIVE && searchMode != SearchMode.FLOW_FIELD && searchMode != SearchMode.LRTA;
+    }
+
+    /**
+     * @return The daemon thread detours are searched and the articulation arrays of
+     *         connectedComponents built on between turns, created on first use
+     */
+    private static synchronized ExecutorService detourExecutor()
+    {
+        if(detourExecutor == null) {
+            // Java 8 has no virtual threads, one platform thread is shared by every agent in the JVM
+            detourExecutor = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "detour-search");
+                // the thread must not keep SEPIA running after the episode ends
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return detourExecutor;
+    }
+
+    /**
+     * Hands the rest of the path to detourPrecomputer, which searches detours around the cells
+     * the enemy footman may block until the next turn stops it.
+     *
+     * @param state
+     */
+    private void startDetourPrecomputation(State.StateView state)
+    {
+        if(detourPrecomputer == null || state.getUnit(enemyFootmanID) == null || state.getUnit(townhallID) == null) {
+            return;
+        }
+        int yExtent = obstacleGrid.getYExtent();
+        Unit.UnitView enemyFootman = state.getUnit(enemyFootmanID);
+        Unit.UnitView townhallUnit = state.getUnit(townhallID);
+        // repairPath plans the rest of a hierarchical plan again instead of detouring around its last cell
+        int goal = searchMode == SearchMode.HPA && hierarchicalPathfinder.hasNextSegment() ? -1
+                : townhallUnit.getXPosition() * yExtent + townhallUnit.getYPosition();
+        detourPrecomputer.start(obstacleGrid, path.currentCell(), path.remainingCells(), goal,
+                enemyFootman.getXPosition() * yExtent + enemyFootman.getYPosition());
+    }
+
+    /**
+     * Refines the next segment of the hierarchical plan. Plans again from the footman's
+     * position if the enemy footman now blocks the segment.
+     *
+     * @param state
+     * @return Steps of the segment, starting where the previous one ended
+     */
+    private DirectionPath nextHierarchicalSegment(State.StateView state)
+    {
+        int yExtent = state.getYExtent();
+        int enemyCell = -1;
+        if(enemyFootmanID != -1) {
+            Unit.UnitView enemyFootmanUnit = state.getUnit(enemyFootmanID);
+            enemyCell = enemyFootmanUnit.getXPosition() * yExtent + enemyFootmanUnit.getYPosition();
+        }
+
+        int[] cells = hierarchicalPathfinder.nextSegment(enemyCell);
+        if(cells == null) {
+            return findPath(state);
+        }
+        return buildPath(path.currentCell(), cells, yExtent);
+    }
+
+    /**
+     * Converts the cell indices returned by the grid searches to the DirectionPath used by
+     * middleStep, one byte per step.
+     *
+     * @param startCell Cell index the search started from, not part of cells
+     * @param cells Cell indices x * yExtent + y, first move first
+     * @param yExtent Height of the map
+     * @return Steps of the plan with the cursor on the start cell
+     */
+    private DirectionPath buildPath(int startCell, int[] cells, int yExtent)
+    {
+        return DirectionPath.fromCells(startCell, cells, yExtent);
+    }
+
+    /**
+     * Builds the tree bitmap on the first call and afterwards only clears the cells of
+     * resources that are no longer on the map, so harvested trees never force a rebuild.
+     *
+     * @param state
+     * @return The obstacle bitmap for the current state
+     */
+    private ObstacleGrid updateObstacleGrid(State.StateView state)
+    {
+        List<Integer> resourceIDs = state.getAllResourceIds();
+
+        if(obstacleGrid == null) {
+            obstacleGrid = ObstacleGrid.forMap(state.getXExtent(), state.getYExtent(), resourceIDs.size());
+            for(Integer resourceID : resourceIDs)
+            {
+                ResourceNode.ResourceView resource = state.getResourceNode(resourceID);
+                int cell = obstacleGrid.indexOf(resource.getXPosition(), resource.getYPosition());
+
+                obstacleGrid.block(cell);
+                resourceCells.put(resourceID, cell);
+            }
+            return obstacleGrid;
+        }
+
+        // nothing was removed since the last call
+        if(resourceIDs.size() == resourceCells.size()) {
+            return obstacleGrid;
+        }
+
+        Set<Integer> remainingIDs = new HashSet<Integer>(resourceIDs);
+        Iterator<Map.Entry<Integer, Integer>> knownResources = resourceCells.entrySet().iterator();
+        while(knownResources.hasNext()) {
+            Map.Entry<Integer, Integer> resource = knownResources.next();
+            if(!remainingIDs.contains(resource.getKey())) {
+                obstacleGrid.unblock(resource.getValue());
+                knownResources.remove();
+                onObstacleChanged(resource.getValue());
+            }
+        }
+
+        return obstacleGrid;
+    }
+
+    /**
+     * Tells the structures that keep state between searches that a cell of the tree
+     * bitmap changed.
+     *
+     * @param cell Cell index of the tree that was removed
+     */
+    private void onObstacleChanged(int cell)
+    {
+        if(dStarLite != null) {
+            dStarLite.cellChanged(cell);
+        }
+        if(hierarchicalPathfinder != null) {
+            hierarchicalPathfinder.cellChanged(cell);
+        }
+        if(flowField != null) {
+            flowField.cellChanged(cell);
+        }
+        if(connectedComponents != null) {
+            connectedComponents.cellChanged(cell);
+        }
+    }
+    /**
+     * This is the method you will implement for the assignment. Your implementation
+     * will use the A* algorithm to compute the optimum path from the start position to
+     * a position adjacent to the goal position.
+     *
+     * Therefore your you need to find some possible adjacent steps which are in range 
+     * and are not trees or the enemy footman.
+     * Hint: ObstacleGrid obstacles marks the locations of trees
+     *
+     * You will return a Stack of positions with the top of the stack being the first space to move to
+     * and the bottom of the stack being the last space to move to. If there is no path to the townhall
+     * then return null from the method and the agent will print a message and do nothing.
+     * The code to execute the plan is provided for you in the middleStep method.
+     *
+     * As an example consider the following simple map
+     *
+     * F - - - -
+     * x x x - x
+     * H - - - -
+     *
+     * F is the footman
+     * H is the townhall
+     * x's are occupied spaces
+     *
+     * xExtent would be 5 for this map with valid X coordinates in the range of [0, 4]
+     * x=0 is the left most column and x=4 is the right most column
+     *
+     * yExtent would be 3 for this map with valid Y coordinates in the range of [0, 2]
+     * y=0 is the top most row and y=2 is the bottom most row
+     *
+     * obstacles would have the cells {(0,1), (1,1), (2,1), (4,1)} blocked
+     *
+     * The path would be
+     *
+     * (1,0)
+     * (2,0)
+     * (3,1)
+     * (2,2)
+     * (1,2)
+     *
+     * Notice how the initial footman position and the townhall position are not included in the path stack
+     *
+     * All of the per-cell state lives in a SearchArena that is sized once for the map and only
+     * reset where the previous search touched it, so no objects are created per node.
+     *
+     * @param start Cell index of the starting position of the footman
+     * @param goal Cell index of the townhall
+     * @param obstacles Bitmap of the positions occupied by resources
+     * @param enemyFootmanCell Cell index of the enemy footman, or -1 if there is none
+     * @return Cell indices of the path with the first move first, or null if there is no path
+     */
+
+
+    private int[] AstarSearch(int start, int goal, ObstacleGrid obstacles, int enemyFootmanCell)
+    {
+        return AstarSearch(start, goal, obstacles, enemyFootmanCell, Integer.MAX_VALUE);
+    }
+
+    /**
+     * AstarSearch that gives up after expanding maxExpansions nodes, used for local detours.
+     *
+     * @return Cell indices of the path with the first move first, or null if no path was found within the limit
+     */
+    private int[] AstarSearch(int start, int goal, ObstacleGrid obstacles, int enemyFootmanCell, int maxExpansions)
+    {
+        return AstarSearch(start, goal, obstacles, enemyFootmanCell, maxExpansions, null);
+    }
+
+    /**
+     * AstarSearch that also gives up once cancelled is set, checked every 256 expansions.
+     * Used when it races other searches in PORTFOLIO mode.
+     *
+     * @return Cell indices of the path with the first move first, or null if no path was found before giving up
+     */
+    private int[] AstarSearch(int start, int goal, ObstacleGrid obstacles, int enemyFootmanCell, int maxExpansions,
+            AtomicBoolean cancelled)
+    {
+        //Reusing the arena of the previous search unless the map size changed
+        if(searchState == null || !searchState.arena.fits(obstacles.cellCount())) {
+            searchState = new AstarSearchState(new SearchArena(obstacles.cellCount()));
+        }
+        searchState.landmarks = landmarkHeuristic;
+        searchState.field = distanceField != null && distanceField.plansFor(obstacles, goal) ? distanceField : null;
+        int[] cells = AstarSearch(start, goal, obstacles, enemyFootmanCell, maxExpansions, cancelled, searchState);
+        lastExpandedNodes = searchState.expandedNodes;
+        return cells;
+    }
+
+    /**
+     * AstarSearch on a state of its own, such as the one with the bounded arena of the detours
+     * searched between turns. Only the state and the landmarks it holds are written to, so calls
+     * on different states may run at the same time.
+     *
+     * @param state Arena sized for the map, or bounded to at least 8 cells per expansion plus one, and the heuristics to use
+     * @return Cell indices of the path with the first move first, or null if no path was found before giving up
+     */
+    private int[] AstarSearch(int start, int goal, ObstacleGrid obstacles, int enemyFootmanCell, int maxExpansions,
+            AtomicBoolean cancelled, AstarSearchState state)
+    {
+        int yExtent = obstacles.getYExtent();
+        int goalX = goal / yExtent;
+        int goalY = goal % yExtent;
+
+        SearchArena arena = state.arena;
+        int[] neighborBuffer = state.neighbors;
+        arena.reset();
+        if(state.landmarks != null) {
+            state.landmarks.setGoal(goal);
+        }
+
+        //The open set of the arena is an indexed heap keyed on the f value so that a cheaper route can lower the key in place
+        //Calculating the heuristic value for the root node and adding it to the open set
+        int startHeuristic = estimateDistance(start, goalX, goalY, yExtent, state);
+        arena.record(start, 0, startHeuristic, -1);
+        arena.push(start, startHeuristic);
+        state.expandedNodes = 0;
+
+        //Iterating in the open set until all the nodes have been explored.
+        while (arena.hasOpen()) {
+
+            //Retrieve the node with the smallest f value from the open set.
+            int currentNode = arena.pollOpen();
+
+            //Verifying if we have reached the goal node
+            if (currentNode == goal) {
+
+                //returning the path
+                return configurePath(arena, arena.parent(goal), start);
+            }
+
+            //Marking the currentNode as closed as it has been visited
+            arena.close(currentNode);
+            if (++state.expandedNodes > maxExpansions) {
+                return null;
+            }
+            if (cancelled != null && (state.expandedNodes & 255) == 0 && cancelled.get()) {
+                return null;
+            }
+
+            //Retrieving the available valid neighbor nodes for the currentNode
+            int neighborCount = expandNextAvailableValidSteps(currentNode, obstacles, neighborBuffer);
+
+            //Populates the actual cost for the neighbors by adding 1 to actual path cost of their parent i.e currentNode
+            int actualCostForNextStep = arena.cost(currentNode) + 1;
+
+            //Iterating through the available neighborNodes
+            for (int i = 0; i < neighborCount; i++) {
+                int neighborNode = neighborBuffer[i];
+
+            	//Skipping this neighbor node if it already exists in the closedSet or is occupied by the enemy footman
+            	if (arena.isClosed(neighborNode) || neighborNode == enemyFootmanCell) {
+            		continue;
+            	}
+
+                //Keeping the neighbor only if it is at least as cheap as the route already queued for this cell
+            	int knownCost = arena.cost(neighborNode);
+            	if (actualCostForNextStep > knownCost) {
+            		continue;
+            	}
+
+                //As we know total cost = actual cost + heuristic
+            	int f = actualCostForNextStep + estimateDistance(neighborNode, goalX, goalY, yExtent, state);
+            	arena.record(neighborNode, actualCostForNextStep, f, currentNode);
+
+                //Adding the neighbor node, or lowering its key in place if it is already in the open set
+            	arena.push(neighborNode, f);
+
+            }
+        }
+
+        return null;
     }
 
     
@@ -456,102 +1996,61 @@ public class AstarAgent extends Agent {
      *
      * 
      *
-     * @param currentLocation Current position of the footman
-     * @param goal MapLocation of the townhall.
-     * @param xExtent Width of the map
-     * @param yExtent Height of the map
-     * @param resourceLocations Set of positions occupied by resources
-     * @return Stack of MapLocation Objects which includes valid neighbors 
+     * @param currentLocation Cell index of the current position of the footman
+     * @param obstacles Bitmap of the positions occupied by resources
+     * @param nextPossibleSteps Buffer of at least 8 entries the valid neighbors are written to
+     * @return Number of valid neighbors written to nextPossibleSteps
      */ 
-    private Stack<MapLocation> expandNextAvailableValidSteps(MapLocation currentLocation, MapLocation goal,int xExtent, int yExtent, Set<MapLocation> resourceLocations) {
-    	  
-    	//Initializing Stack<MapLocations> to store and return valid neighbors
-    	Stack<MapLocation> nextPossibleSteps = new Stack<MapLocation>();	
-    	
-    	//A 2d array which corresponds to all the moves that are possible in any location.
-    	int[][] directions = {
+    private int expandNextAvailableValidSteps(int currentLocation, ObstacleGrid obstacles, int[] nextPossibleSteps) {
 
-		        {-1, 0}, {1, 0}, {0, -1}, {0, 1},   //Moving up,down,left,right
+    	int yExtent = obstacles.getYExtent();
+    	int currentX = currentLocation / yExtent;
+    	int currentY = currentLocation % yExtent;
+    	int count = 0;
 
-		        {-1, -1}, {-1, 1}, {1, -1}, {1, 1}  //Moving diagonally
+    	//One mask of the neighbors that are inside the map and not occupied by a tree,
+    	//read from the tree storage a row at a time.
+    	int freeNeighbors = obstacles.freeNeighbors(currentX, currentY);
 
-		    };   	
-    	
     	//Loop through each direction, to create corresponding neighbor Nodes 
-    	for (int[] direction:directions) {    		
-    		
-    		//Represents the x,y coordinates of the next step.
-    		int nextX = currentLocation.x + direction[0];
-    		int nextY = currentLocation.y + direction[1];
+    	for (int[] direction:DIRECTIONS) {    		
     		
-    		//Checking whether the nextPossible location falls within the boundary of the given map
-    		if (nextX >= 0 && nextX < xExtent && nextY >= 0 && nextY < yExtent) {   			
-    			
-    			//Populates the actual cost for the next step by adding 1 to actual path cost of its parent i.e currentLocation
-    			float actualCostForNextStep = currentLocation.cost + 1;
-    			MapLocation nextPossibleStep = new MapLocation(nextX, nextY, currentLocation, actualCostForNextStep);
-    			
-    			//Defined a boolean to store information on whether the next step is blocked by tree or not 
-    			boolean isNextStepBlockedByTree = false;
-    			
-    			//Initialized iterator for iterating through all resourceLocations
-    			Iterator<MapLocation> setIterator = resourceLocations.iterator();
-    			
-    			//Iterating through resourceLocations to check if nextPossibleStep is occupied by tree.
-    	        while (setIterator.hasNext()){
-    	            
-    	        	MapLocation tree = setIterator.next();   	            
-    	            
-    	        	//If there exists a tree such that its coordinates are equal to nextPossibleStep's coordinates then we set 'isNextStepBlockedByTree' to true 	
-    	        	if (tree.x == nextPossibleStep.x && tree.y == nextPossibleStep.y) {
-    	            	isNextStepBlockedByTree=true;
-    	            	break;
-    	            }
-    	        }
-    			
-    	        //If the current neighbor is a valid neighbor we calculate its heuristic and add it to list of valid neighbors.
-    	        if (!isNextStepBlockedByTree) {
-    	        	
-    	        	//Calculate the heuristic value of corresponding neighbor node
-    	        	nextPossibleStep.heuristicCost = calculateChebyshevDistance(nextPossibleStep,goal);
-    	        	
-    	        	//As we know total cost = actual cost + heuristic
-    	        	nextPossibleStep.f = nextPossibleStep.cost + nextPossibleStep.heuristicCost;
-    	        	nextPossibleSteps.add(nextPossibleStep);
-    	        }			
+    		//Keeping the neighbor if its bit in the mask is set.
+    		if ((freeNeighbors & (1 << ((direction[0] + 1) * 3 + direction[1] + 1))) != 0) {
+    			nextPossibleSteps[count++] = (currentX + direction[0]) * yExtent + currentY + direction[1];
     		}
     		
     	}
     	
-    	// Returning all the possible valid(within boundary, Not occupied by tree) neighbors.
-    	return nextPossibleSteps;
+    	// Returning the number of possible valid(within boundary, Not occupied by tree) neighbors.
+    	return count;
     }
     
     /**
-     * This method would extract/backtrack the path from a given destination node and returns Stack of 
+     * This method would extract/backtrack the path from a given destination node and returns the
      * positions that needs to be followed in order to move from initial node to destination node. 
      * 
      * 
-     * @param destination MapLocation of the townhall.
-     * @return Stack of positions with top of stack being first move in plan
+     * @param arena Search state holding the parent of every reached cell
+     * @param destination Cell index of the last step before the townhall.
+     * @param start Cell index of the initial position of the footman
+     * @return Cell indices of the path with the first move first
      */ 
-    private Stack<MapLocation> configurePath(MapLocation destination){
+    private int[] configurePath(SearchArena arena, int destination, int start){
     	
-    	//Initialize a new Stack<MapLocation> to track path.
-    	Stack<MapLocation> path = new Stack<MapLocation>();
+    	//Counting the steps between the destination and the initial position
+    	int length = 0;
+    	for (int cell = destination; cell != start; cell = arena.parent(cell)) {
+    		length++;
+    	}
     	
     	//Iterate through all the corresponding parent nodes and adding them to path until we reach initial state
-    	while (destination != null) {
-    		
-    		path.add(destination);
-    		
-    		//replacing current object with its parent.
-    		destination=destination.cameFrom;
-    	}  	
-    	//Remove current/initial position of footman from stack
-    	path.pop();
+    	int[] path = new int[length];
+    	for (int cell = destination; cell != start; cell = arena.parent(cell)) {
+    		path[--length] = cell;
+    	}
     	
-    	//Return stack of positions where first position is the next location that agent can move to
+    	//Return positions where first position is the next location that agent can move to
     	return path;
     }
     
@@ -560,15 +2059,42 @@ public class AstarAgent extends Agent {
      * This function calculates the chebyshev distance between two points
      * by returning the maximum value among the absolute difference between x and y coordinates of 2 locations
      *  
-     * @param current - Map Location Object that represents current node
-     * @param goal - Map Location Object that represents Goal/Townhall 
+     * @param x - x coordinate of the current node
+     * @param y - y coordinate of the current node
+     * @param goalX - x coordinate of the Goal/Townhall
+     * @param goalY - y coordinate of the Goal/Townhall
      * @return - Chebyshev distance between current and goal which acts as a heuristic value 
      */
     
-    private float calculateChebyshevDistance(MapLocation currentNode, MapLocation goal) {
+    private int calculateChebyshevDistance(int x, int y, int goalX, int goalY) {
     	
     	// Calculating chebyshev distance between currentNode and goal.
-    	return Math.max(Math.abs(goal.x - currentNode.x), Math.abs(goal.y - currentNode.y));
+    	return Math.max(Math.abs(goalX - x), Math.abs(goalY - y));
+    }
+
+    /**
+     * Heuristic used by AstarSearch. Chebyshev distance ignores the trees, so in ALT mode the
+     * larger landmark lower bound is taken when it is available. Both are admissible, and so
+     * is their maximum. In DISTANCE_FIELD mode the exact distance around the trees is used,
+     * which only the enemy footman can make too low.
+     *
+     * @param cell - cell index of the current node
+     * @param goalX - x coordinate of the Goal/Townhall
+     * @param goalY - y coordinate of the Goal/Townhall
+     * @param yExtent - height of the map
+     * @param state - search whose landmarks and distance field are used
+     * @return - lower bound on the number of steps from the cell to the goal
+     */
+    private int estimateDistance(int cell, int goalX, int goalY, int yExtent, AstarSearchState state) {
+
+    	if (state.field != null && state.field.distance(cell) != BitParallelDistanceField.UNREACHABLE) {
+    		return state.field.distance(cell);
+    	}
+    	int chebyshev = calculateChebyshevDistance(cell / yExtent, cell % yExtent, goalX, goalY);
+    	if (state.landmarks == null) {
+    		return chebyshev;
+    	}
+    	return Math.max(chebyshev, state.landmarks.lowerBound(cell));
     }
 
     /**
@@ -0,0 +1,169 @@
+package edu.cwru.sepia.agent;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Bidirectional A* over the grid used by AstarAgent.
+ *
+ * One search runs forward from the footman and one backwards from the townhall. Starting
+ * the backward search at the townhall with cost 0 is the same as starting it from every
+ * cell adjacent to the townhall with cost 1. Each step expands the side with the smaller
+ * open set, so a search that would flood a dead end from one side is met from the other.
+ *
+ * Whenever a cell has been reached from both sides the path through it is a candidate.
+ * The search stops once the smallest f value on either open set is at least the best
+ * candidate, at which point no shorter path can exist, so the result is optimal.
+ *
+ * Each side keeps its costs, parents, closed flags and open set in its own SearchArena,
+ * kept between queries, so a query only clears the cells the previous one touched.
+ */
+public class BidirectionalAstar {
+
+    private static final int INFINITY = SearchArena.UNREACHED;
+
+    private ObstacleGrid obstacles;
+    private int xExtent, yExtent;
+    private int blockedCell;
+
+    private SearchArena forwardArena, backwardArena;
+    private int expandedNodes;
+
+    /**
+     * Finds the shortest path from start to goal.
+     *
+     * @param obstacles Bitmap of the positions occupied by resources
+     * @param start Cell index of the footman
+     * @param goal Cell index of the townhall
+     * @param blockedCell Cell index of an additional blocker such as the enemy footman, or -1
+     * @return Cell indices from the first move to the cell next to the goal, or null if there is no path
+     */
+    public int[] findPath(ObstacleGrid obstacles, int start, int goal, int blockedCell)
+    {
+        return findPath(obstacles, start, goal, blockedCell, null);
+    }
+
+    /**
+     * Finds the shortest path from start to goal, giving up once cancelled is set.
+     *
+     * @param cancelled Checked every 256 expansions, or null if the search cannot be cancelled
+     * @return Cell indices from the first move to the cell next to the goal, or null if there
+     *         is no path or the search was cancelled
+     */
+    public int[] findPath(ObstacleGrid obstacles, int start, int goal, int blockedCell, AtomicBoolean cancelled)
+    {
+        this.obstacles = obstacles;
+        this.xExtent = obstacles.getXExtent();
+        this.yExtent = obstacles.getYExtent();
+        this.blockedCell = blockedCell;
+        this.expandedNodes = 0;
+
+        if(forwardArena == null || !forwardArena.fits(obstacles.cellCount())) {
+            forwardArena = new SearchArena(obstacles.cellCount());
+            backwardArena = new SearchArena(obstacles.cellCount());
+        }
+        forwardArena.reset();
+        backwardArena.reset();
+        IndexedMinHeap forwardOpen = forwardArena.openSet();
+        IndexedMinHeap backwardOpen = backwardArena.openSet();
+
+        int startEstimate = heuristic(start, goal);
+        forwardArena.record(start, 0, startEstimate, -1);
+        forwardOpen.insert(start, startEstimate);
+
+        backwardArena.record(goal, 0, startEstimate, -1);
+        backwardOpen.insert(goal, startEstimate);
+
+        int bestLength = INFINITY;
+        int meetingCell = -1;
+
+        while(!forwardOpen.isEmpty() && !backwardOpen.isEmpty()) {
+            // neither side can improve on the best path found so far
+            if(bestLength != INFINITY &&
+                    (forwardOpen.peekKey() >= bestLength || backwardOpen.peekKey() >= bestLength)) {
+                break;
+            }
+
+            boolean forward = forwardOpen.size() <= backwardOpen.size();
+            IndexedMinHeap openSet = forward ? forwardOpen : backwardOpen;
+            SearchArena arena = forward ? forwardArena : backwardArena;
+            SearchArena other = forward ? backwardArena : forwardArena;
+            int target = forward ? goal : start;
+
+            int current = openSet.poll();
+            arena.close(current);
+            expandedNodes++;
+            if(cancelled != null && (expandedNodes & 255) == 0 && cancelled.get()) {
+                return null;
+            }
+
+            int x = current / yExtent;
+            int y = current % yExtent;
+            for(int dx = -1; dx <= 1; dx++) {
+                for(int dy = -1; dy <= 1; dy++) {
+                    int nextX = x + dx;
+                    int nextY = y + dy;
+                    if((dx == 0 && dy == 0) || !isWalkable(nextX, nextY)) {
+                        continue;
+                    }
+
+                    int next = nextX * yExtent + nextY;
+                    int nextCost = arena.cost(current) + 1;
+                    if(arena.isClosed(next) || nextCost >= arena.cost(next)) {
+                        continue;
+                    }
+
+                    int f = nextCost + heuristic(next, target);
+                    arena.record(next, nextCost, f, current);
+                    openSet.update(next, f);
+
+                    // the other search has already reached this cell, so a full path exists through it
+                    int otherCost = other.cost(next);
+                    if(otherCost != INFINITY && nextCost + otherCost < bestLength) {
+                        bestLength = nextCost + otherCost;
+                        meetingCell = next;
+                    }
+                }
+            }
+        }
+
+        if(meetingCell == -1) {
+            return null;
+        }
+
+        // the path excludes the start and goal cells
+        int[] path = new int[bestLength - 1];
+        int index = forwardArena.cost(meetingCell) - 1;
+        for(int cell = meetingCell; cell != start; cell = forwardArena.parent(cell)) {
+            // the forward search can meet the backward one on the townhall itself
+            if(cell != goal) {
+                path[index] = cell;
+            }
+            index--;
+        }
+        index = forwardArena.cost(meetingCell);
+        for(int cell = backwardArena.parent(meetingCell); cell != goal && cell != -1; cell = backwardArena.parent(cell)) {
+            path[index++] = cell;
+        }
+
+        return path;
+    }
+
+    /**
+     * @return Number of cells expanded by both searches in the last call to findPath
+     */
+    public int getExpandedNodes() {
+        return expandedNodes;
+    }
+
+    private boolean isWalkable(int x, int y) {
+        if(x < 0 || x >= xExtent || y < 0 || y >= yExtent) {
+            return false;
+        }
+        int cell = x * yExtent + y;
+        return cell != blockedCell && !obstacles.isBlocked(cell);
+    }
+
+    private int heuristic(int from, int to) {
+        return Math.max(Math.abs(from / yExtent - to / yExtent), Math.abs(from % yExtent - to % yExtent));
+    }
+}
@@ -0,0 +1,295 @@
+package edu.cwru.sepia.agent;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Distance from every cell to one goal cell, computed by a breadth first search that expands
+ * 64 cells per machine word.
+ *
+ * The free cells are kept as a bitboard with one row of packed longs per x coordinate, bit
+ * y % 64 of word y / 64. On a unit cost grid all cells of one breadth first search layer can be
+ * found at once: the frontier is dilated to its 8 neighbors by shifting each row one bit up and
+ * down and OR-ing it with the rows next to it, then masked with the free cells that were not
+ * reached before. The words holding frontier cells are kept in a list, so a layer only touches
+ * those words and the ones next to them, and each cell's distance is written once, when its bit
+ * first appears.
+ *
+ * The trees never change the distance between two cells by less than it takes to walk around
+ * them, so the field is an exact heuristic for a search that also avoids the enemy footman, and
+ * without the enemy in the way a path can be read from it directly.
+ */
+public class BitParallelDistanceField {
+
+    public static final int UNREACHABLE = Integer.MAX_VALUE;
+
+    private static final int[][] DIRECTIONS = {
+            {-1, 0}, {1, 0}, {0, -1}, {0, 1},
+            {-1, -1}, {-1, 1}, {1, -1}, {1, 1}
+    };
+
+    private final ObstacleGrid obstacles;
+    private final int xExtent, yExtent;
+    private final int wordsPerRow;
+    private final long lastWordMask;
+
+    private final long[] free;
+    private final long[] visited;
+    private final int[] distance;
+
+    // the words holding frontier cells and their bits
+    private final int[] activeWords;
+    private final long[] activeBits;
+    // the frontier spread to its neighbors, only valid for the words touched in the current layer
+    private final long[] spreadBits;
+    private final int[] touchedWords;
+    private final int[] touchedStamp;
+    private int touchedCount;
+    private int stamp;
+
+    private long treeVersion;
+    private boolean freeBuilt;
+    private int goal = -1;
+    private int layers;
+    private int reachedCells;
+
+    /**
+     * @param obstacles Bitmap of the positions occupied by resources
+     */
+    public BitParallelDistanceField(ObstacleGrid obstacles)
+    {
+        this.obstacles = obstacles;
+        this.xExtent = obstacles.getXExtent();
+        this.yExtent = obstacles.getYExtent();
+        this.wordsPerRow = (yExtent + 63) >>> 6;
+        this.lastWordMask = (yExtent & 63) == 0 ? -1L : (1L << (yExtent & 63)) - 1;
+
+        int words = xExtent * wordsPerRow;
+        this.free = new long[words];
+        this.visited = new long[words];
+        this.distance = new int[obstacles.cellCount()];
+        this.activeWords = new int[words];
+        this.activeBits = new long[words];
+        this.spreadBits = new long[words];
+        this.touchedWords = new int[words];
+        this.touchedStamp = new int[words];
+    }
+
+    /**
+     * @return true when the field holds the distances to the goal on the current trees
+     */
+    public boolean plansFor(ObstacleGrid obstacles, int goal) {
+        return this.obstacles == obstacles && this.goal == goal && freeBuilt && obstacles.fingerprint() == treeVersion;
+    }
+
+    /**
+     * @return true when the field fits the map of the grid
+     */
+    public boolean fits(ObstacleGrid obstacles) {
+        return this.obstacles == obstacles;
+    }
+
+    /**
+     * Computes the distance from every cell to the goal on the current trees.
+     *
+     * @param goal Cell index the distances are measured to, searched from even if a tree stands on it
+     */
+    public void build(int goal) {
+        if(!freeBuilt || obstacles.fingerprint() != treeVersion) {
+            readFreeCells();
+        }
+        this.goal = goal;
+
+        Arrays.fill(distance, UNREACHABLE);
+        Arrays.fill(visited, 0);
+        int goalWord = goal / yExtent * wordsPerRow + ((goal % yExtent) >>> 6);
+        activeWords[0] = goalWord;
+        activeBits[0] = 1L << (goal % yExtent);
+        visited[goalWord] = activeBits[0];
+        int activeCount = 1;
+        distance[goal] = 0;
+        reachedCells = 1;
+
+        layers = 0;
+        while(activeCount > 0) {
+            layers++;
+            stamp++;
+
+            // every frontier word spreads one bit to each side within its row and to the rows next to it
+            touchedCount = 0;
+            for(int i = 0; i < activeCount; i++) {
+                int word = activeWords[i];
+                long f = activeBits[i];
+                int x = word / wordsPerRow;
+                int w = word - x * wordsPerRow;
+                long spread = f | (f << 1) | (f >>> 1);
+                // bits shifted out of the word land in the first or last bit of the word next to it
+                long intoNext = w + 1 < wordsPerRow ? f >>> 63 : 0;
+                long intoPrevious = w > 0 ? f << 63 : 0;
+                for(int nextX = Math.max(0, x - 1); nextX <= Math.min(xExtent - 1, x + 1); nextX++) {
+                    int nextWord = nextX * wordsPerRow + w;
+                    touch(nextWord, spread);
+                    if(intoNext != 0) {
+                        touch(nextWord + 1, intoNext);
+                    }
+                    if(intoPrevious != 0) {
+                        touch(nextWord - 1, intoPrevious);
+                    }
+                }
+            }
+
+            // the free cells reached for the first time are the next frontier
+            activeCount = 0;
+            for(int i = 0; i < touchedCount; i++) {
+                int word = touchedWords[i];
+                long reached = spreadBits[word] & free[word] & ~visited[word];
+                if(reached == 0) {
+                    continue;
+                }
+                visited[word] |= reached;
+                activeWords[activeCount] = word;
+                activeBits[activeCount++] = reached;
+
+                int x = word / wordsPerRow;
+                int firstCell = x * yExtent + ((word - x * wordsPerRow) << 6);
+                while(reached != 0) {
+                    distance[firstCell + Long.numberOfTrailingZeros(reached)] = layers;
+                    reached &= reached - 1;
+                    reachedCells++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Takes the distances to the goal from a field saved with writeArtifact for the same
+     * trees, instead of running the search again.
+     *
+     * @param content Content of the MapArtifacts.DISTANCE_FIELD section for the goal
+     */
+    public void load(int goal, ByteBuffer content) {
+        if(content.remaining() != 4 * distance.length) {
+            throw new IllegalArgumentException("Distance field has " + content.remaining() / 4 + " cells, expected " + distance.length);
+        }
+        if(!freeBuilt || obstacles.fingerprint() != treeVersion) {
+            readFreeCells();
+        }
+        content.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().get(distance);
+        this.goal = goal;
+
+        // the statistics of the build that produced the field
+        reachedCells = 0;
+        int farthest = 0;
+        for(int d : distance) {
+            if(d != UNREACHABLE) {
+                reachedCells++;
+                farthest = Math.max(farthest, d);
+            }
+        }
+        layers = farthest + 1;
+    }
+
+    /**
+     * @return The distances as the content of a MapArtifacts.DISTANCE_FIELD section with the goal as parameter
+     */
+    public ByteBuffer writeArtifact() {
+        ByteBuffer content = ByteBuffer.allocate(4 * distance.length).order(ByteOrder.LITTLE_ENDIAN);
+        content.asIntBuffer().put(distance);
+        return content;
+    }
+
+    /**
+     * ORs bits into the spread of a word, starting it from zero the first time it is touched in a layer.
+     */
+    private void touch(int word, long bits) {
+        if(touchedStamp[word] != stamp) {
+            touchedStamp[word] = stamp;
+            spreadBits[word] = bits;
+            touchedWords[touchedCount++] = word;
+        } else {
+            spreadBits[word] |= bits;
+        }
+    }
+
+    /**
+     * @return Steps from the cell to the goal around the trees, UNREACHABLE if there is no route
+     */
+    public int distance(int cell) {
+        return distance[cell];
+    }
+
+    public int getGoal() {
+        return goal;
+    }
+
+    /**
+     * @return Number of breadth first search layers of the last build, including the last empty one
+     */
+    public int getLayers() {
+        return layers;
+    }
+
+    /**
+     * @return Number of cells that got a distance in the last build
+     */
+    public int getReachedCells() {
+        return reachedCells;
+    }
+
+    /**
+     * Follows the distances down from the start, choosing at every step a neighbor one step
+     * closer that is not the blocked cell. Such a path is always a shortest one. It may not be
+     * found when the blocked cell is on every shortest path from some cell on the way.
+     *
+     * @param blockedCell Cell index of the enemy footman, or -1
+     * @return Cell indices of the path with the first move first, ending next to the goal, or null
+     */
+    public int[] pathFrom(int start, int blockedCell) {
+        int steps = distance[start];
+        if(steps == UNREACHABLE || steps == 0) {
+            return null;
+        }
+        int[] path = new int[steps - 1];
+        int cell = start;
+        for(int i = 0; i < path.length; i++) {
+            int x = cell / yExtent;
+            int y = cell % yExtent;
+            int closer = -1;
+            for(int[] direction : DIRECTIONS) {
+                int nextX = x + direction[0];
+                int nextY = y + direction[1];
+                if(nextX < 0 || nextX >= xExtent || nextY < 0 || nextY >= yExtent) {
+                    continue;
+                }
+                int neighbor = nextX * yExtent + nextY;
+                if(neighbor != blockedCell && distance[neighbor] == distance[cell] - 1) {
+                    closer = neighbor;
+                    break;
+                }
+            }
+            if(closer == -1) {
+                return null;
+            }
+            path[i] = closer;
+            cell = closer;
+        }
+        return path;
+    }
+
+    /**
+     * Copies the free cells from the tree bitmap, 64 cells at a time.
+     */
+    private void readFreeCells() {
+        for(int x = 0; x < xExtent; x++) {
+            int row = x * wordsPerRow;
+            for(int w = 0; w < wordsPerRow; w++) {
+                long trees = obstacles.bitsFrom(x * yExtent + (w << 6));
+                long mask = w == wordsPerRow - 1 ? lastWordMask : -1L;
+                free[row + w] = ~trees & mask;
+            }
+        }
+        treeVersion = obstacles.fingerprint();
+        freeBuilt = true;
+    }
+}
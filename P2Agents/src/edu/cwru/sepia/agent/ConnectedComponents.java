@@ -0,0 +1,372 @@
+package edu.cwru.sepia.agent;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Connected components of the free cells of an ObstacleGrid under 8-connected moves, used to
+ * tell in constant time that there is no path before running a search.
+ *
+ * Every free cell gets a label from one flood fill over the map. The labels are merged with
+ * union-find, so a removed tree only joins the components around it. A new tree may split a
+ * component, so the labels are filled in again on the next query.
+ *
+ * A single cell blocked on top of the trees, such as the enemy footman, is handled without
+ * labeling again. A depth first search over the free cells records for every cell its preorder
+ * number, the lowest preorder number its subtree reaches through a back edge (low) and the end
+ * of its subtree. Blocking a cell only separates the subtrees of its children whose low does not
+ * reach above it, so checking whether two cells end up on different sides looks at no more than
+ * the 8 neighbors of the blocked cell.
+ *
+ * The depth first search covers the whole map, so it never runs inside a query. A query with a
+ * blocked cell on trees the arrays were not built for answers as if the cell were free, which
+ * can only let a search run that finds nothing, and asks for the arrays. The agent builds them
+ * between turns with startRefresh, on the same protocol as DetourPrecomputer: stopRefresh
+ * before the trees change or the next query.
+ */
+public class ConnectedComponents {
+
+    private static final int NONE = -1;
+    private static final int[] DX = {-1, 1, 0, 0, -1, 1, -1, 1};
+    private static final int[] DY = {0, 0, -1, 1, -1, 1, 1, -1};
+
+    private final ObstacleGrid obstacles;
+    private final int xExtent, yExtent;
+    private long treeVersion;
+
+    // component label of every free cell, NONE for trees, and the union-find parent of every label
+    private final int[] label;
+    private int[] labelParent;
+    private int labelCount;
+    private boolean relabel;
+
+    // depth first search over the free cells, indexed by cell
+    private int[] preorder;
+    private int[] low;
+    private int[] subtreeEnd;
+    private byte[] parentDirection;
+    private long articulationVersion;
+    private boolean articulationBuilt;
+    private boolean articulationWanted;
+    private final AtomicBoolean cancelled = new AtomicBoolean();
+    private Future<?> refresh;
+
+    /**
+     * @param obstacles Bitmap of the positions occupied by resources, kept up to date through cellChanged
+     */
+    public ConnectedComponents(ObstacleGrid obstacles)
+    {
+        this.obstacles = obstacles;
+        this.xExtent = obstacles.getXExtent();
+        this.yExtent = obstacles.getYExtent();
+        this.label = new int[obstacles.cellCount()];
+        labelAll();
+    }
+
+    /**
+     * @return true when the labels were built for the same map and trees
+     */
+    public boolean plansFor(ObstacleGrid obstacles) {
+        return this.obstacles == obstacles && obstacles.fingerprint() == treeVersion;
+    }
+
+    /**
+     * Updates the labels after a tree was added to or removed from the cell.
+     */
+    public void cellChanged(int cell) {
+        treeVersion = obstacles.fingerprint();
+        if(obstacles.isBlocked(cell)) {
+            // the component may have been split, which union-find cannot undo
+            relabel = true;
+            return;
+        }
+        if(relabel || label[cell] != NONE) {
+            return;
+        }
+        if(labelCount == labelParent.length) {
+            labelParent = Arrays.copyOf(labelParent, labelCount * 2);
+        }
+        labelParent[labelCount] = labelCount;
+        label[cell] = labelCount++;
+        int x = cell / yExtent;
+        int y = cell % yExtent;
+        for(int d = 0; d < DX.length; d++) {
+            int next = neighbor(x, y, d);
+            if(next != NONE && label[next] != NONE) {
+                union(label[cell], label[next]);
+            }
+        }
+    }
+
+    /**
+     * @return true when both cells are free and in the same component
+     */
+    public boolean connected(int a, int b) {
+        if(relabel) {
+            labelAll();
+        }
+        return label[a] != NONE && label[b] != NONE && find(label[a]) == find(label[b]);
+    }
+
+    /**
+     * Whether a path can lead from the start to a cell next to the goal, as the searches look for.
+     * A path reaching the goal's cell has to pass one of its neighbors first, so this is the same
+     * as the goal being connected to the start when the goal itself is free.
+     *
+     * @param blockedCell Cell index blocked on top of the trees, such as the enemy footman, or -1
+     * @return false when no path exists
+     */
+    public boolean isReachable(int start, int goal, int blockedCell) {
+        if(obstacles.isBlocked(goal)) {
+            // the townhall sits on a cell the bitmap marks, its free neighbors are the targets
+            int x = goal / yExtent;
+            int y = goal % yExtent;
+            for(int d = 0; d < DX.length; d++) {
+                int next = neighbor(x, y, d);
+                if(next != NONE && (next == start || isReachableCell(start, next, blockedCell))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        return isReachableCell(start, goal, blockedCell);
+    }
+
+    private boolean isReachableCell(int start, int target, int blockedCell) {
+        if(!connected(start, target)) {
+            return false;
+        }
+        if(blockedCell == NONE || blockedCell == start || blockedCell == target) {
+            return blockedCell != target;
+        }
+        if(!connected(start, blockedCell)) {
+            return true;
+        }
+        if(!articulationBuilt || articulationVersion != treeVersion) {
+            // building the arrays here would put a search over the whole map on this turn
+            articulationWanted = true;
+            return true;
+        }
+
+        // the start and the target are apart when one of them is in a subtree cut off by the blocked cell
+        int x = blockedCell / yExtent;
+        int y = blockedCell % yExtent;
+        for(int d = 0; d < DX.length; d++) {
+            int child = neighbor(x, y, d);
+            if(child == NONE || preorder[child] <= preorder[blockedCell] || low[child] < preorder[blockedCell]) {
+                continue;
+            }
+            int parentDir = parentDirection[child];
+            if(neighbor(child / yExtent, child % yExtent, parentDir) != blockedCell) {
+                continue;
+            }
+            if(inSubtree(start, child) != inSubtree(target, child)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return Number of components after the last labeling and the merges since
+     */
+    public int getComponentCount() {
+        if(relabel) {
+            labelAll();
+        }
+        int count = 0;
+        for(int i = 0; i < labelCount; i++) {
+            if(labelParent[i] == i) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Builds the articulation arrays on the executor if a query asked for them and the trees
+     * changed since they were built. Nothing may change the trees or query until stopRefresh.
+     */
+    public void startRefresh(ExecutorService executor) {
+        stopRefresh();
+        if(!articulationWanted || articulationBuilt && articulationVersion == treeVersion) {
+            return;
+        }
+        cancelled.set(false);
+        refresh = executor.submit(this::rebuild);
+    }
+
+    /**
+     * Cancels the build in progress and waits until it has stopped. A cancelled build leaves
+     * the arrays stale and is started again by the next startRefresh.
+     */
+    public void stopRefresh() {
+        if(refresh == null) {
+            return;
+        }
+        cancelled.set(true);
+        try {
+            refresh.get();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch(ExecutionException e) {
+            System.err.println("Articulation build failed: " + e.getCause());
+        }
+        refresh = null;
+    }
+
+    /**
+     * Builds the labels and the articulation arrays now if they are stale, on the calling thread.
+     */
+    public void refresh() {
+        stopRefresh();
+        cancelled.set(false);
+        rebuild();
+    }
+
+    private void rebuild() {
+        if(relabel) {
+            labelAll();
+        }
+        if(!articulationBuilt || articulationVersion != treeVersion) {
+            buildArticulation();
+        }
+    }
+
+    private boolean inSubtree(int cell, int root) {
+        return preorder[cell] >= preorder[root] && preorder[cell] < subtreeEnd[root];
+    }
+
+    /**
+     * Flood fills every component with its own label.
+     */
+    private void labelAll() {
+        treeVersion = obstacles.fingerprint();
+        relabel = false;
+        Arrays.fill(label, NONE);
+        labelCount = 0;
+        int[] queue = new int[label.length];
+        for(int source = 0; source < label.length; source++) {
+            if(label[source] != NONE || obstacles.isBlocked(source)) {
+                continue;
+            }
+            int head = 0, tail = 0;
+            queue[tail++] = source;
+            label[source] = labelCount;
+            while(head < tail) {
+                int cell = queue[head++];
+                int x = cell / yExtent;
+                int y = cell % yExtent;
+                for(int d = 0; d < DX.length; d++) {
+                    int next = neighbor(x, y, d);
+                    if(next != NONE && label[next] == NONE) {
+                        label[next] = labelCount;
+                        queue[tail++] = next;
+                    }
+                }
+            }
+            labelCount++;
+        }
+        labelParent = new int[Math.max(labelCount * 2, 16)];
+        for(int i = 0; i < labelCount; i++) {
+            labelParent[i] = i;
+        }
+    }
+
+    /**
+     * Iterative depth first search over every component, recording preorder numbers from 1,
+     * low values, the exclusive end of every subtree in preorder and the direction of the parent.
+     * Gives up when cancelled is set, leaving the arrays stale.
+     */
+    private void buildArticulation() {
+        articulationBuilt = false;
+        if(preorder == null) {
+            preorder = new int[label.length];
+            low = new int[label.length];
+            subtreeEnd = new int[label.length];
+            parentDirection = new byte[label.length];
+        }
+        Arrays.fill(preorder, 0);
+        byte[] nextDirection = new byte[label.length];
+        int[] stack = new int[label.length];
+        int counter = 0;
+
+        for(int root = 0; root < label.length; root++) {
+            if(preorder[root] != 0 || obstacles.isBlocked(root)) {
+                continue;
+            }
+            if(cancelled.get()) {
+                return;
+            }
+            int top = 0;
+            stack[top++] = root;
+            preorder[root] = low[root] = ++counter;
+            parentDirection[root] = NONE;
+            nextDirection[root] = 0;
+            while(top > 0) {
+                int cell = stack[top - 1];
+                if(nextDirection[cell] < DX.length) {
+                    int d = nextDirection[cell]++;
+                    int next = neighbor(cell / yExtent, cell % yExtent, d);
+                    if(next == NONE) {
+                        continue;
+                    }
+                    if(preorder[next] == 0) {
+                        preorder[next] = low[next] = ++counter;
+                        if((counter & 4095) == 0 && cancelled.get()) {
+                            return;
+                        }
+                        // the move back to cell is the opposite of d, which is its pair in DX and DY
+                        parentDirection[next] = (byte) (d ^ 1);
+                        nextDirection[next] = 0;
+                        stack[top++] = next;
+                    } else {
+                        // the edge back to the parent only lowers low to the parent, which still counts as cut off
+                        low[cell] = Math.min(low[cell], preorder[next]);
+                    }
+                    continue;
+                }
+                top--;
+                subtreeEnd[cell] = counter + 1;
+                if(top > 0) {
+                    int parent = stack[top - 1];
+                    low[parent] = Math.min(low[parent], low[cell]);
+                }
+            }
+        }
+        articulationVersion = treeVersion;
+        articulationBuilt = true;
+    }
+
+    /**
+     * @return Free neighbor of (x, y) in direction d, or NONE if it is outside the map or a tree
+     */
+    private int neighbor(int x, int y, int d) {
+        int nextX = x + DX[d];
+        int nextY = y + DY[d];
+        if(nextX < 0 || nextX >= xExtent || nextY < 0 || nextY >= yExtent) {
+            return NONE;
+        }
+        int next = nextX * yExtent + nextY;
+        return obstacles.isBlocked(next) ? NONE : next;
+    }
+
+    private int find(int l) {
+        while(labelParent[l] != l) {
+            labelParent[l] = labelParent[labelParent[l]];
+            l = labelParent[l];
+        }
+        return l;
+    }
+
+    private void union(int a, int b) {
+        int rootA = find(a);
+        int rootB = find(b);
+        if(rootA != rootB) {
+            labelParent[Math.max(rootA, rootB)] = Math.min(rootA, rootB);
+        }
+    }
+}
@@ -0,0 +1,347 @@
+package edu.cwru.sepia.agent;
+
+import java.util.Arrays;
+
+/**
+ * Windowed Hierarchical Cooperative A* (WHCA*) for many units heading to the same townhall.
+ *
+ * Units are planned one after another in (x, y, t) space, each for the next window time
+ * steps, against a ReservationTable holding the cells of the units planned before it. A unit
+ * may move to one of its 8 neighbors or wait, every step costs 1, and a step is only allowed
+ * into a cell that no other unit holds at the time the step starts or ends, and only out of
+ * a cell that no other unit holds when the step ends. This rules out two units meeting in a
+ * cell or swapping places, and also one unit following right behind another, since SEPIA
+ * may execute the follower's move first.
+ *
+ * The heuristic is the exact distance to the townhall on the tree map, from one breadth
+ * first search shared by all units, so each unit's search follows its shortest route and
+ * only spreads out where other units are in the way. Searches are limited to the window,
+ * which keeps the planning cost of a unit constant and the cost of a turn linear in the
+ * number of units.
+ *
+ * All units are planned again every half window, or earlier when a unit is not where its
+ * plan put it or the enemy footman steps onto a planned cell.
+ */
+public class CooperativePathfinder {
+
+    private static final int UNREACHABLE = Integer.MAX_VALUE;
+
+    private final ObstacleGrid obstacles;
+    private final long treeVersion;
+    private final int xExtent, yExtent;
+    private final int goal;
+    private final int window;
+    private final int[] goalDistance;
+    private final ReservationTable reservations;
+
+    // state of the local space-time search, a box of side 2 * window + 1 around the start for every time step
+    private final int side;
+    private final int[] visited;
+    private final int[] parent;
+    private final IndexedMinHeap openSet;
+    private int generation;
+
+    private int[] plannedUnits;
+    private int[][] plans; // plans[unit][t] cell of the unit t steps after the last plan
+    private int elapsed;
+    private boolean unscheduledReplan;
+    private int expandedNodes;
+    private int searches;
+
+    /**
+     * @param obstacles Bitmap of the positions occupied by resources
+     * @param goal Cell index of the townhall
+     * @param window Number of time steps planned ahead, at most 255
+     */
+    public CooperativePathfinder(ObstacleGrid obstacles, int goal, int window)
+    {
+        if(window < 2 || window > 255) {
+            throw new IllegalArgumentException("Window must be between 2 and 255, was " + window);
+        }
+        this.obstacles = obstacles;
+        this.treeVersion = obstacles.fingerprint();
+        this.xExtent = obstacles.getXExtent();
+        this.yExtent = obstacles.getYExtent();
+        this.goal = goal;
+        this.window = window;
+        this.goalDistance = distancesTo(goal);
+        this.reservations = new ReservationTable(obstacles.cellCount());
+
+        this.side = 2 * window + 1;
+        int states = (window + 1) * side * side;
+        this.visited = new int[states];
+        this.parent = new int[states];
+        this.openSet = new IndexedMinHeap(states);
+    }
+
+    /**
+     * @return true when the planner was built for the same map, trees and townhall
+     */
+    public boolean plansFor(ObstacleGrid obstacles, int goal) {
+        return this.obstacles == obstacles && this.goal == goal && obstacles.fingerprint() == treeVersion;
+    }
+
+    /**
+     * Advances the plans by one time step, planning all units again when needed.
+     *
+     * @param units Ids of the units, in the same order as cells
+     * @param cells Current cell index of each unit
+     * @param blockedCell Cell index of the enemy footman, or -1
+     * @return Cell each unit should move to, its current cell if it should wait
+     */
+    public int[] nextCells(int[] units, int[] cells, int blockedCell) {
+        expandedNodes = 0;
+        searches = 0;
+        unscheduledReplan = false;
+
+        boolean replan = plans == null || !Arrays.equals(units, plannedUnits) || elapsed >= window / 2;
+        for(int i = 0; i < units.length && !replan; i++) {
+            // a move failed, or the enemy footman stepped onto the next cell of a plan
+            if(cells[i] != plans[i][elapsed] || plans[i][elapsed + 1] == blockedCell) {
+                replan = true;
+                unscheduledReplan = true;
+            }
+        }
+        if(replan) {
+            planAll(units, cells, blockedCell);
+        }
+
+        elapsed++;
+        int[] next = new int[units.length];
+        for(int i = 0; i < units.length; i++) {
+            next[i] = plans[i][elapsed];
+        }
+        return next;
+    }
+
+    /**
+     * @return true when the last call to nextCells planned again because a unit left its plan
+     */
+    public boolean wasUnscheduledReplan() {
+        return unscheduledReplan;
+    }
+
+    /**
+     * @return Nodes expanded by the searches of the last call to nextCells
+     */
+    public int getExpandedNodes() {
+        return expandedNodes;
+    }
+
+    /**
+     * @return Number of unit searches run by the last call to nextCells
+     */
+    public int getSearches() {
+        return searches;
+    }
+
+    /**
+     * @return Steps from the cell to a cell next to the townhall, or -1 if it cannot get there
+     */
+    public int stepsToGoal(int cell) {
+        return goalDistance[cell] == UNREACHABLE ? -1 : goalDistance[cell] - 1;
+    }
+
+    /**
+     * Plans every unit in order of its distance to the townhall, closest first, so units
+     * already in place keep their cells. A unit that cannot even wait, because units planned
+     * before it pass through its cell, holds its cell for the whole window and the others are
+     * planned again around it. Every such round fixes at least one more unit in place.
+     */
+    private void planAll(int[] units, int[] cells, int blockedCell) {
+        plannedUnits = units.clone();
+        plans = new int[units.length][];
+        elapsed = 0;
+
+        Integer[] order = new Integer[units.length];
+        for(int i = 0; i < units.length; i++) {
+            order[i] = i;
+        }
+        final int[] startCells = cells;
+        Arrays.sort(order, (a, b) -> Integer.compare(goalDistance[startCells[a]], goalDistance[startCells[b]]));
+
+        boolean[] holding = new boolean[units.length];
+        boolean planned = false;
+        while(!planned) {
+            reservations.clear();
+            // every unit holds its current cell before anyone moves
+            for(int i = 0; i < units.length; i++) {
+                reservations.reserve(cells[i], 0, i);
+            }
+            for(int i = 0; i < units.length; i++) {
+                if(holding[i]) {
+                    plans[i] = new int[window + 1];
+                    Arrays.fill(plans[i], cells[i]);
+                    for(int t = 1; t <= window; t++) {
+                        reservations.reserve(cells[i], t, i);
+                    }
+                }
+            }
+
+            planned = true;
+            for(int i : order) {
+                if(holding[i]) {
+                    continue;
+                }
+                int[] plan = search(i, cells[i], blockedCell);
+                if(plan == null) {
+                    holding[i] = true;
+                    planned = false;
+                    break;
+                }
+                for(int t = 1; t <= window; t++) {
+                    reservations.reserve(plan[t], t, i);
+                }
+                plans[i] = plan;
+            }
+        }
+    }
+
+    /**
+     * Space-time A* for one unit over the next window time steps.
+     *
+     * @return Cell of the unit at every time step from 0 to window, or null if every route is blocked
+     */
+    private int[] search(int unit, int start, int blockedCell) {
+        searches++;
+        generation++;
+        openSet.clear();
+
+        int startX = start / yExtent;
+        int startY = start % yExtent;
+        int startState = stateOf(start, 0, startX, startY);
+        visited[startState] = generation;
+        parent[startState] = -1;
+        openSet.insert(startState, key(start, 0));
+
+        int endState = -1;
+        while(!openSet.isEmpty()) {
+            int state = openSet.poll();
+            int t = state / (side * side);
+            int cell = cellOf(state, startX, startY);
+            expandedNodes++;
+
+            if(t == window || (goalDistance[cell] == 1 && canHold(cell, t, unit))) {
+                endState = state;
+                break;
+            }
+
+            // another unit entering this cell as this one leaves it would be following right behind it
+            if(!reservations.isAvailable(cell, t + 1, unit)) {
+                continue;
+            }
+
+            int x = cell / yExtent;
+            int y = cell % yExtent;
+            for(int dx = -1; dx <= 1; dx++) {
+                for(int dy = -1; dy <= 1; dy++) {
+                    int nextX = x + dx;
+                    int nextY = y + dy;
+                    if(nextX < 0 || nextX >= xExtent || nextY < 0 || nextY >= yExtent) {
+                        continue;
+                    }
+                    int next = nextX * yExtent + nextY;
+                    if(next == goal || next == blockedCell || obstacles.isBlocked(next)) {
+                        continue;
+                    }
+                    // the cell must be free when the step ends, and when it starts unless the unit is waiting
+                    if(next != cell && (!reservations.isAvailable(next, t + 1, unit) || !reservations.isAvailable(next, t, unit))) {
+                        continue;
+                    }
+
+                    int nextState = stateOf(next, t + 1, startX, startY);
+                    if(visited[nextState] == generation) {
+                        // every step costs 1, so the first route to a state is a cheapest one
+                        continue;
+                    }
+                    visited[nextState] = generation;
+                    parent[nextState] = state;
+                    openSet.insert(nextState, key(next, t + 1));
+                }
+            }
+        }
+
+        if(endState == -1) {
+            return null;
+        }
+
+        int[] plan = new int[window + 1];
+        int endTime = endState / (side * side);
+        int endCell = cellOf(endState, startX, startY);
+        for(int t = endTime + 1; t <= window; t++) {
+            plan[t] = endCell;
+        }
+        for(int state = endState; state != -1; state = parent[state]) {
+            plan[state / (side * side)] = cellOf(state, startX, startY);
+        }
+        return plan;
+    }
+
+    /**
+     * @return true when no other unit holds the cell from time t to the end of the window
+     */
+    private boolean canHold(int cell, int t, int unit) {
+        for(int time = t + 1; time <= window; time++) {
+            if(!reservations.isAvailable(cell, time, unit)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * f value of a state, with later states first among equal f values.
+     */
+    private long key(int cell, int t) {
+        long h = goalDistance[cell] == UNREACHABLE ? xExtent + yExtent : goalDistance[cell] - 1;
+        return ((t + h) << 8) | (255 - t);
+    }
+
+    private int stateOf(int cell, int t, int startX, int startY) {
+        int localX = cell / yExtent - startX + window;
+        int localY = cell % yExtent - startY + window;
+        return t * side * side + localX * side + localY;
+    }
+
+    private int cellOf(int state, int startX, int startY) {
+        int local = state % (side * side);
+        int x = local / side - window + startX;
+        int y = local % side - window + startY;
+        return x * yExtent + y;
+    }
+
+    /**
+     * Breadth first search from the townhall over the free cells.
+     *
+     * @return Steps from every cell to the townhall, UNREACHABLE where there is no route
+     */
+    private int[] distancesTo(int target) {
+        int[] distance = new int[obstacles.cellCount()];
+        Arrays.fill(distance, UNREACHABLE);
+        int[] queue = new int[obstacles.cellCount()];
+        int head = 0, tail = 0;
+        queue[tail++] = target;
+        distance[target] = 0;
+
+        while(head < tail) {
+            int cell = queue[head++];
+            int x = cell / yExtent;
+            int y = cell % yExtent;
+            for(int dx = -1; dx <= 1; dx++) {
+                for(int dy = -1; dy <= 1; dy++) {
+                    int nextX = x + dx;
+                    int nextY = y + dy;
+                    if(nextX < 0 || nextX >= xExtent || nextY < 0 || nextY >= yExtent) {
+                        continue;
+                    }
+                    int next = nextX * yExtent + nextY;
+                    if(distance[next] == UNREACHABLE && !obstacles.isBlocked(next)) {
+                        distance[next] = distance[cell] + 1;
+                        queue[tail++] = next;
+                    }
+                }
+            }
+        }
+        return distance;
+    }
+}
@@ -0,0 +1,259 @@
+package edu.cwru.sepia.agent;
+
+import java.util.Arrays;
+
+/**
+ * D* Lite planner that keeps its search state between turns.
+ *
+ * The search runs backwards from the townhall, so the cost-to-goal values stay valid while
+ * the footman moves. When the enemy footman changes cell, or a tree is removed, only the
+ * cells around the change are put back on the open set and the next call to findPath
+ * repairs the previous search instead of starting over.
+ *
+ * Moves follow the same rules as AstarAgent.expandNextAvailableValidSteps: 8-connected,
+ * every move costs 1, and a move into a tree or the enemy footman is not allowed.
+ */
+public class DStarLite {
+
+    private static final int INFINITY = 1 << 28;
+
+    private final ObstacleGrid obstacles;
+    private final int xExtent, yExtent;
+    private final int goal;
+
+    private final int[] g;
+    private final int[] rhs;
+    private final IndexedMinHeap openSet;
+
+    private int start = -1;
+    private int lastStart = -1;
+    private int keyModifier;
+    private int blockedCell = -1;
+
+    private int expandedNodes;
+
+    /**
+     * @param obstacles Bitmap of the positions occupied by resources. Changes to it must be
+     *                  reported through cellChanged
+     * @param goal Cell index of the townhall
+     */
+    public DStarLite(ObstacleGrid obstacles, int goal)
+    {
+        this.obstacles = obstacles;
+        this.xExtent = obstacles.getXExtent();
+        this.yExtent = obstacles.getYExtent();
+        this.goal = goal;
+
+        int cellCount = xExtent * yExtent;
+        this.g = new int[cellCount];
+        this.rhs = new int[cellCount];
+        this.openSet = new IndexedMinHeap(cellCount);
+        Arrays.fill(g, INFINITY);
+        Arrays.fill(rhs, INFINITY);
+
+        rhs[goal] = 0;
+    }
+
+    /**
+     * @return true when this planner was built for the given map and townhall and can be reused
+     */
+    public boolean plansFor(ObstacleGrid obstacles, int goal) {
+        return this.obstacles == obstacles && this.goal == goal;
+    }
+
+    /**
+     * Moves the start of the search to the footman's current cell.
+     */
+    public void moveStart(int newStart) {
+        if(lastStart == -1) {
+            lastStart = newStart;
+            start = newStart;
+            openSet.insert(goal, calculateKey(goal));
+            return;
+        }
+
+        keyModifier += heuristic(lastStart, newStart);
+        lastStart = newStart;
+        start = newStart;
+    }
+
+    /**
+     * Moves the additional blocker (the enemy footman) to a new cell, or removes it with -1.
+     * Only the old and new cells and their neighbors are updated.
+     */
+    public void setBlockedCell(int cell) {
+        if(cell == blockedCell) {
+            return;
+        }
+
+        int oldCell = blockedCell;
+        blockedCell = cell;
+        if(oldCell != -1) {
+            cellChanged(oldCell);
+        }
+        if(cell != -1) {
+            cellChanged(cell);
+        }
+    }
+
+    /**
+     * Updates the cells affected by a cell becoming blocked or free, for example after a
+     * tree has been harvested.
+     */
+    public void cellChanged(int cell) {
+        if(lastStart == -1) {
+            // nothing has been searched yet
+            return;
+        }
+
+        int x = cell / yExtent;
+        int y = cell % yExtent;
+        updateVertex(cell);
+        for(int dx = -1; dx <= 1; dx++) {
+            for(int dy = -1; dy <= 1; dy++) {
+                int nextX = x + dx;
+                int nextY = y + dy;
+                if((dx != 0 || dy != 0) && obstacles.inBounds(nextX, nextY)) {
+                    updateVertex(nextX * yExtent + nextY);
+                }
+            }
+        }
+    }
+
+    /**
+     * Repairs the search for the current start and blocker and extracts the path.
+     *
+     * @return Cell indices from the first move to the cell next to the goal, or null if there is no path
+     */
+    public int[] findPath() {
+        expandedNodes = 0;
+        computeShortestPath();
+
+        if(rhs[start] >= INFINITY) {
+            return null;
+        }
+
+        // the path excludes the start and goal cells
+        int[] path = new int[Math.max(rhs[start] - 1, 0)];
+        int current = start;
+        for(int i = 0; i < path.length; i++) {
+            current = bestSuccessor(current);
+            if(current == -1) {
+                return null;
+            }
+            path[i] = current;
+        }
+
+        return path;
+    }
+
+    /**
+     * @return Number of cells expanded by the last call to findPath
+     */
+    public int getExpandedNodes() {
+        return expandedNodes;
+    }
+
+    private void computeShortestPath() {
+        while(!openSet.isEmpty() && (openSet.peekKey() < calculateKey(start) || rhs[start] != g[start])) {
+            long oldKey = openSet.peekKey();
+            int u = openSet.poll();
+            expandedNodes++;
+
+            long newKey = calculateKey(u);
+            if(oldKey < newKey) {
+                openSet.insert(u, newKey);
+            } else if(g[u] > rhs[u]) {
+                g[u] = rhs[u];
+                updateNeighbors(u);
+            } else {
+                g[u] = INFINITY;
+                updateVertex(u);
+                updateNeighbors(u);
+            }
+        }
+    }
+
+    private void updateNeighbors(int cell) {
+        int x = cell / yExtent;
+        int y = cell % yExtent;
+        for(int dx = -1; dx <= 1; dx++) {
+            for(int dy = -1; dy <= 1; dy++) {
+                int nextX = x + dx;
+                int nextY = y + dy;
+                if((dx != 0 || dy != 0) && obstacles.inBounds(nextX, nextY)) {
+                    updateVertex(nextX * yExtent + nextY);
+                }
+            }
+        }
+    }
+
+    private void updateVertex(int cell) {
+        if(cell != goal) {
+            rhs[cell] = INFINITY;
+            if(isWalkable(cell)) {
+                int x = cell / yExtent;
+                int y = cell % yExtent;
+                for(int dx = -1; dx <= 1; dx++) {
+                    for(int dy = -1; dy <= 1; dy++) {
+                        int nextX = x + dx;
+                        int nextY = y + dy;
+                        if((dx != 0 || dy != 0) && obstacles.inBounds(nextX, nextY)) {
+                            int next = nextX * yExtent + nextY;
+                            if(isWalkable(next) && g[next] + 1 < rhs[cell]) {
+                                rhs[cell] = g[next] + 1;
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        if(g[cell] != rhs[cell]) {
+            openSet.update(cell, calculateKey(cell));
+        } else {
+            openSet.remove(cell);
+        }
+    }
+
+    /**
+     * @return The walkable neighbor of cell with the lowest cost to the goal, or -1 if there is none
+     */
+    private int bestSuccessor(int cell) {
+        int x = cell / yExtent;
+        int y = cell % yExtent;
+        int best = -1;
+        int bestCost = INFINITY;
+        for(int dx = -1; dx <= 1; dx++) {
+            for(int dy = -1; dy <= 1; dy++) {
+                int nextX = x + dx;
+                int nextY = y + dy;
+                if((dx != 0 || dy != 0) && obstacles.inBounds(nextX, nextY)) {
+                    int next = nextX * yExtent + nextY;
+                    if(isWalkable(next) && g[next] < bestCost) {
+                        best = next;
+                        bestCost = g[next];
+                    }
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * The two part D* Lite key packed into one long: min(g, rhs) + h + km in the high
+     * half and min(g, rhs) in the low half.
+     */
+    private long calculateKey(int cell) {
+        long cost = Math.min(g[cell], rhs[cell]);
+        return ((cost + heuristic(start, cell) + keyModifier) << 32) | cost;
+    }
+
+    private boolean isWalkable(int cell) {
+        return cell == goal || (cell != blockedCell && !obstacles.isBlocked(cell));
+    }
+
+    private int heuristic(int from, int to) {
+        return Math.max(Math.abs(from / yExtent - to / yExtent), Math.abs(from % yExtent - to % yExtent));
+    }
+}
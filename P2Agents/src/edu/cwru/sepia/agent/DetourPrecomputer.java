@@ -0,0 +1,211 @@
+package edu.cwru.sepia.agent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.IntSupplier;
+
+/**
+ * Searches detours around the cells of the current path that the enemy footman is most
+ * likely to block, on a background thread while the agent waits for its next turn.
+ *
+ * A cell can only be blocked in time if the enemy footman is no farther from it than the
+ * footman is in steps along the path, and of those the cells closest to the enemy are taken
+ * first. Each detour is the one repairPath would search: from the step before the blocked
+ * cell to the step after it, with the same bounded search, which the agent hands in.
+ *
+ * The search reads the obstacle grid without a lock, so the agent calls stop before it
+ * changes anything and start again at the end of its turn. A detour is kept with the
+ * fingerprint of the trees and the three cells it was searched for, and is only handed out
+ * for exactly those, so a detour searched before a tree was removed or the path changed is
+ * never used.
+ */
+public class DetourPrecomputer {
+
+    /**
+     * A detour searched for one blocked cell.
+     */
+    private static class Detour
+    {
+        final long fingerprint;
+        final int before, blocked, after;
+        final int[] cells;
+
+        Detour(long fingerprint, int before, int blocked, int after, int[] cells)
+        {
+            this.fingerprint = fingerprint;
+            this.before = before;
+            this.blocked = blocked;
+            this.after = after;
+            this.cells = cells;
+        }
+    }
+
+    private final ExecutorService executor;
+    private final int maxCandidates;
+    private final PortfolioSearch.Engine search;
+    private final IntSupplier expansionCounter;
+
+    // only touched by the background thread while a job runs, and by the agent after stop
+    private final List<Detour> detours = new ArrayList<Detour>();
+    private final AtomicBoolean cancelled = new AtomicBoolean();
+    private Future<?> job;
+
+    private int searched;
+    private int used;
+    private long expandedNodes;
+
+    /**
+     * @param executor Thread the detours are searched on
+     * @param maxCandidates Number of cells of the path a detour is kept for
+     * @param search Bounded search from the step before to the step after a blocked cell, as
+     *               in repairPath, with storage of its own. It only runs while a job runs
+     * @param expansionCounter Nodes expanded by the last call to search
+     */
+    public DetourPrecomputer(ExecutorService executor, int maxCandidates, PortfolioSearch.Engine search,
+            IntSupplier expansionCounter)
+    {
+        this.executor = executor;
+        this.maxCandidates = maxCandidates;
+        this.search = search;
+        this.expansionCounter = expansionCounter;
+    }
+
+    /**
+     * Starts searching detours for the path in the background. The grid must not change
+     * until stop has returned.
+     *
+     * @param origin Cell the footman is on or moving to
+     * @param remaining Cells of the path after origin, first move first
+     * @param goal Cell after the last one of the path, the townhall, or -1 if the last cell
+     *             may not be detoured around
+     * @param enemyCell Cell of the enemy footman
+     */
+    public void start(ObstacleGrid obstacles, int origin, int[] remaining, int goal, int enemyCell) {
+        stop();
+        long fingerprint = obstacles.fingerprint();
+        // detours around trees that have changed since can never be handed out
+        for(int i = detours.size() - 1; i >= 0; i--) {
+            if(detours.get(i).fingerprint != fingerprint) {
+                detours.remove(i);
+            }
+        }
+        cancelled.set(false);
+        job = executor.submit(() -> precompute(obstacles, fingerprint, origin, remaining, goal, enemyCell));
+    }
+
+    /**
+     * Cancels the search in progress and waits until it has stopped, after which the grid
+     * may change and take may be called.
+     */
+    public void stop() {
+        if(job == null) {
+            return;
+        }
+        cancelled.set(true);
+        try {
+            job.get();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch(ExecutionException e) {
+            System.err.println("Detour search failed: " + e.getCause());
+        }
+        job = null;
+    }
+
+    /**
+     * @return The cells of a detour from before to after around blocked, without before and
+     *         after, or null if none was searched for these cells on the current trees
+     */
+    public int[] take(ObstacleGrid obstacles, int before, int blocked, int after) {
+        for(int i = 0; i < detours.size(); i++) {
+            Detour detour = detours.get(i);
+            if(detour.fingerprint == obstacles.fingerprint() && detour.before == before
+                    && detour.blocked == blocked && detour.after == after) {
+                detours.remove(i);
+                // the fingerprint is a hash, so the cells are checked as well
+                for(int cell : detour.cells) {
+                    if(obstacles.isBlocked(cell)) {
+                        return null;
+                    }
+                }
+                used++;
+                return detour.cells;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return Number of detours searched in the background
+     */
+    public int getSearched() {
+        return searched;
+    }
+
+    /**
+     * @return Number of detours handed out by take
+     */
+    public int getUsed() {
+        return used;
+    }
+
+    /**
+     * @return Nodes expanded by the background searches
+     */
+    public long getExpandedNodes() {
+        return expandedNodes;
+    }
+
+    private void precompute(ObstacleGrid obstacles, long fingerprint, int origin, int[] remaining, int goal, int enemyCell) {
+        int yExtent = obstacles.getYExtent();
+        int enemyX = enemyCell / yExtent;
+        int enemyY = enemyCell % yExtent;
+
+        // the footman reaches remaining[i] in i + 1 steps, the enemy needs its Chebyshev distance
+        List<Integer> candidates = new ArrayList<Integer>();
+        for(int i = 0; i < remaining.length; i++) {
+            int distance = Math.max(Math.abs(remaining[i] / yExtent - enemyX), Math.abs(remaining[i] % yExtent - enemyY));
+            if(distance <= i + 1 && (i + 1 < remaining.length || goal != -1)) {
+                candidates.add(i);
+            }
+        }
+        candidates.sort((a, b) -> {
+            int distanceA = Math.max(Math.abs(remaining[a] / yExtent - enemyX), Math.abs(remaining[a] % yExtent - enemyY));
+            int distanceB = Math.max(Math.abs(remaining[b] / yExtent - enemyX), Math.abs(remaining[b] % yExtent - enemyY));
+            return distanceA != distanceB ? Integer.compare(distanceA, distanceB) : Integer.compare(a, b);
+        });
+
+        for(int k = 0; k < Math.min(maxCandidates, candidates.size()) && !cancelled.get(); k++) {
+            int i = candidates.get(k);
+            int before = i > 0 ? remaining[i - 1] : origin;
+            int blocked = remaining[i];
+            int after = i + 1 < remaining.length ? remaining[i + 1] : goal;
+            if(before == after || has(fingerprint, before, blocked, after)) {
+                continue;
+            }
+            int[] cells = search.findPath(obstacles, before, after, blocked, cancelled);
+            expandedNodes += expansionCounter.getAsInt();
+            // a cancelled search proves nothing, a search that ran out of expansions is left to the full replan
+            if(cells != null && !cancelled.get()) {
+                searched++;
+                detours.add(new Detour(fingerprint, before, blocked, after, cells));
+                if(detours.size() > maxCandidates) {
+                    detours.remove(0);
+                }
+            }
+        }
+    }
+
+    private boolean has(long fingerprint, int before, int blocked, int after) {
+        for(Detour detour : detours) {
+            if(detour.fingerprint == fingerprint && detour.before == before && detour.blocked == blocked && detour.after == after) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
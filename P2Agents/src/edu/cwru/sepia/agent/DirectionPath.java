@@ -0,0 +1,149 @@
+package edu.cwru.sepia.agent;
+
+import edu.cwru.sepia.util.Direction;
+
+/**
+ * Path the footman follows, stored as the cell it starts from and the Direction ordinal of
+ * every step, one byte each. A step of WAIT keeps the footman in its cell for a turn.
+ *
+ * A cursor marks how many steps have been handed out. The cell the cursor is on is the cell
+ * the footman was last sent to, or the start before any step was taken. Cells are computed
+ * from the directions, so a path keeps no node objects and no references into the search that
+ * produced it.
+ */
+public class DirectionPath {
+
+    private static final Direction[] DIRECTIONS = Direction.values();
+    public static final byte WAIT = (byte) DIRECTIONS.length;
+
+    private final int startCell;
+    private final int yExtent;
+    private final byte[] steps;
+    private int cursor;
+    private int cursorCell;
+
+    /**
+     * @param startCell Cell index the first step is taken from
+     * @param steps Direction ordinal of every step, or WAIT
+     * @param yExtent Height of the map
+     */
+    public DirectionPath(int startCell, byte[] steps, int yExtent)
+    {
+        this.startCell = startCell;
+        this.yExtent = yExtent;
+        this.steps = steps;
+        this.cursorCell = startCell;
+    }
+
+    /**
+     * @param startCell Cell index the path starts from, not part of cells
+     * @param cells Cell indices of the steps, first move first, each next to or the same as the one before
+     * @param yExtent Height of the map
+     */
+    public static DirectionPath fromCells(int startCell, int[] cells, int yExtent) {
+        byte[] steps = new byte[cells.length];
+        int previous = startCell;
+        for(int i = 0; i < cells.length; i++) {
+            steps[i] = cells[i] == previous ? WAIT : (byte) directionBetween(previous, cells[i], yExtent).ordinal();
+            previous = cells[i];
+        }
+        return new DirectionPath(startCell, steps, yExtent);
+    }
+
+    /**
+     * @return The direction of the move from one cell to a neighbor
+     */
+    public static Direction directionBetween(int from, int to, int yExtent) {
+        int xDiff = to / yExtent - from / yExtent;
+        int yDiff = to % yExtent - from % yExtent;
+        for(Direction direction : DIRECTIONS) {
+            if(direction.xComponent() == xDiff && direction.yComponent() == yDiff) {
+                return direction;
+            }
+        }
+        throw new IllegalArgumentException("Cells " + from + " and " + to + " are not neighbors");
+    }
+
+    /**
+     * Hands out the next step and moves the cursor onto the cell it leads to.
+     *
+     * @return Direction of the step, or null if the footman waits
+     */
+    public Direction advance() {
+        Direction direction = directionOf(steps[cursor++]);
+        if(direction != null) {
+            cursorCell = move(cursorCell, direction);
+        }
+        return direction;
+    }
+
+    /**
+     * @return true when every step has been handed out
+     */
+    public boolean isDone() {
+        return cursor == steps.length;
+    }
+
+    /**
+     * @return Cell the last step handed out leads to, or the start cell before the first one
+     */
+    public int currentCell() {
+        return cursorCell;
+    }
+
+    /**
+     * @return Direction of the last step handed out, null for a wait. Only valid after advance was called
+     */
+    public Direction lastDirection() {
+        return directionOf(steps[cursor - 1]);
+    }
+
+    private static Direction directionOf(byte step) {
+        return step == WAIT ? null : DIRECTIONS[step];
+    }
+
+    /**
+     * @return Cell the last step handed out was taken from, or -1 before the first one
+     */
+    public int previousCell() {
+        if(cursor == 0) {
+            return -1;
+        }
+        Direction direction = lastDirection();
+        if(direction == null) {
+            return cursorCell;
+        }
+        return cursorCell - direction.xComponent() * yExtent - direction.yComponent();
+    }
+
+    public int getStartCell() {
+        return startCell;
+    }
+
+    /**
+     * @return Number of steps not handed out yet
+     */
+    public int remaining() {
+        return steps.length - cursor;
+    }
+
+    /**
+     * @return Cell indices of the steps not handed out yet, first move first
+     */
+    public int[] remainingCells() {
+        int[] cells = new int[steps.length - cursor];
+        int cell = cursorCell;
+        for(int i = 0; i < cells.length; i++) {
+            Direction direction = directionOf(steps[cursor + i]);
+            if(direction != null) {
+                cell = move(cell, direction);
+            }
+            cells[i] = cell;
+        }
+        return cells;
+    }
+
+    private int move(int cell, Direction direction) {
+        return cell + direction.xComponent() * yExtent + direction.yComponent();
+    }
+}
@@ -0,0 +1,196 @@
+package edu.cwru.sepia.agent;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Locale;
+
+/**
+ * Per-turn distributions of one episode, written out by AstarAgent.terminalStep.
+ *
+ * Latencies are recorded in nanoseconds. Each episode is written as a JSON file
+ * prefix-episode.json and appended as one row to prefix.csv, which gets a header when it
+ * is created, so the CSV collects every episode run with the same prefix. The turns between
+ * replans are small counts, so besides the percentiles their full histogram is written as
+ * well. Episodes are numbered on from the rows already in the CSV, so a new run does not
+ * overwrite the JSON files of an earlier one.
+ */
+public class EpisodeStats {
+
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9, 100};
+    private static final String[] COLUMNS = {"turnLatencyNanos", "replanLatencyNanos", "expandedNodesPerSearch", "turnsBetweenReplans"};
+
+    private final Histogram turnLatency = new Histogram();
+    private final Histogram replanLatency = new Histogram();
+    private final Histogram expandedNodes = new Histogram();
+    private final Histogram turnsBetweenReplans = new Histogram();
+
+    private int turns;
+    private int replans;
+    private int lastReplanTurn;
+
+    public void reset() {
+        turnLatency.reset();
+        replanLatency.reset();
+        expandedNodes.reset();
+        turnsBetweenReplans.reset();
+        turns = 0;
+        replans = 0;
+        lastReplanTurn = 0;
+    }
+
+    /**
+     * @param latency Time spent in one middleStep, planning included
+     */
+    public void recordTurn(long latency) {
+        turnLatency.record(latency);
+        turns++;
+    }
+
+    /**
+     * @param latency Time spent replanning after shouldReplanPath, local repairs included
+     */
+    public void recordReplan(long latency) {
+        replanLatency.record(latency);
+        turnsBetweenReplans.record(turns - lastReplanTurn);
+        lastReplanTurn = turns;
+        replans++;
+    }
+
+    /**
+     * @param nodes Nodes expanded by one search, cache hits are not searches
+     */
+    public void recordSearch(int nodes) {
+        expandedNodes.record(nodes);
+    }
+
+    public int getTurns() {
+        return turns;
+    }
+
+    public int getReplans() {
+        return replans;
+    }
+
+    /**
+     * Writes prefix-episode.json and appends a row to prefix.csv.
+     *
+     * @param prefix Path and file name prefix of the output files
+     * @param episode Number of the episode, starting at 1
+     * @param searchMode Name of the search mode used
+     */
+    public void write(String prefix, int episode, String searchMode) throws IOException {
+        PrintWriter json = new PrintWriter(new FileWriter(prefix + "-" + episode + ".json"));
+        try {
+            json.println("{");
+            json.println("  \"episode\": " + episode + ",");
+            json.println("  \"searchMode\": \"" + searchMode + "\",");
+            json.println("  \"turns\": " + turns + ",");
+            json.println("  \"replans\": " + replans + ",");
+            json.println("  \"replansPerTurn\": " + format(turns == 0 ? 0 : (double) replans / turns) + ",");
+            json.println("  \"turnLatencyNanos\": " + toJson(turnLatency) + ",");
+            json.println("  \"replanLatencyNanos\": " + toJson(replanLatency) + ",");
+            json.println("  \"expandedNodesPerSearch\": " + toJson(expandedNodes) + ",");
+            json.println("  \"turnsBetweenReplans\": " + toJson(turnsBetweenReplans) + ",");
+            json.println("  \"turnsBetweenReplansHistogram\": {" + buckets(turnsBetweenReplans, "\"", "\": ", ", ") + "}");
+            json.println("}");
+        } finally {
+            json.close();
+        }
+
+        File csvFile = new File(prefix + ".csv");
+        boolean newFile = !csvFile.exists();
+        PrintWriter csv = new PrintWriter(new FileWriter(csvFile, true));
+        try {
+            if(newFile) {
+                StringBuilder header = new StringBuilder("episode,searchMode,turns,replans");
+                for(String name : COLUMNS) {
+                    header.append(',').append(name).append("_count,").append(name).append("_mean");
+                    for(double percentile : PERCENTILES) {
+                        header.append(',').append(name).append("_p").append(percentileName(percentile));
+                    }
+                }
+                header.append(",turnsBetweenReplans_histogram");
+                csv.println(header);
+            }
+            csv.println(episode + "," + searchMode + "," + turns + "," + replans + ","
+                    + toCsv(turnLatency) + "," + toCsv(replanLatency) + "," + toCsv(expandedNodes) + ","
+                    + toCsv(turnsBetweenReplans) + "," + buckets(turnsBetweenReplans, "", ":", ";"));
+        } finally {
+            csv.close();
+        }
+    }
+
+    /**
+     * @return Number of episodes already appended to prefix.csv, 0 if it does not exist
+     */
+    public static int countEpisodes(String prefix) throws IOException {
+        File csvFile = new File(prefix + ".csv");
+        if(!csvFile.exists()) {
+            return 0;
+        }
+        BufferedReader reader = new BufferedReader(new FileReader(csvFile));
+        try {
+            int rows = 0;
+            String line;
+            while((line = reader.readLine()) != null) {
+                if(!line.isEmpty()) {
+                    rows++;
+                }
+            }
+            // the first row is the header
+            return Math.max(0, rows - 1);
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * @return The non-empty buckets as value and count pairs, each value the largest of its bucket
+     */
+    private static String buckets(Histogram histogram, String quote, String separator, String delimiter) {
+        StringBuilder builder = new StringBuilder();
+        for(int i = 0; i < histogram.getBucketCount(); i++) {
+            if(histogram.getCountAt(i) == 0) {
+                continue;
+            }
+            if(builder.length() > 0) {
+                builder.append(delimiter);
+            }
+            builder.append(quote).append(histogram.getHighestValueAt(i)).append(separator).append(histogram.getCountAt(i));
+        }
+        return builder.toString();
+    }
+
+    private static String toJson(Histogram histogram) {
+        StringBuilder builder = new StringBuilder("{\"count\": ").append(histogram.getCount())
+                .append(", \"min\": ").append(histogram.getMin())
+                .append(", \"mean\": ").append(format(histogram.getMean()));
+        for(double percentile : PERCENTILES) {
+            builder.append(", \"p").append(percentileName(percentile)).append("\": ")
+                    .append(histogram.getValueAtPercentile(percentile));
+        }
+        return builder.append('}').toString();
+    }
+
+    private static String toCsv(Histogram histogram) {
+        StringBuilder builder = new StringBuilder().append(histogram.getCount())
+                .append(',').append(format(histogram.getMean()));
+        for(double percentile : PERCENTILES) {
+            builder.append(',').append(histogram.getValueAtPercentile(percentile));
+        }
+        return builder.toString();
+    }
+
+    private static String percentileName(double percentile) {
+        // 99.9 becomes p99_9 and 100 becomes p100
+        return percentile == Math.rint(percentile) ? String.valueOf((int) percentile) : String.valueOf(percentile).replace('.', '_');
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.3f", value);
+    }
+}
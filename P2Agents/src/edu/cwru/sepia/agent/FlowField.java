@@ -0,0 +1,253 @@
+package edu.cwru.sepia.agent;
+
+import java.util.Arrays;
+
+/**
+ * Distance and next-direction field for every cell of the map towards the townhall.
+ *
+ * One breadth first search from the townhall (Dijkstra on this unit cost grid) stores how
+ * many steps every free cell is from the townhall, and for every cell the direction of a
+ * neighbor one step closer. Any number of units can then read their next step with an
+ * array lookup instead of running a search each.
+ *
+ * When a tree changes, only the cells whose distance changes are visited. A removed tree
+ * can only make cells closer, and the decrease spreads outwards from its cell. A new tree
+ * makes the cells whose route passed through it farther, so those cells are cleared and
+ * filled again from the unaffected cells around them.
+ */
+public class FlowField {
+
+    public static final int UNREACHABLE = Integer.MAX_VALUE;
+
+    private static final byte NONE = -1;
+    // the 8 moves, indexed by the values of the direction field, with opposite moves at d and d ^ 1
+    private static final int[] DX = {-1, 1, 0, 0, -1, 1, -1, 1};
+    private static final int[] DY = {0, 0, -1, 1, -1, 1, 1, -1};
+
+    private final ObstacleGrid obstacles;
+    private final int xExtent, yExtent;
+    private final int goal;
+
+    private final int[] distance;
+    private final byte[] direction;
+
+    private final int[] queue;
+    private IndexedMinHeap openSet;
+    private int[] affected;
+    private int generation;
+    private int updatedCells;
+
+    /**
+     * @param obstacles Bitmap of the positions occupied by resources, kept up to date through cellChanged
+     * @param goal Cell index of the townhall
+     */
+    public FlowField(ObstacleGrid obstacles, int goal)
+    {
+        this.obstacles = obstacles;
+        this.xExtent = obstacles.getXExtent();
+        this.yExtent = obstacles.getYExtent();
+        this.goal = goal;
+        this.distance = new int[obstacles.cellCount()];
+        this.direction = new byte[obstacles.cellCount()];
+        this.queue = new int[obstacles.cellCount()];
+        build();
+    }
+
+    /**
+     * @return true when the field was built for the same map and townhall
+     */
+    public boolean plansFor(ObstacleGrid obstacles, int goal) {
+        return this.obstacles == obstacles && this.goal == goal;
+    }
+
+    /**
+     * @return Steps from the cell to the townhall, UNREACHABLE if there is no route
+     */
+    public int distance(int cell) {
+        return distance[cell];
+    }
+
+    /**
+     * @return Neighbor of the cell one step closer to the townhall, or -1 if there is none
+     */
+    public int nextCell(int cell) {
+        byte d = direction[cell];
+        if(d == NONE) {
+            return -1;
+        }
+        return (cell / yExtent + DX[d]) * yExtent + cell % yExtent + DY[d];
+    }
+
+    /**
+     * @return Number of cells whose distance was set by the last build or update
+     */
+    public int getUpdatedCells() {
+        return updatedCells;
+    }
+
+    /**
+     * Updates the field after a tree was added to or removed from the cell.
+     */
+    public void cellChanged(int cell) {
+        if(cell == goal) {
+            return;
+        }
+        if(obstacles.isBlocked(cell)) {
+            raise(cell);
+        } else {
+            lower(cell);
+        }
+    }
+
+    private void build() {
+        Arrays.fill(distance, UNREACHABLE);
+        Arrays.fill(direction, NONE);
+        distance[goal] = 0;
+        queue[0] = goal;
+        updatedCells = spread(1);
+    }
+
+    /**
+     * Breadth first search from the cells in queue[0, tail), lowering every neighbor that
+     * can be reached in fewer steps than it has now.
+     *
+     * @return Number of cells visited
+     */
+    private int spread(int tail) {
+        int head = 0;
+        while(head < tail) {
+            int cell = queue[head++];
+            int x = cell / yExtent;
+            int y = cell % yExtent;
+            int nextDistance = distance[cell] + 1;
+            for(int d = 0; d < DX.length; d++) {
+                int nextX = x + DX[d];
+                int nextY = y + DY[d];
+                if(nextX < 0 || nextX >= xExtent || nextY < 0 || nextY >= yExtent) {
+                    continue;
+                }
+                int next = nextX * yExtent + nextY;
+                if(nextDistance < distance[next] && !obstacles.isBlocked(next)) {
+                    distance[next] = nextDistance;
+                    // the move from next back to cell is the opposite of d, which is its pair in DX and DY
+                    direction[next] = (byte) (d ^ 1);
+                    queue[tail++] = next;
+                }
+            }
+        }
+        return head;
+    }
+
+    /**
+     * A tree was removed, so the cell and the cells around it can only get closer.
+     */
+    private void lower(int cell) {
+        updatedCells = 0;
+        if(!pointToClosestNeighbor(cell, false)) {
+            return;
+        }
+        queue[0] = cell;
+        updatedCells = spread(1);
+    }
+
+    /**
+     * A tree was added. Every cell whose next steps led through the cell loses its distance,
+     * then the distances are filled in again with Dijkstra from the cells around them.
+     */
+    private void raise(int cell) {
+        if(affected == null) {
+            affected = new int[distance.length];
+            openSet = new IndexedMinHeap(distance.length);
+        }
+        generation++;
+        openSet.clear();
+
+        // collect the cells whose next step is an affected cell
+        int tail = 0;
+        queue[tail++] = cell;
+        affected[cell] = generation;
+        for(int head = 0; head < tail; head++) {
+            int current = queue[head];
+            int x = current / yExtent;
+            int y = current % yExtent;
+            for(int d = 0; d < DX.length; d++) {
+                int nextX = x + DX[d];
+                int nextY = y + DY[d];
+                if(nextX < 0 || nextX >= xExtent || nextY < 0 || nextY >= yExtent) {
+                    continue;
+                }
+                int next = nextX * yExtent + nextY;
+                if(affected[next] != generation && direction[next] == (byte) (d ^ 1)) {
+                    affected[next] = generation;
+                    queue[tail++] = next;
+                }
+            }
+        }
+        for(int i = 0; i < tail; i++) {
+            distance[queue[i]] = UNREACHABLE;
+            direction[queue[i]] = NONE;
+        }
+        updatedCells = tail;
+
+        // seed the affected cells from their unaffected neighbors and settle them in order of distance
+        for(int i = 1; i < tail; i++) {
+            int current = queue[i];
+            if(pointToClosestNeighbor(current, true)) {
+                openSet.insert(current, distance[current]);
+            }
+        }
+        while(!openSet.isEmpty()) {
+            int current = openSet.poll();
+            int x = current / yExtent;
+            int y = current % yExtent;
+            int nextDistance = distance[current] + 1;
+            for(int d = 0; d < DX.length; d++) {
+                int nextX = x + DX[d];
+                int nextY = y + DY[d];
+                if(nextX < 0 || nextX >= xExtent || nextY < 0 || nextY >= yExtent) {
+                    continue;
+                }
+                int next = nextX * yExtent + nextY;
+                if(affected[next] == generation && nextDistance < distance[next] && !obstacles.isBlocked(next)) {
+                    distance[next] = nextDistance;
+                    direction[next] = (byte) (d ^ 1);
+                    openSet.update(next, nextDistance);
+                }
+            }
+        }
+    }
+
+    /**
+     * Sets the distance and direction of a cell from its closest neighbor.
+     *
+     * @param unaffectedOnly Only use neighbors outside the region being filled in by raise
+     * @return true if a neighbor with a route to the townhall was found
+     */
+    private boolean pointToClosestNeighbor(int cell, boolean unaffectedOnly) {
+        int x = cell / yExtent;
+        int y = cell % yExtent;
+        int best = UNREACHABLE;
+        byte bestDirection = NONE;
+        for(int d = 0; d < DX.length; d++) {
+            int nextX = x + DX[d];
+            int nextY = y + DY[d];
+            if(nextX < 0 || nextX >= xExtent || nextY < 0 || nextY >= yExtent) {
+                continue;
+            }
+            int next = nextX * yExtent + nextY;
+            if(unaffectedOnly && affected[next] == generation) {
+                continue;
+            }
+            if(distance[next] < best) {
+                best = distance[next];
+                bestDirection = (byte) d;
+            }
+        }
+        if(bestDirection == NONE) {
+            return false;
+        }
+        distance[cell] = best + 1;
+        direction[cell] = bestDirection;
+        return true;
+    }
+}
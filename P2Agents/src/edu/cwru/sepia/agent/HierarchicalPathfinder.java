@@ -0,0 +1,684 @@
+package edu.cwru.sepia.agent;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.*;
+
+/**
+ * Hierarchical path-finding (HPA*) for large maps.
+ *
+ * The map is split once into square clusters. Wherever two neighboring clusters share a
+ * run of free cells along their border, an entrance is placed in the middle of the run
+ * (and at both ends of long runs), and diagonal crossings at cluster corners become
+ * entrances too. The entrance cells of a cluster are connected by their distances inside
+ * the cluster, which are precomputed with one breadth-first search per entrance.
+ *
+ * A query connects the footman and the townhall to the entrances of their clusters and
+ * runs A* on this small abstract graph. Only the segment being executed is refined into
+ * per-step cells; nextSegment refines the following one when it is needed. When a tree is
+ * removed only the cluster containing it, and the intra-cluster distances of its
+ * neighbors, are recomputed.
+ *
+ * The abstract path is close to, but not always exactly, the shortest path. If the abstract
+ * graph has no route the query falls back to a flat search, so a path is found whenever one exists.
+ *
+ * The links and intra-cluster distances can be saved with writeArtifact and read back for the
+ * same trees, which skips the breadth-first searches.
+ */
+public class HierarchicalPathfinder {
+
+    // entrance runs longer than this get an entrance at both ends instead of one in the middle
+    private static final int MAX_SINGLE_ENTRANCE_LENGTH = 6;
+
+    private final ObstacleGrid obstacles;
+    private final int xExtent, yExtent;
+    private final int clusterSize;
+    private final int clustersX, clustersY;
+
+    // links between two cells in neighboring clusters, {cell in this cluster, cell in the other one}
+    private final List<List<int[]>> clusterLinks;
+    // entrance cells of every cluster and the distances between them inside the cluster
+    private final int[][] clusterEntrances;
+    private final int[][] clusterDistances;
+    private final Map<Integer, Integer> entranceIndex = new HashMap<Integer, Integer>();
+    // cells in other clusters linked to each entrance, aligned with clusterEntrances
+    private final int[][][] clusterEntranceLinks;
+
+    // abstract search state, sized once for the map and reset only where a query touched it
+    private final int[] searchCost;
+    private final int[] searchParent;
+    private final boolean[] searchClosed;
+    private final IndexedMinHeap searchOpen;
+    private int[] touched = new int[64];
+    private int touchedCount;
+    private final int[] clusterQueue;
+
+    private final JumpPointSearch flatSearch = new JumpPointSearch();
+
+    // abstract path of the current query and the next node to refine towards
+    private int[] abstractPath;
+    private int abstractPosition;
+    private int goal = -1;
+
+    private int expandedNodes;
+
+    /**
+     * @param obstacles Bitmap of the positions occupied by resources. Changes to it must be
+     *                  reported through cellChanged
+     * @param clusterSize Width and height of a cluster in cells
+     */
+    public HierarchicalPathfinder(ObstacleGrid obstacles, int clusterSize)
+    {
+        this(obstacles, clusterSize, null);
+    }
+
+    /**
+     * @param obstacles Bitmap of the positions occupied by resources. Changes to it must be
+     *                  reported through cellChanged
+     * @param clusterSize Width and height of a cluster in cells
+     * @param graph Content of a MapArtifacts.CLUSTER_GRAPH section saved for the same trees
+     *              and cluster size, or null to build the graph
+     */
+    public HierarchicalPathfinder(ObstacleGrid obstacles, int clusterSize, ByteBuffer graph)
+    {
+        this.obstacles = obstacles;
+        this.xExtent = obstacles.getXExtent();
+        this.yExtent = obstacles.getYExtent();
+        this.clusterSize = clusterSize;
+        this.clustersX = (xExtent + clusterSize - 1) / clusterSize;
+        this.clustersY = (yExtent + clusterSize - 1) / clusterSize;
+
+        int clusterCount = clustersX * clustersY;
+        this.clusterLinks = new ArrayList<List<int[]>>(clusterCount);
+        for(int i = 0; i < clusterCount; i++) {
+            clusterLinks.add(new ArrayList<int[]>());
+        }
+        this.clusterEntrances = new int[clusterCount][];
+        this.clusterDistances = new int[clusterCount][];
+        this.clusterEntranceLinks = new int[clusterCount][][];
+
+        int cellCount = xExtent * yExtent;
+        this.searchCost = new int[cellCount];
+        this.searchParent = new int[cellCount];
+        this.searchClosed = new boolean[cellCount];
+        this.searchOpen = new IndexedMinHeap(cellCount);
+        Arrays.fill(searchCost, Integer.MAX_VALUE);
+        this.clusterQueue = new int[clusterSize * clusterSize];
+
+        if(graph != null) {
+            readGraph(graph.order(ByteOrder.LITTLE_ENDIAN));
+            return;
+        }
+
+        // each border is owned by the cluster to its west or north so it is only scanned once
+        for(int cx = 0; cx < clustersX; cx++) {
+            for(int cy = 0; cy < clustersY; cy++) {
+                addBorderLinks(cx, cy, 1, 0);
+                addBorderLinks(cx, cy, 0, 1);
+                addCornerLinks(cx, cy, 1, 1);
+                addCornerLinks(cx, cy, 1, -1);
+            }
+        }
+        for(int cluster = 0; cluster < clusterCount; cluster++) {
+            computeIntraDistances(cluster);
+        }
+    }
+
+    /**
+     * @return The abstract graph as the content of a MapArtifacts.CLUSTER_GRAPH section with
+     *         the cluster size as parameter: for every cluster its links and its distance table
+     */
+    public ByteBuffer writeArtifact() {
+        int clusterCount = clustersX * clustersY;
+        int goalCluster = goal == -1 ? -1 : clusterOf(goal);
+        long size = 4;
+        for(int cluster = 0; cluster < clusterCount; cluster++) {
+            size += 8 + 8L * clusterLinks.get(cluster).size() + 4L * clusterDistances[cluster].length;
+        }
+        ByteBuffer content = ByteBuffer.allocate((int) size).order(ByteOrder.LITTLE_ENDIAN);
+        content.putInt(clusterCount);
+        for(int cluster = 0; cluster < clusterCount; cluster++) {
+            List<int[]> links = clusterLinks.get(cluster);
+            content.putInt(links.size());
+            for(int[] link : links) {
+                content.putInt(link[0]);
+                content.putInt(link[1]);
+            }
+            int[] distances = clusterDistances[cluster];
+            if(cluster == goalCluster) {
+                // the tables are saved without a townhall, as readGraph expects them
+                int townhall = goal;
+                goal = -1;
+                distances = distanceTable(clusterEntrances[cluster]);
+                goal = townhall;
+            }
+            content.putInt(distances.length);
+            for(int distance : distances) {
+                content.putInt(distance);
+            }
+        }
+        content.flip();
+        return content;
+    }
+
+    private void readGraph(ByteBuffer graph) {
+        int clusterCount = clustersX * clustersY;
+        if(graph.getInt() != clusterCount) {
+            throw new IllegalArgumentException("Cluster graph was saved for another cluster size");
+        }
+        for(int cluster = 0; cluster < clusterCount; cluster++) {
+            int linkCount = graph.getInt();
+            List<int[]> links = clusterLinks.get(cluster);
+            for(int i = 0; i < linkCount; i++) {
+                links.add(new int[]{graph.getInt(), graph.getInt()});
+            }
+            int[] distances = new int[graph.getInt()];
+            graph.asIntBuffer().get(distances);
+            graph.position(graph.position() + 4 * distances.length);
+            computeIntraDistances(cluster, distances);
+        }
+    }
+
+    public boolean plansFor(ObstacleGrid obstacles) {
+        return this.obstacles == obstacles;
+    }
+
+    /**
+     * Plans an abstract path from start to goal and refines its first segment.
+     *
+     * @param start Cell index of the footman
+     * @param goal Cell index of the townhall
+     * @param blockedCell Cell index of an additional blocker such as the enemy footman, or -1
+     * @return Cell indices of the first segment, or null if there is no path
+     */
+    public int[] findPath(int start, int goal, int blockedCell) {
+        setGoal(goal);
+        this.expandedNodes = 0;
+
+        abstractPath = searchAbstractGraph(start, goal, blockedCell);
+        if(abstractPath == null) {
+            // the abstract graph can miss routes that squeeze diagonally between clusters
+            int[] cells = flatSearch.findPath(obstacles, start, goal, blockedCell);
+            expandedNodes += flatSearch.getExpandedNodes();
+            abstractPath = null;
+            return cells;
+        }
+
+        abstractPosition = 0;
+        return nextSegment(blockedCell);
+    }
+
+    /**
+     * @return true when the current plan has segments that have not been refined yet
+     */
+    public boolean hasNextSegment() {
+        return abstractPath != null && abstractPosition < abstractPath.length - 1;
+    }
+
+    /**
+     * Refines the abstract path up to and including the next crossing into another
+     * cluster. The returned cells continue from the last cell of the previous segment.
+     *
+     * @param blockedCell Cell index of an additional blocker such as the enemy footman, or -1
+     * @return Cell indices of the segment, or null if it cannot be refined
+     */
+    public int[] nextSegment(int blockedCell) {
+        List<Integer> segment = new ArrayList<Integer>();
+
+        while(hasNextSegment()) {
+            int from = abstractPath[abstractPosition];
+            int to = abstractPath[abstractPosition + 1];
+
+            if(isAdjacent(from, to)) {
+                segment.add(to);
+            } else {
+                // refine one cluster at a time
+                if(!segment.isEmpty()) {
+                    break;
+                }
+                int[] cells = refine(from, to, blockedCell);
+                if(cells == null) {
+                    abstractPath = null;
+                    return null;
+                }
+                for(int cell : cells) {
+                    segment.add(cell);
+                }
+            }
+            abstractPosition++;
+        }
+
+        // the path stops next to the townhall
+        if(!segment.isEmpty() && segment.get(segment.size() - 1) == goal) {
+            segment.remove(segment.size() - 1);
+        }
+
+        int[] cells = new int[segment.size()];
+        for(int i = 0; i < cells.length; i++) {
+            cells[i] = segment.get(i);
+        }
+        return cells;
+    }
+
+    /**
+     * @return Number of nodes expanded by the last query, abstract and refinement searches together
+     */
+    public int getExpandedNodes() {
+        return expandedNodes;
+    }
+
+    /**
+     * The townhall can be reached but not walked through, so the distance table of its cluster
+     * depends on where it is. The tables of the clusters of the old and the new townhall are
+     * recomputed when it changes, and are built without a townhall before the first query.
+     */
+    private void setGoal(int goal) {
+        if(goal == this.goal) {
+            return;
+        }
+        int oldGoal = this.goal;
+        this.goal = goal;
+        if(oldGoal != -1) {
+            computeIntraDistances(clusterOf(oldGoal));
+        }
+        computeIntraDistances(clusterOf(goal));
+    }
+
+    /**
+     * Refreshes the cluster containing a cell whose obstacle changed. The links on all of
+     * its borders are rebuilt, and the intra-cluster distances are recomputed for the
+     * cluster and the clusters around it, whose entrances may have changed.
+     */
+    public void cellChanged(int cell) {
+        int cx = (cell / yExtent) / clusterSize;
+        int cy = (cell % yExtent) / clusterSize;
+        int cluster = cx * clustersY + cy;
+
+        for(int[] link : clusterLinks.get(cluster)) {
+            List<int[]> otherLinks = clusterLinks.get(clusterOf(link[1]));
+            for(Iterator<int[]> it = otherLinks.iterator(); it.hasNext(); ) {
+                int[] otherLink = it.next();
+                if(otherLink[1] == link[0] && otherLink[0] == link[1]) {
+                    it.remove();
+                }
+            }
+        }
+        clusterLinks.get(cluster).clear();
+
+        // borders owned by this cluster and by its west and north neighbors
+        addBorderLinks(cx, cy, 1, 0);
+        addBorderLinks(cx, cy, 0, 1);
+        addBorderLinks(cx - 1, cy, 1, 0);
+        addBorderLinks(cx, cy - 1, 0, 1);
+        addCornerLinks(cx, cy, 1, 1);
+        addCornerLinks(cx, cy, 1, -1);
+        addCornerLinks(cx - 1, cy - 1, 1, 1);
+        addCornerLinks(cx - 1, cy + 1, 1, -1);
+
+        for(int dx = -1; dx <= 1; dx++) {
+            for(int dy = -1; dy <= 1; dy++) {
+                int nextX = cx + dx;
+                int nextY = cy + dy;
+                if(nextX >= 0 && nextX < clustersX && nextY >= 0 && nextY < clustersY) {
+                    computeIntraDistances(nextX * clustersY + nextY);
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds the links across the border between cluster (cx, cy) and the cluster in direction
+     * (dx, dy), which is (1, 0) for the cluster to the east or (0, 1) for the one to the south.
+     * The links are added without looking at the existing ones, so the links of the border
+     * must have been removed first, as cellChanged does.
+     */
+    private void addBorderLinks(int cx, int cy, int dx, int dy) {
+        if(cx < 0 || cy < 0 || cx + dx >= clustersX || cy + dy >= clustersY) {
+            return;
+        }
+
+        // the last row or column of this cluster and the first of the next one
+        int fixed = (dx == 1 ? (cx + 1) : (cy + 1)) * clusterSize - 1;
+        int from = (dx == 1 ? cy : cx) * clusterSize;
+        int to = Math.min(from + clusterSize, dx == 1 ? yExtent : xExtent);
+
+        int runStart = -1;
+        for(int i = from; i <= to; i++) {
+            boolean open = i < to && isCrossable(dx == 1 ? fixed : i, dx == 1 ? i : fixed, dx, dy);
+            if(open && runStart == -1) {
+                runStart = i;
+            } else if(!open && runStart != -1) {
+                int runEnd = i - 1;
+                if(runEnd - runStart + 1 > MAX_SINGLE_ENTRANCE_LENGTH) {
+                    addLink(dx == 1 ? fixed : runStart, dx == 1 ? runStart : fixed, dx, dy);
+                    addLink(dx == 1 ? fixed : runEnd, dx == 1 ? runEnd : fixed, dx, dy);
+                } else {
+                    int middle = (runStart + runEnd) / 2;
+                    addLink(dx == 1 ? fixed : middle, dx == 1 ? middle : fixed, dx, dy);
+                }
+                runStart = -1;
+            }
+        }
+    }
+
+    /**
+     * Adds a link across the corner shared by cluster (cx, cy) and its diagonal neighbor in
+     * direction (1, dy), for paths that can only cross between the two diagonally.
+     */
+    private void addCornerLinks(int cx, int cy, int dx, int dy) {
+        if(cx < 0 || cy < 0 || cy >= clustersY || cx + dx >= clustersX || cy + dy < 0 || cy + dy >= clustersY) {
+            return;
+        }
+
+        int x = (cx + 1) * clusterSize - 1;
+        int y = dy == 1 ? (cy + 1) * clusterSize - 1 : cy * clusterSize;
+        if(isCrossable(x, y, dx, dy)) {
+            addLink(x, y, dx, dy);
+        }
+    }
+
+    private boolean isCrossable(int x, int y, int dx, int dy) {
+        return obstacles.isFree(x, y) && obstacles.isFree(x + dx, y + dy);
+    }
+
+    private void addLink(int x, int y, int dx, int dy) {
+        int cell = x * yExtent + y;
+        int other = (x + dx) * yExtent + (y + dy);
+        clusterLinks.get(clusterOf(cell)).add(new int[]{cell, other});
+        clusterLinks.get(clusterOf(other)).add(new int[]{other, cell});
+    }
+
+    /**
+     * Collects the entrance cells of a cluster and runs a breadth-first search inside the
+     * cluster from each of them to fill the entrance distance table.
+     */
+    private void computeIntraDistances(int cluster) {
+        computeIntraDistances(cluster, null);
+    }
+
+    /**
+     * @param savedDistances Distance table saved for the same links, or null to compute it
+     */
+    private void computeIntraDistances(int cluster, int[] savedDistances) {
+        int[] oldEntrances = clusterEntrances[cluster];
+        if(oldEntrances != null) {
+            for(int cell : oldEntrances) {
+                entranceIndex.remove(cell);
+            }
+        }
+
+        LinkedHashSet<Integer> cells = new LinkedHashSet<Integer>();
+        for(int[] link : clusterLinks.get(cluster)) {
+            cells.add(link[0]);
+        }
+
+        int[] entrances = new int[cells.size()];
+        int i = 0;
+        for(int cell : cells) {
+            entranceIndex.put(cell, i);
+            entrances[i++] = cell;
+        }
+
+        List<List<Integer>> links = new ArrayList<List<Integer>>(entrances.length);
+        for(i = 0; i < entrances.length; i++) {
+            links.add(new ArrayList<Integer>());
+        }
+        for(int[] link : clusterLinks.get(cluster)) {
+            links.get(entranceIndex.get(link[0])).add(link[1]);
+        }
+        int[][] entranceLinks = new int[entrances.length][];
+        for(i = 0; i < entrances.length; i++) {
+            entranceLinks[i] = new int[links.get(i).size()];
+            for(int j = 0; j < entranceLinks[i].length; j++) {
+                entranceLinks[i][j] = links.get(i).get(j);
+            }
+        }
+
+        int[] distances = savedDistances;
+        if(distances == null) {
+            distances = distanceTable(entrances);
+        } else if(distances.length != entrances.length * entrances.length) {
+            throw new IllegalArgumentException("Cluster " + cluster + " has " + entrances.length + " entrances, the saved table does not fit");
+        }
+
+        clusterEntrances[cluster] = entrances;
+        clusterDistances[cluster] = distances;
+        clusterEntranceLinks[cluster] = entranceLinks;
+    }
+
+    /**
+     * @return Distances inside the cluster between every two of its entrances, not through the townhall
+     */
+    private int[] distanceTable(int[] entrances) {
+        int[] distances = new int[entrances.length * entrances.length];
+        for(int i = 0; i < entrances.length; i++) {
+            int[] clusterDistance = clusterSearch(entrances[i], -1, -1);
+            for(int j = 0; j < entrances.length; j++) {
+                distances[i * entrances.length + j] = clusterDistance[localIndex(entrances[j])];
+            }
+        }
+        return distances;
+    }
+
+    /**
+     * A* over the entrance cells, with the start and goal connected to the entrances of
+     * their clusters for this query only.
+     *
+     * @return Cells of the abstract path from start to goal, or null if the graph has no route
+     */
+    private int[] searchAbstractGraph(int start, int goal, int blockedCell) {
+        int goalCluster = clusterOf(goal);
+
+        int[] startDistance = clusterSearch(start, -1, blockedCell);
+        int[] goalDistance = clusterSearch(goal, -1, blockedCell);
+        expandedNodes += 2;
+
+        touchedCount = 0;
+        touch(start, 0, -1);
+        searchOpen.insert(start, heuristic(start, goal));
+
+        int[] result = null;
+        while(!searchOpen.isEmpty()) {
+            int current = searchOpen.poll();
+            if(current == goal) {
+                int length = 0;
+                for(int cell = goal; cell != -1; cell = searchParent[cell]) {
+                    length++;
+                }
+                result = new int[length];
+                for(int cell = goal; cell != -1; cell = searchParent[cell]) {
+                    result[--length] = cell;
+                }
+                break;
+            }
+
+            searchClosed[current] = true;
+            // entrance distances are precomputed without the enemy footman
+            if(current == blockedCell) {
+                continue;
+            }
+            expandedNodes++;
+
+            int currentCost = searchCost[current];
+            int cluster = clusterOf(current);
+            int[] entrances = clusterEntrances[cluster];
+
+            // edges inside the cluster
+            if(current == start) {
+                for(int entrance : entrances) {
+                    relax(current, entrance, currentCost, startDistance[localIndex(entrance)], goal);
+                }
+            } else {
+                int from = entranceIndex.get(current);
+                int[] distances = clusterDistances[cluster];
+                for(int j = 0; j < entrances.length; j++) {
+                    relax(current, entrances[j], currentCost, distances[from * entrances.length + j], goal);
+                }
+            }
+            if(cluster == goalCluster) {
+                relax(current, goal, currentCost, goalDistance[localIndex(current)], goal);
+            }
+
+            // edges to the neighboring clusters
+            Integer from = entranceIndex.get(current);
+            if(from != null) {
+                for(int other : clusterEntranceLinks[cluster][from]) {
+                    relax(current, other, currentCost, 1, goal);
+                }
+            }
+        }
+
+        // reset only the cells this query touched
+        searchOpen.clear();
+        for(int i = 0; i < touchedCount; i++) {
+            searchCost[touched[i]] = Integer.MAX_VALUE;
+            searchClosed[touched[i]] = false;
+        }
+        return result;
+    }
+
+    private void relax(int from, int to, int fromCost, int edgeCost, int goal) {
+        if(edgeCost == Integer.MAX_VALUE || from == to || searchClosed[to]) {
+            return;
+        }
+        int newCost = fromCost + edgeCost;
+        if(newCost < searchCost[to]) {
+            if(searchCost[to] == Integer.MAX_VALUE) {
+                touch(to, newCost, from);
+            } else {
+                searchCost[to] = newCost;
+                searchParent[to] = from;
+            }
+            searchOpen.update(to, newCost + heuristic(to, goal));
+        }
+    }
+
+    private void touch(int cell, int cost, int parent) {
+        if(touchedCount == touched.length) {
+            touched = Arrays.copyOf(touched, touched.length * 2);
+        }
+        touched[touchedCount++] = cell;
+        searchCost[cell] = cost;
+        searchParent[cell] = parent;
+    }
+
+    /**
+     * Refines one intra-cluster edge into cells, falling back to a flat search if the enemy
+     * footman blocks the way inside the cluster.
+     *
+     * @return Cells after from up to and including to, or null if to cannot be reached
+     */
+    private int[] refine(int from, int to, int blockedCell) {
+        expandedNodes++;
+        int[] distance = clusterSearch(from, to, blockedCell);
+        int toDistance = clusterOf(from) == clusterOf(to) ? distance[localIndex(to)] : Integer.MAX_VALUE;
+
+        if(toDistance == Integer.MAX_VALUE) {
+            int[] cells = flatSearch.findPath(obstacles, from, to, blockedCell);
+            expandedNodes += flatSearch.getExpandedNodes();
+            if(cells == null) {
+                return null;
+            }
+            int[] withTarget = Arrays.copyOf(cells, cells.length + 1);
+            withTarget[cells.length] = to;
+            return withTarget;
+        }
+
+        // walk back from the target along decreasing distances
+        int[] cells = new int[toDistance];
+        int current = to;
+        for(int i = toDistance - 1; i >= 0; i--) {
+            cells[i] = current;
+            current = closerNeighbor(current, distance);
+        }
+        return cells;
+    }
+
+    private int closerNeighbor(int cell, int[] distance) {
+        int x = cell / yExtent;
+        int y = cell % yExtent;
+        int target = distance[localIndex(cell)] - 1;
+        for(int dx = -1; dx <= 1; dx++) {
+            for(int dy = -1; dy <= 1; dy++) {
+                int nextX = x + dx;
+                int nextY = y + dy;
+                int next = nextX * yExtent + nextY;
+                if((dx != 0 || dy != 0) && obstacles.inBounds(nextX, nextY) && next != goal
+                        && clusterOf(next) == clusterOf(cell) && distance[localIndex(next)] == target) {
+                    return next;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Breadth-first search restricted to the cluster of source.
+     *
+     * @param stopAt Cell at which the search may stop early, or -1 to search the whole cluster
+     * @return Distance from source to every cell of the cluster, indexed by localIndex,
+     *         Integer.MAX_VALUE where it cannot be reached
+     */
+    private int[] clusterSearch(int source, int stopAt, int blockedCell) {
+        int cluster = clusterOf(source);
+        int minX = (cluster / clustersY) * clusterSize;
+        int minY = (cluster % clustersY) * clusterSize;
+        int maxX = Math.min(minX + clusterSize, xExtent);
+        int maxY = Math.min(minY + clusterSize, yExtent);
+
+        int[] distance = new int[clusterSize * clusterSize];
+        Arrays.fill(distance, Integer.MAX_VALUE);
+        int[] queue = clusterQueue;
+        int head = 0, tail = 0;
+
+        distance[localIndex(source)] = 0;
+        queue[tail++] = source;
+        while(head < tail) {
+            int current = queue[head++];
+            if(current == stopAt) {
+                break;
+            }
+            int x = current / yExtent;
+            int y = current % yExtent;
+            int currentDistance = distance[localIndex(current)];
+            for(int dx = -1; dx <= 1; dx++) {
+                for(int dy = -1; dy <= 1; dy++) {
+                    int nextX = x + dx;
+                    int nextY = y + dy;
+                    if((dx == 0 && dy == 0) || nextX < minX || nextX >= maxX || nextY < minY || nextY >= maxY) {
+                        continue;
+                    }
+                    int next = nextX * yExtent + nextY;
+                    if(next == blockedCell || obstacles.isBlocked(next)) {
+                        continue;
+                    }
+                    int local = localIndex(next);
+                    if(distance[local] == Integer.MAX_VALUE) {
+                        distance[local] = currentDistance + 1;
+                        // the townhall can be reached but not walked through
+                        if(next != goal) {
+                            queue[tail++] = next;
+                        }
+                    }
+                }
+            }
+        }
+        return distance;
+    }
+
+    private int clusterOf(int cell) {
+        return ((cell / yExtent) / clusterSize) * clustersY + (cell % yExtent) / clusterSize;
+    }
+
+    private int localIndex(int cell) {
+        return ((cell / yExtent) % clusterSize) * clusterSize + (cell % yExtent) % clusterSize;
+    }
+
+    private boolean isAdjacent(int a, int b) {
+        return Math.abs(a / yExtent - b / yExtent) <= 1 && Math.abs(a % yExtent - b % yExtent) <= 1;
+    }
+
+    private int heuristic(int from, int to) {
+        return Math.max(Math.abs(from / yExtent - to / yExtent), Math.abs(from % yExtent - to % yExtent));
+    }
+}
@@ -0,0 +1,126 @@
+package edu.cwru.sepia.agent;
+
+import java.util.Arrays;
+
+/**
+ * Histogram of non-negative long values with bounded relative error, in the style of HdrHistogram.
+ *
+ * Values below 128 have a bucket of their own. Larger values are split into ranges of
+ * powers of two, each divided into 64 equal buckets, so a value is never reported more than
+ * 1/64 (about 1.6%) above what was recorded. The whole range of long fits in a fixed array
+ * of 3776 counts, and recording a value does not allocate.
+ */
+public class Histogram {
+
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int LINEAR_LIMIT = 2 * SUB_BUCKET_COUNT;
+    private static final int BUCKET_COUNT = LINEAR_LIMIT + (63 - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+
+    private final long[] counts = new long[BUCKET_COUNT];
+    private long totalCount;
+    private long min = Long.MAX_VALUE;
+    private long max;
+    private double sum;
+
+    /**
+     * @param value Non-negative value, negative values are recorded as 0
+     */
+    public void record(long value) {
+        if(value < 0) {
+            value = 0;
+        }
+        counts[indexOf(value)]++;
+        totalCount++;
+        sum += value;
+        if(value < min) {
+            min = value;
+        }
+        if(value > max) {
+            max = value;
+        }
+    }
+
+    public void reset() {
+        Arrays.fill(counts, 0);
+        totalCount = 0;
+        min = Long.MAX_VALUE;
+        max = 0;
+        sum = 0;
+    }
+
+    public long getCount() {
+        return totalCount;
+    }
+
+    public long getMin() {
+        return totalCount == 0 ? 0 : min;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public double getMean() {
+        return totalCount == 0 ? 0 : sum / totalCount;
+    }
+
+    /**
+     * @param percentile Percentile between 0 and 100
+     * @return Largest value in the bucket holding the percentile, never more than the maximum recorded
+     */
+    public long getValueAtPercentile(double percentile) {
+        if(totalCount == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(Math.min(percentile, 100.0) / 100.0 * totalCount));
+        long seen = 0;
+        for(int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts[i];
+            if(seen >= target) {
+                return Math.min(highestValueIn(i), max);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * @return Number of buckets, the valid arguments of getCountAt and getHighestValueAt are 0 to this minus 1
+     */
+    public int getBucketCount() {
+        return BUCKET_COUNT;
+    }
+
+    /**
+     * @return Number of values recorded in a bucket
+     */
+    public long getCountAt(int bucket) {
+        return counts[bucket];
+    }
+
+    /**
+     * @return Largest value that falls in a bucket, the value itself for values below 128
+     */
+    public long getHighestValueAt(int bucket) {
+        return highestValueIn(bucket);
+    }
+
+    private static int indexOf(long value) {
+        if(value < LINEAR_LIMIT) {
+            return (int) value;
+        }
+        // shift the value so that its top bits fall in [SUB_BUCKET_COUNT, 2 * SUB_BUCKET_COUNT)
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift) - SUB_BUCKET_COUNT;
+        return LINEAR_LIMIT + (shift - 1) * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    private static long highestValueIn(int index) {
+        if(index < LINEAR_LIMIT) {
+            return index;
+        }
+        int shift = (index - LINEAR_LIMIT) / SUB_BUCKET_COUNT + 1;
+        long lowest = (long) ((index - LINEAR_LIMIT) % SUB_BUCKET_COUNT + SUB_BUCKET_COUNT) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+}
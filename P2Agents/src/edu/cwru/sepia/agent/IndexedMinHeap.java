@@ -0,0 +1,178 @@
+package edu.cwru.sepia.agent;
+
+import java.util.Arrays;
+
+/**
+ * Binary min-heap over integer ids in the range [0, capacity) ordered by a long key.
+ *
+ * The heap keeps the position of every id in a flat array so that contains, decreaseKey
+ * and remove run without scanning the queue. Search code uses the cell index
+ * x * yExtent + y as the id, which lets the open set be addressed directly by map position.
+ */
+public class IndexedMinHeap {
+
+    private final int[] heap;      // heap[i] = id stored at heap slot i
+    private final int[] position;  // position[id] = heap slot of id, or -1 when absent
+    private final long[] keys;     // keys[id] = current priority of id
+    private int size;
+
+    public IndexedMinHeap(int capacity)
+    {
+        this.heap = new int[capacity];
+        this.position = new int[capacity];
+        this.keys = new long[capacity];
+        Arrays.fill(position, -1);
+    }
+
+    public int capacity() {
+        return heap.length;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean contains(int id) {
+        return position[id] != -1;
+    }
+
+    public long keyOf(int id) {
+        return keys[id];
+    }
+
+    /**
+     * @return the smallest key in the heap. Only valid when the heap is not empty
+     */
+    public long peekKey() {
+        return keys[heap[0]];
+    }
+
+    public int peek() {
+        return heap[0];
+    }
+
+    public void insert(int id, long key) {
+        keys[id] = key;
+        heap[size] = id;
+        position[id] = size;
+        siftUp(size++);
+    }
+
+    /**
+     * Lowers the key of an id that is already queued.
+     */
+    public void decreaseKey(int id, long key) {
+        keys[id] = key;
+        siftUp(position[id]);
+    }
+
+    /**
+     * Inserts the id or moves it to its new key, whichever direction the key changed.
+     */
+    public void update(int id, long key) {
+        if(!contains(id)) {
+            insert(id, key);
+            return;
+        }
+
+        long oldKey = keys[id];
+        keys[id] = key;
+        if(key < oldKey) {
+            siftUp(position[id]);
+        } else {
+            siftDown(position[id]);
+        }
+    }
+
+    /**
+     * Removes and returns the id with the smallest key.
+     */
+    public int poll() {
+        int top = heap[0];
+        removeAt(0);
+        return top;
+    }
+
+    public void remove(int id) {
+        int slot = position[id];
+        if(slot != -1) {
+            removeAt(slot);
+        }
+    }
+
+    /**
+     * Empties the heap in time proportional to the number of queued ids, so a heap sized
+     * for the whole map can be reused between searches.
+     */
+    public void clear() {
+        for(int i = 0; i < size; i++) {
+            position[heap[i]] = -1;
+        }
+        size = 0;
+    }
+
+    private void removeAt(int slot) {
+        int removed = heap[slot];
+        position[removed] = -1;
+        size--;
+
+        if(slot == size) {
+            return;
+        }
+
+        int last = heap[size];
+        heap[slot] = last;
+        position[last] = slot;
+
+        siftDown(slot);
+        siftUp(position[last]);
+    }
+
+    private void siftUp(int slot) {
+        int id = heap[slot];
+        long key = keys[id];
+
+        while(slot > 0) {
+            int parentSlot = (slot - 1) >>> 1;
+            int parent = heap[parentSlot];
+            if(keys[parent] <= key) {
+                break;
+            }
+            heap[slot] = parent;
+            position[parent] = slot;
+            slot = parentSlot;
+        }
+
+        heap[slot] = id;
+        position[id] = slot;
+    }
+
+    private void siftDown(int slot) {
+        int id = heap[slot];
+        long key = keys[id];
+        int half = size >>> 1;
+
+        while(slot < half) {
+            int childSlot = 2 * slot + 1;
+            int child = heap[childSlot];
+            int rightSlot = childSlot + 1;
+            if(rightSlot < size && keys[heap[rightSlot]] < keys[child]) {
+                childSlot = rightSlot;
+                child = heap[rightSlot];
+            }
+            if(key <= keys[child]) {
+                break;
+            }
+            heap[slot] = child;
+            position[child] = slot;
+            slot = childSlot;
+        }
+
+        heap[slot] = id;
+        position[id] = slot;
+    }
+}
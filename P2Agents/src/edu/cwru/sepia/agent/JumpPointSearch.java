@@ -0,0 +1,283 @@
+package edu.cwru.sepia.agent;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Jump Point Search over the uniform-cost, 8-connected grid used by AstarAgent.
+ *
+ * Instead of pushing every neighbor onto the open set, the search walks in straight and
+ * diagonal lines and only stops at cells that have a forced neighbor (a neighbor that can
+ * only be reached optimally through that cell because an obstacle is next to it). Moves
+ * follow the same rules as AstarAgent.expandNextAvailableValidSteps: every move costs 1 and
+ * diagonal moves are allowed past trees, so the cost between two jump points is their
+ * Chebyshev distance. The returned path is expanded back to one cell per step.
+ *
+ * The cost, parent and closed flag of every jump point live in a SearchArena kept between
+ * queries, so a query only clears the cells the previous one touched.
+ */
+public class JumpPointSearch {
+
+    private ObstacleGrid obstacles;
+    private int xExtent, yExtent;
+    private int blockedCell;
+    private int goalX, goalY;
+
+    private SearchArena arena;
+    private int expandedNodes;
+
+    /**
+     * Finds the shortest path from start to goal.
+     *
+     * @param obstacles Bitmap of the positions occupied by resources
+     * @param start Cell index of the footman
+     * @param goal Cell index of the townhall
+     * @param blockedCell Cell index of an additional blocker such as the enemy footman, or -1
+     * @return Cell indices from the first move to the cell next to the goal, or null if there is no path
+     */
+    public int[] findPath(ObstacleGrid obstacles, int start, int goal, int blockedCell)
+    {
+        return findPath(obstacles, start, goal, blockedCell, null);
+    }
+
+    /**
+     * Finds the shortest path from start to goal, giving up once cancelled is set.
+     *
+     * @param cancelled Checked every 256 expansions, or null if the search cannot be cancelled
+     * @return Cell indices from the first move to the cell next to the goal, or null if there
+     *         is no path or the search was cancelled
+     */
+    public int[] findPath(ObstacleGrid obstacles, int start, int goal, int blockedCell, AtomicBoolean cancelled)
+    {
+        this.obstacles = obstacles;
+        this.xExtent = obstacles.getXExtent();
+        this.yExtent = obstacles.getYExtent();
+        this.blockedCell = blockedCell;
+        this.goalX = goal / yExtent;
+        this.goalY = goal % yExtent;
+        this.expandedNodes = 0;
+
+        if(arena == null || !arena.fits(obstacles.cellCount())) {
+            arena = new SearchArena(obstacles.cellCount());
+        }
+        arena.reset();
+        IndexedMinHeap openSet = arena.openSet();
+        int startEstimate = heuristic(start / yExtent, start % yExtent);
+        arena.record(start, 0, startEstimate, -1);
+        openSet.insert(start, startEstimate);
+
+        int[] successors = new int[8];
+
+        while(!openSet.isEmpty()) {
+            int current = openSet.poll();
+            if(current == goal) {
+                return expandPath(start, goal);
+            }
+
+            arena.close(current);
+            expandedNodes++;
+            if(cancelled != null && (expandedNodes & 255) == 0 && cancelled.get()) {
+                return null;
+            }
+
+            int x = current / yExtent;
+            int y = current % yExtent;
+            int successorCount = identifySuccessors(x, y, arena.parent(current), successors);
+
+            for(int i = 0; i < successorCount; i++) {
+                int jumpPoint = successors[i];
+                if(arena.isClosed(jumpPoint)) {
+                    continue;
+                }
+
+                int jumpX = jumpPoint / yExtent;
+                int jumpY = jumpPoint % yExtent;
+                int cost = arena.cost(current) + Math.max(Math.abs(jumpX - x), Math.abs(jumpY - y));
+                if(cost >= arena.cost(jumpPoint)) {
+                    continue;
+                }
+
+                int f = cost + heuristic(jumpX, jumpY);
+                arena.record(jumpPoint, cost, f, current);
+                openSet.update(jumpPoint, f);
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * @return Number of jump points expanded by the last call to findPath
+     */
+    public int getExpandedNodes() {
+        return expandedNodes;
+    }
+
+    /**
+     * Collects the jump points reachable from (x, y) given the direction it was entered from.
+     *
+     * @return Number of jump points written to successors
+     */
+    private int identifySuccessors(int x, int y, int parent, int[] successors) {
+        int count = 0;
+
+        if(parent == -1) {
+            // the start cell has no direction to prune with
+            for(int dx = -1; dx <= 1; dx++) {
+                for(int dy = -1; dy <= 1; dy++) {
+                    if(dx != 0 || dy != 0) {
+                        count = addJump(x, y, dx, dy, successors, count);
+                    }
+                }
+            }
+            return count;
+        }
+
+        int dx = Integer.signum(x - parent / yExtent);
+        int dy = Integer.signum(y - parent % yExtent);
+
+        if(dx != 0 && dy != 0) {
+            count = addJump(x, y, dx, 0, successors, count);
+            count = addJump(x, y, 0, dy, successors, count);
+            count = addJump(x, y, dx, dy, successors, count);
+            if(!isWalkable(x - dx, y)) {
+                count = addJump(x, y, -dx, dy, successors, count);
+            }
+            if(!isWalkable(x, y - dy)) {
+                count = addJump(x, y, dx, -dy, successors, count);
+            }
+        } else if(dx != 0) {
+            count = addJump(x, y, dx, 0, successors, count);
+            if(!isWalkable(x, y + 1)) {
+                count = addJump(x, y, dx, 1, successors, count);
+            }
+            if(!isWalkable(x, y - 1)) {
+                count = addJump(x, y, dx, -1, successors, count);
+            }
+        } else {
+            count = addJump(x, y, 0, dy, successors, count);
+            if(!isWalkable(x + 1, y)) {
+                count = addJump(x, y, 1, dy, successors, count);
+            }
+            if(!isWalkable(x - 1, y)) {
+                count = addJump(x, y, -1, dy, successors, count);
+            }
+        }
+
+        return count;
+    }
+
+    private int addJump(int x, int y, int dx, int dy, int[] successors, int count) {
+        int jumpPoint = (dx != 0 && dy != 0) ? jumpDiagonal(x, y, dx, dy) : jumpStraight(x, y, dx, dy);
+        if(jumpPoint != -1) {
+            successors[count++] = jumpPoint;
+        }
+        return count;
+    }
+
+    /**
+     * Walks from (x, y) in a horizontal or vertical direction until it reaches the goal,
+     * a cell with a forced neighbor or an obstacle.
+     *
+     * @return Cell index of the jump point, or -1 if the walk runs into an obstacle
+     */
+    private int jumpStraight(int x, int y, int dx, int dy) {
+        while(true) {
+            x += dx;
+            y += dy;
+
+            if(!isWalkable(x, y)) {
+                return -1;
+            }
+            if(x == goalX && y == goalY) {
+                return x * yExtent + y;
+            }
+
+            if(dx != 0) {
+                if((!isWalkable(x, y + 1) && isWalkable(x + dx, y + 1)) ||
+                        (!isWalkable(x, y - 1) && isWalkable(x + dx, y - 1))) {
+                    return x * yExtent + y;
+                }
+            } else {
+                if((!isWalkable(x + 1, y) && isWalkable(x + 1, y + dy)) ||
+                        (!isWalkable(x - 1, y) && isWalkable(x - 1, y + dy))) {
+                    return x * yExtent + y;
+                }
+            }
+        }
+    }
+
+    /**
+     * Walks from (x, y) diagonally, stopping at the goal, at a cell with a forced neighbor
+     * or at a cell from which one of the two straight components finds a jump point.
+     *
+     * @return Cell index of the jump point, or -1 if the walk runs into an obstacle
+     */
+    private int jumpDiagonal(int x, int y, int dx, int dy) {
+        while(true) {
+            x += dx;
+            y += dy;
+
+            if(!isWalkable(x, y)) {
+                return -1;
+            }
+            if(x == goalX && y == goalY) {
+                return x * yExtent + y;
+            }
+
+            if((!isWalkable(x - dx, y) && isWalkable(x - dx, y + dy)) ||
+                    (!isWalkable(x, y - dy) && isWalkable(x + dx, y - dy))) {
+                return x * yExtent + y;
+            }
+
+            if(jumpStraight(x, y, dx, 0) != -1 || jumpStraight(x, y, 0, dy) != -1) {
+                return x * yExtent + y;
+            }
+        }
+    }
+
+    private boolean isWalkable(int x, int y) {
+        if(x < 0 || x >= xExtent || y < 0 || y >= yExtent) {
+            return false;
+        }
+        int cell = x * yExtent + y;
+        return cell != blockedCell && !obstacles.isBlocked(cell);
+    }
+
+    private int heuristic(int x, int y) {
+        return Math.max(Math.abs(goalX - x), Math.abs(goalY - y));
+    }
+
+    /**
+     * Walks back over the jump points and fills in every cell between them. Consecutive
+     * jump points always lie on a straight or diagonal line.
+     */
+    private int[] expandPath(int start, int goal) {
+        int length = 0;
+        for(int cell = goal; cell != start; cell = arena.parent(cell)) {
+            int parent = arena.parent(cell);
+            length += Math.max(Math.abs(cell / yExtent - parent / yExtent), Math.abs(cell % yExtent - parent % yExtent));
+        }
+
+        // the path excludes the start and goal cells
+        int[] path = new int[Math.max(length - 1, 0)];
+        int index = length - 1;
+        for(int cell = goal; cell != start; cell = arena.parent(cell)) {
+            int parent = arena.parent(cell);
+            int x = cell / yExtent;
+            int y = cell % yExtent;
+            int dx = Integer.signum(parent / yExtent - x);
+            int dy = Integer.signum(parent % yExtent - y);
+
+            while(x * yExtent + y != parent) {
+                if(index < path.length) {
+                    path[index] = x * yExtent + y;
+                }
+                index--;
+                x += dx;
+                y += dy;
+            }
+        }
+
+        return path;
+    }
+}
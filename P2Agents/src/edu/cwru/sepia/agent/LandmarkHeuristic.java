@@ -0,0 +1,264 @@
+package edu.cwru.sepia.agent;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.util.Arrays;
+
+/**
+ * ALT heuristic: lower bounds on the walking distance from precomputed landmark distances.
+ *
+ * For every landmark L the triangle inequality gives d(v, goal) >= |d(L, goal) - d(L, v)|,
+ * so the largest of these differences is admissible, and unlike Chebyshev distance it
+ * accounts for the trees between v and the goal. Landmarks are chosen one at a time as the
+ * free cell farthest from the landmarks already chosen, and the distances from each
+ * landmark are found with a breadth first search, which is Dijkstra on a unit cost grid.
+ *
+ * The distances are stored as chars, 2 bytes per landmark and cell, with the landmarks of a
+ * cell next to each other so that one lookup reads a single short run of memory. Fewer
+ * landmarks than requested are used when the table would not fit in the memory limit.
+ * Distances that do not fit in a char are stored as unknown and skipped in the bound.
+ *
+ * The enemy footman is not included, it can only make the real distance longer. A removed
+ * tree can make it shorter, so the table is only valid for the trees it was built on.
+ *
+ * A table saved with writeArtifact can be read back from a memory mapped MapArtifacts file,
+ * in which case lookups read the distances from the mapping instead of copying them.
+ */
+public class LandmarkHeuristic {
+
+    private static final char UNKNOWN = Character.MAX_VALUE;
+
+    private final ObstacleGrid obstacles;
+    private final long treeVersion;
+    private final int yExtent;
+    private final int cellCount;
+    private final int stride;       // landmark columns allocated per cell
+    private final int landmarkCount; // landmark columns filled, at most stride
+    private final int[] landmarks;
+    private final CharBuffer distances; // distances.get(cell * stride + landmark)
+
+    private final int[] goalDistances;
+    private int goal = -1;
+
+    /**
+     * @param obstacles Bitmap of the positions occupied by resources
+     * @param requestedLandmarks Number of landmarks to place
+     * @param memoryLimit Maximum size of the distance table in bytes
+     */
+    public LandmarkHeuristic(ObstacleGrid obstacles, int requestedLandmarks, long memoryLimit)
+    {
+        this.obstacles = obstacles;
+        this.treeVersion = obstacles.fingerprint();
+        this.yExtent = obstacles.getYExtent();
+        this.cellCount = obstacles.cellCount();
+
+        long fitting = memoryLimit / (2L * cellCount);
+        int count = (int) Math.max(0, Math.min(requestedLandmarks, fitting));
+
+        this.stride = count;
+        this.landmarks = new int[count];
+        this.distances = CharBuffer.wrap(new char[count * cellCount]);
+        this.goalDistances = new int[count];
+        this.landmarkCount = placeLandmarks();
+    }
+
+    /**
+     * Reads a table saved with writeArtifact for the same trees.
+     *
+     * @param content Content of the MapArtifacts.LANDMARKS section
+     */
+    public LandmarkHeuristic(ObstacleGrid obstacles, ByteBuffer content)
+    {
+        this.obstacles = obstacles;
+        this.treeVersion = obstacles.fingerprint();
+        this.yExtent = obstacles.getYExtent();
+        this.cellCount = obstacles.cellCount();
+
+        this.stride = content.getInt(0);
+        this.landmarkCount = content.getInt(4);
+        this.landmarks = new int[stride];
+        for(int i = 0; i < stride; i++) {
+            landmarks[i] = content.getInt(8 + 4 * i);
+        }
+        ByteBuffer table = content.duplicate();
+        table.position(tableOffset(stride));
+        this.distances = table.slice().order(ByteOrder.LITTLE_ENDIAN).asCharBuffer();
+        if(distances.remaining() != stride * cellCount) {
+            throw new IllegalArgumentException("Landmark table has " + distances.remaining() + " entries, expected " + stride * cellCount);
+        }
+        this.goalDistances = new int[stride];
+    }
+
+    /**
+     * @return The table as the content of a MapArtifacts.LANDMARKS section: the stride, the
+     *         number of landmarks, their cells and then the distances
+     */
+    public ByteBuffer writeArtifact() {
+        ByteBuffer content = ByteBuffer.allocate(tableOffset(stride) + 2 * stride * cellCount).order(ByteOrder.LITTLE_ENDIAN);
+        content.putInt(stride);
+        content.putInt(landmarkCount);
+        for(int landmark : landmarks) {
+            content.putInt(landmark);
+        }
+        content.position(tableOffset(stride));
+        for(int i = 0; i < stride * cellCount; i++) {
+            content.putChar(distances.get(i));
+        }
+        content.flip();
+        return content;
+    }
+
+    // the distances start on a multiple of 8 bytes after the header and landmark cells
+    private static int tableOffset(int stride) {
+        return (8 + 4 * stride + 7) & ~7;
+    }
+
+    /**
+     * @return true when the table was built for the same map and trees
+     */
+    public boolean plansFor(ObstacleGrid obstacles) {
+        return this.obstacles == obstacles && obstacles.fingerprint() == treeVersion;
+    }
+
+    /**
+     * Reads the distances of the goal once, so that lowerBound only reads the cell's distances.
+     */
+    public void setGoal(int goal) {
+        if(this.goal == goal) {
+            return;
+        }
+        this.goal = goal;
+        for(int i = 0; i < landmarkCount; i++) {
+            goalDistances[i] = distances.get(goal * stride + i);
+        }
+    }
+
+    /**
+     * @return Admissible lower bound on the number of steps from the cell to the goal given to setGoal
+     */
+    public int lowerBound(int cell) {
+        int bound = 0;
+        int offset = cell * stride;
+        for(int i = 0; i < landmarkCount; i++) {
+            int cellDistance = distances.get(offset + i);
+            int goalDistance = goalDistances[i];
+            if(cellDistance == UNKNOWN || goalDistance == UNKNOWN) {
+                continue;
+            }
+            int difference = Math.abs(goalDistance - cellDistance);
+            if(difference > bound) {
+                bound = difference;
+            }
+        }
+        return bound;
+    }
+
+    public int getLandmarkCount() {
+        return landmarkCount;
+    }
+
+    /**
+     * @return Cell index of a landmark
+     */
+    public int getLandmark(int index) {
+        return landmarks[index];
+    }
+
+    /**
+     * @return Size of the distance table in bytes
+     */
+    public long getMemoryUsage() {
+        return 2L * landmarkCount * cellCount;
+    }
+
+    /**
+     * Places up to stride landmarks by farthest point selection and fills their distance columns.
+     *
+     * @return Number of landmarks placed, fewer than stride if the map has fewer free cells
+     */
+    private int placeLandmarks() {
+        if(stride == 0) {
+            return 0;
+        }
+
+        int[] queue = new int[cellCount];
+        int[] distance = new int[cellCount];
+        // distance from every cell to the closest landmark chosen so far
+        int[] closest = new int[cellCount];
+        Arrays.fill(closest, Integer.MAX_VALUE);
+
+        int first = -1;
+        for(int cell = 0; cell < cellCount && first == -1; cell++) {
+            if(!obstacles.isBlocked(cell)) {
+                first = cell;
+            }
+        }
+        if(first == -1) {
+            return 0;
+        }
+        // the cell farthest from an arbitrary free cell lies on the edge of the map,
+        // and breadth first order puts one of the farthest cells last
+        int candidate = queue[breadthFirstSearch(first, queue, distance) - 1];
+
+        int placed = 0;
+        while(placed < stride && candidate != -1) {
+            landmarks[placed] = candidate;
+            int reached = breadthFirstSearch(candidate, queue, distance);
+            for(int i = 0; i < reached; i++) {
+                int cell = queue[i];
+                int d = distance[cell];
+                distances.put(cell * stride + placed, d < UNKNOWN ? (char) d : UNKNOWN);
+                closest[cell] = Math.min(closest[cell], d);
+            }
+            placed++;
+
+            // mark the cells this landmark cannot reach, and pick the cell farthest from all landmarks
+            candidate = -1;
+            int best = 0;
+            for(int cell = 0; cell < cellCount; cell++) {
+                if(distance[cell] == -1) {
+                    distances.put(cell * stride + placed - 1, UNKNOWN);
+                } else if(closest[cell] > best) {
+                    best = closest[cell];
+                    candidate = cell;
+                }
+            }
+        }
+        return placed;
+    }
+
+    /**
+     * Breadth first search over the free cells, 8-connected like the footman's moves.
+     *
+     * @return Number of cells reached, which are stored at the front of queue
+     */
+    private int breadthFirstSearch(int source, int[] queue, int[] distance) {
+        Arrays.fill(distance, -1);
+        int xExtent = obstacles.getXExtent();
+        int head = 0, tail = 0;
+        queue[tail++] = source;
+        distance[source] = 0;
+
+        while(head < tail) {
+            int cell = queue[head++];
+            int x = cell / yExtent;
+            int y = cell % yExtent;
+            for(int dx = -1; dx <= 1; dx++) {
+                for(int dy = -1; dy <= 1; dy++) {
+                    int nextX = x + dx;
+                    int nextY = y + dy;
+                    if(nextX < 0 || nextX >= xExtent || nextY < 0 || nextY >= yExtent) {
+                        continue;
+                    }
+                    int next = nextX * yExtent + nextY;
+                    if(distance[next] == -1 && !obstacles.isBlocked(next)) {
+                        distance[next] = distance[cell] + 1;
+                        queue[tail++] = next;
+                    }
+                }
+            }
+        }
+        return tail;
+    }
+}
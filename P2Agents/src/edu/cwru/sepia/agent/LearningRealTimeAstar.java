@@ -0,0 +1,256 @@
+package edu.cwru.sepia.agent;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Learning Real-Time A* (LRTA*) towards the townhall of one map.
+ *
+ * Every turn looks ahead a fixed number of moves from the footman, raises the estimate of
+ * its cell to the cheapest move found if that is more than it was, and returns that move.
+ * A turn expands at most 8^lookahead cells whatever the size of the map, and nothing is
+ * built for the whole map up front. The estimates start as the Chebyshev distance to the
+ * townhall and only grow, so they stay lower bounds on the true distance. The footman
+ * reaches the townhall on every map where it can be reached, and each run over the same
+ * trees starts from what the earlier runs learned and follows a shorter path, down to an
+ * optimal one.
+ *
+ * Only cells whose estimate was raised are kept, in an open addressing hash table, so the
+ * memory grows with the cells visited and not with the map. The table is learned on the
+ * trees alone, the enemy footman only decides which move is taken, and the table is only
+ * valid for the trees and townhall it was learned on.
+ */
+public class LearningRealTimeAstar {
+
+    private static final int EMPTY = -1;
+
+    private final long fingerprint;
+    private final int xExtent, yExtent;
+    private final int goal;
+    private final int goalX, goalY;
+
+    // cells with a raised estimate and the estimate, EMPTY where the slot is unused
+    private int[] keys;
+    private int[] values;
+    private int size;
+
+    private int expandedNodes;
+
+    /**
+     * @param obstacles Trees the estimates are learned on
+     * @param goal Cell index of the townhall
+     */
+    public LearningRealTimeAstar(ObstacleGrid obstacles, int goal)
+    {
+        this(obstacles.fingerprint(), obstacles.getXExtent(), obstacles.getYExtent(), goal, 64);
+    }
+
+    private LearningRealTimeAstar(long fingerprint, int xExtent, int yExtent, int goal, int capacity)
+    {
+        this.fingerprint = fingerprint;
+        this.xExtent = xExtent;
+        this.yExtent = yExtent;
+        this.goal = goal;
+        this.goalX = goal / yExtent;
+        this.goalY = goal % yExtent;
+        allocate(capacity);
+    }
+
+    /**
+     * @return true when the estimates were learned on the same trees and townhall
+     */
+    public boolean plansFor(ObstacleGrid obstacles, int goal) {
+        return fingerprint == obstacles.fingerprint() && xExtent == obstacles.getXExtent()
+                && yExtent == obstacles.getYExtent() && this.goal == goal;
+    }
+
+    /**
+     * Looks ahead from the cell, learns its estimate and picks the next move.
+     *
+     * @param cell Cell of the footman, not next to the townhall
+     * @param enemyCell Cell the footman may not move into this turn, or -1
+     * @param lookahead Number of moves looked ahead, at least 1
+     * @return The neighbor to move to, or -1 if every free neighbor is taken by the enemy footman
+     */
+    public int step(ObstacleGrid obstacles, int cell, int enemyCell, int lookahead) {
+        expandedNodes = 0;
+        int x = cell / yExtent;
+        int y = cell % yExtent;
+        int freeNeighbors = obstacles.freeNeighbors(x, y);
+        expandedNodes++;
+
+        int best = Integer.MAX_VALUE;
+        int bestMove = -1;
+        int bestMoveValue = Integer.MAX_VALUE;
+        for(int dx = -1; dx <= 1; dx++) {
+            for(int dy = -1; dy <= 1; dy++) {
+                if((freeNeighbors & (1 << ((dx + 1) * 3 + dy + 1))) == 0) {
+                    continue;
+                }
+                int next = (x + dx) * yExtent + y + dy;
+                // the search below an earlier neighbor bounds the one below this neighbor
+                int value = 1 + lookAhead(obstacles, next, lookahead - 1, 1, Math.max(best, bestMoveValue));
+                best = Math.min(best, value);
+                if(next != enemyCell && value < bestMoveValue) {
+                    bestMoveValue = value;
+                    bestMove = next;
+                }
+            }
+        }
+
+        // a footman walled in has nowhere to learn from, its estimate stays where it is
+        if(best != Integer.MAX_VALUE && best > estimate(cell)) {
+            learn(cell, best);
+        }
+        return bestMove;
+    }
+
+    /**
+     * Minimin search below a cell reached after some moves. A cell whose moves plus estimate
+     * reach the bound cannot lower the result, so it is not expanded.
+     *
+     * @param depth Moves left to look ahead
+     * @param moves Moves from the footman to the cell
+     * @param bound Smallest value from the footman found so far
+     * @return Moves from the cell to the townhall estimated through the cells below it, at
+     *         least bound - moves when the search was cut off
+     */
+    private int lookAhead(ObstacleGrid obstacles, int cell, int depth, int moves, int bound) {
+        int estimate = estimate(cell);
+        // the estimate next to the townhall is exact
+        if(depth == 0 || estimate <= 1 || bound != Integer.MAX_VALUE && moves + estimate >= bound) {
+            return estimate;
+        }
+        int x = cell / yExtent;
+        int y = cell % yExtent;
+        int freeNeighbors = obstacles.freeNeighbors(x, y);
+        expandedNodes++;
+
+        int best = Integer.MAX_VALUE;
+        for(int dx = -1; dx <= 1; dx++) {
+            for(int dy = -1; dy <= 1; dy++) {
+                if((freeNeighbors & (1 << ((dx + 1) * 3 + dy + 1))) == 0) {
+                    continue;
+                }
+                int next = (x + dx) * yExtent + y + dy;
+                int nextBound = best == Integer.MAX_VALUE ? bound : Math.min(bound, moves + best);
+                best = Math.min(best, 1 + lookAhead(obstacles, next, depth - 1, moves + 1, nextBound));
+            }
+        }
+        // a dead end is worth no less than its own estimate
+        return best == Integer.MAX_VALUE ? estimate : Math.max(best, estimate);
+    }
+
+    /**
+     * @return The learned estimate of the cell, or its Chebyshev distance to the townhall
+     */
+    public int estimate(int cell) {
+        int value = values[slotOf(cell)];
+        if(value != EMPTY) {
+            return value;
+        }
+        return Math.max(Math.abs(cell / yExtent - goalX), Math.abs(cell % yExtent - goalY));
+    }
+
+    /**
+     * @return Number of cells expanded by the last step
+     */
+    public int getExpandedNodes() {
+        return expandedNodes;
+    }
+
+    /**
+     * @return Number of cells whose estimate was raised
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Writes the fingerprint of the trees, the map extent, the townhall and the raised estimates.
+     */
+    public void write(DataOutputStream out) throws IOException {
+        out.writeLong(fingerprint);
+        out.writeInt(xExtent);
+        out.writeInt(yExtent);
+        out.writeInt(goal);
+        out.writeInt(size);
+        for(int slot = 0; slot < keys.length; slot++) {
+            if(keys[slot] != EMPTY) {
+                out.writeInt(keys[slot]);
+                out.writeInt(values[slot]);
+            }
+        }
+    }
+
+    /**
+     * Reads estimates written by write.
+     *
+     * @throws IOException When the stream ends early or holds a cell outside the map
+     */
+    public static LearningRealTimeAstar read(DataInputStream in) throws IOException {
+        long fingerprint = in.readLong();
+        int xExtent = in.readInt();
+        int yExtent = in.readInt();
+        int goal = in.readInt();
+        int size = in.readInt();
+        long cellCount = (long) xExtent * yExtent;
+        if(xExtent <= 0 || yExtent <= 0 || goal < 0 || goal >= cellCount || size < 0 || size > cellCount) {
+            throw new IOException("invalid learned estimates");
+        }
+        LearningRealTimeAstar table = new LearningRealTimeAstar(fingerprint, xExtent, yExtent, goal,
+                Math.max(64, Integer.highestOneBit(Math.max(size, 1)) * 4));
+        for(int i = 0; i < size; i++) {
+            int cell = in.readInt();
+            int value = in.readInt();
+            if(cell < 0 || cell >= cellCount || value < 0) {
+                throw new IOException("invalid learned estimate for cell " + cell);
+            }
+            table.learn(cell, value);
+        }
+        return table;
+    }
+
+    private void learn(int cell, int value) {
+        if(2 * (size + 1) > keys.length) {
+            grow();
+        }
+        int slot = slotOf(cell);
+        if(keys[slot] == EMPTY) {
+            keys[slot] = cell;
+            size++;
+        }
+        values[slot] = value;
+    }
+
+    private int slotOf(int cell) {
+        int mask = keys.length - 1;
+        // spread the bits of the cell, neighboring cells would otherwise cluster
+        int slot = (int) ((cell * 0x9E3779B97F4A7C15L) >>> 40) & mask;
+        while(keys[slot] != EMPTY && keys[slot] != cell) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void grow() {
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+        allocate(2 * keys.length);
+        for(int slot = 0; slot < oldKeys.length; slot++) {
+            if(oldKeys[slot] != EMPTY) {
+                learn(oldKeys[slot], oldValues[slot]);
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        values = new int[capacity];
+        Arrays.fill(keys, EMPTY);
+        Arrays.fill(values, EMPTY);
+        size = 0;
+    }
+}
@@ -0,0 +1,299 @@
+package edu.cwru.sepia.agent;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Preprocessing results for one map, kept in a file named after the fingerprint of its
+ * trees and memory mapped when an agent starts on the same map again.
+ *
+ * The file starts with a header holding a magic number, the format version, the fingerprint
+ * and extent of the map, the length of the file and a CRC32 of everything after the header.
+ * A table of sections follows, each with a type, a parameter such as the goal cell or the
+ * landmark count it was built for, and the offset and length of its content. Contents are
+ * little endian and start on a multiple of 8 bytes, so they can be read in place as views
+ * of the mapped file. A file with another version, a wrong length or checksum, or trees that
+ * differ from the map is ignored and written again.
+ */
+public class MapArtifacts {
+
+    public static final int OBSTACLES = 1;
+    public static final int LANDMARKS = 2;
+    public static final int DISTANCE_FIELD = 3;
+    public static final int CLUSTER_GRAPH = 4;
+
+    private static final int MAGIC = 0x53415046; // "SAPF"
+    private static final int VERSION = 1;
+    // magic, version, fingerprint, x and y extent, file length, checksum, section count
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 4 + 4 + 8 + 8 + 4 + 4;
+    // type, parameter, offset, length
+    private static final int SECTION_ENTRY_SIZE = 4 + 4 + 8 + 8;
+
+    /**
+     * Content of one section, ready to be written or read.
+     */
+    public static class Section
+    {
+        private final int type;
+        private final int parameter;
+        private final ByteBuffer content;
+
+        /**
+         * @param content Little endian content from its position to its limit
+         */
+        public Section(int type, int parameter, ByteBuffer content)
+        {
+            this.type = type;
+            this.parameter = parameter;
+            this.content = content;
+        }
+
+        public int getType() {
+            return type;
+        }
+
+        public int getParameter() {
+            return parameter;
+        }
+
+        /**
+         * @return A little endian view of the content, positioned at its start
+         */
+        public ByteBuffer getContent() {
+            return content.slice().order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+
+    private final List<Section> sections;
+
+    private MapArtifacts(List<Section> sections)
+    {
+        this.sections = sections;
+    }
+
+    /**
+     * @return The file the artifacts of a map with this fingerprint are kept in
+     */
+    public static File fileFor(File directory, long fingerprint) {
+        return new File(directory, String.format("%016x.map", fingerprint));
+    }
+
+    /**
+     * Maps the artifact file of the map and checks it against the trees of the grid.
+     *
+     * @return The artifacts, or null if there is no valid file for the map
+     */
+    public static MapArtifacts map(File directory, ObstacleGrid obstacles) {
+        File file = fileFor(directory, obstacles.fingerprint());
+        if(!file.isFile()) {
+            return null;
+        }
+        MappedByteBuffer buffer;
+        try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            // the mapping stays valid after the channel is closed
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch(IOException e) {
+            System.err.println("Could not map " + file + ": " + e.getMessage());
+            return null;
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        String problem = check(buffer, obstacles);
+        if(problem != null) {
+            System.err.println("Ignoring " + file + ": " + problem);
+            return null;
+        }
+
+        int sectionCount = buffer.getInt(HEADER_SIZE - 8);
+        List<Section> sections = new ArrayList<Section>(sectionCount);
+        for(int i = 0; i < sectionCount; i++) {
+            int entry = HEADER_SIZE + i * SECTION_ENTRY_SIZE;
+            ByteBuffer content = buffer.duplicate();
+            content.position((int) buffer.getLong(entry + 8));
+            content.limit((int) (buffer.getLong(entry + 8) + buffer.getLong(entry + 16)));
+            sections.add(new Section(buffer.getInt(entry), buffer.getInt(entry + 4), content.slice()));
+        }
+        MapArtifacts artifacts = new MapArtifacts(sections);
+
+        // a fingerprint is a hash, so the trees themselves are compared as well
+        Section stored = artifacts.getSection(OBSTACLES);
+        if(stored == null || !sameObstacles(stored.getContent(), obstacles)) {
+            System.err.println("Ignoring " + file + ": trees differ from the map");
+            return null;
+        }
+        return artifacts;
+    }
+
+    /**
+     * @return Why the header or checksum of the file is invalid, or null if it is valid
+     */
+    private static String check(ByteBuffer buffer, ObstacleGrid obstacles) {
+        if(buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            return "not an artifact file";
+        }
+        if(buffer.getInt(4) != VERSION) {
+            return "format version " + buffer.getInt(4) + ", expected " + VERSION;
+        }
+        if(buffer.getLong(8) != obstacles.fingerprint() || buffer.getInt(16) != obstacles.getXExtent()
+                || buffer.getInt(20) != obstacles.getYExtent()) {
+            return "written for another map";
+        }
+        if(buffer.getLong(24) != buffer.capacity()) {
+            return "length " + buffer.capacity() + ", expected " + buffer.getLong(24);
+        }
+        int sectionCount = buffer.getInt(HEADER_SIZE - 8);
+        if(sectionCount < 0 || HEADER_SIZE + (long) sectionCount * SECTION_ENTRY_SIZE > buffer.capacity()) {
+            return "invalid section table";
+        }
+        ByteBuffer payload = buffer.duplicate();
+        payload.position(HEADER_SIZE);
+        if(checksum(payload) != buffer.getLong(32)) {
+            return "checksum mismatch";
+        }
+        for(int i = 0; i < sectionCount; i++) {
+            int entry = HEADER_SIZE + i * SECTION_ENTRY_SIZE;
+            long offset = buffer.getLong(entry + 8);
+            long length = buffer.getLong(entry + 16);
+            if(offset < HEADER_SIZE || length < 0 || offset + length > buffer.capacity()) {
+                return "section " + i + " out of bounds";
+            }
+        }
+        return null;
+    }
+
+    private static long checksum(ByteBuffer payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        return crc.getValue();
+    }
+
+    /**
+     * Writes the artifacts of the map, replacing any earlier file. The file is written under
+     * another name first and then moved into place, so an agent starting at the same time
+     * never maps a half written file.
+     *
+     * @param sections Sections to write, the trees of the grid are added as the first one
+     */
+    public static void write(File directory, ObstacleGrid obstacles, List<Section> sections) throws IOException {
+        List<Section> all = new ArrayList<Section>(sections.size() + 1);
+        all.add(new Section(OBSTACLES, 0, obstacleContent(obstacles)));
+        all.addAll(sections);
+
+        long offset = align(HEADER_SIZE + (long) all.size() * SECTION_ENTRY_SIZE);
+        long[] offsets = new long[all.size()];
+        for(int i = 0; i < all.size(); i++) {
+            offsets[i] = offset;
+            offset = align(offset + all.get(i).getContent().remaining());
+        }
+        if(offset > Integer.MAX_VALUE) {
+            throw new IOException("Artifacts of " + offset + " bytes do not fit in one mapping");
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate((int) offset).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+        buffer.putLong(8, obstacles.fingerprint());
+        buffer.putInt(16, obstacles.getXExtent());
+        buffer.putInt(20, obstacles.getYExtent());
+        buffer.putLong(24, offset);
+        buffer.putInt(HEADER_SIZE - 8, all.size());
+        for(int i = 0; i < all.size(); i++) {
+            Section section = all.get(i);
+            ByteBuffer content = section.getContent();
+            int entry = HEADER_SIZE + i * SECTION_ENTRY_SIZE;
+            buffer.putInt(entry, section.getType());
+            buffer.putInt(entry + 4, section.getParameter());
+            buffer.putLong(entry + 8, offsets[i]);
+            buffer.putLong(entry + 16, content.remaining());
+            buffer.position((int) offsets[i]);
+            buffer.put(content);
+        }
+        buffer.position(HEADER_SIZE);
+        buffer.putLong(32, checksum(buffer));
+        buffer.clear();
+
+        if(!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory);
+        }
+        File file = fileFor(directory, obstacles.fingerprint());
+        File temporary = File.createTempFile(file.getName(), ".tmp", directory);
+        try(FileChannel channel = FileChannel.open(temporary.toPath(), StandardOpenOption.WRITE)) {
+            while(buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+        try {
+            Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary.toPath());
+        }
+    }
+
+    private static long align(long offset) {
+        return (offset + 7) & ~7L;
+    }
+
+    /**
+     * @return The first section of the type, or null if the file has none
+     */
+    public Section getSection(int type) {
+        for(Section section : sections) {
+            if(section.getType() == type) {
+                return section;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return The section of the type built for the parameter, or null if the file has none
+     */
+    public Section getSection(int type, int parameter) {
+        for(Section section : sections) {
+            if(section.getType() == type && section.getParameter() == parameter) {
+                return section;
+            }
+        }
+        return null;
+    }
+
+    public List<Section> getSections() {
+        return sections;
+    }
+
+    /**
+     * @return The trees of the grid as 64 cells per long
+     */
+    private static ByteBuffer obstacleContent(ObstacleGrid obstacles) {
+        int words = (obstacles.cellCount() + 63) >>> 6;
+        ByteBuffer content = ByteBuffer.allocate(8 * words).order(ByteOrder.LITTLE_ENDIAN);
+        for(int i = 0; i < words; i++) {
+            content.putLong(obstacles.bitsFrom(i << 6));
+        }
+        content.flip();
+        return content;
+    }
+
+    private static boolean sameObstacles(ByteBuffer stored, ObstacleGrid obstacles) {
+        int words = (obstacles.cellCount() + 63) >>> 6;
+        if(stored.remaining() != 8 * words) {
+            return false;
+        }
+        for(int i = 0; i < words; i++) {
+            if(stored.getLong(8 * i) != obstacles.bitsFrom(i << 6)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
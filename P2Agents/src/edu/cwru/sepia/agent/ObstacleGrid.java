@@ -0,0 +1,252 @@
+package edu.cwru.sepia.agent;
+
+/**
+ * Occupancy bitmap of the map, one bit per cell packed into longs.
+ *
+ * Cells are numbered x * yExtent + y like everywhere else in the search code, so
+ * checking whether a neighbor is a tree is a single array read instead of a scan over
+ * all of the resource locations. Trees that get harvested are cleared with unblock
+ * so the bitmap never has to be rebuilt.
+ *
+ * The grid also keeps a fingerprint of its contents, a XOR of a hash of every blocked cell,
+ * which changes whenever a cell is blocked or cleared. Two grids with the same extent and
+ * the same blocked cells have the same fingerprint, also across agent restarts.
+ *
+ * On a map large enough that the bitmap would outweigh the trees, forMap keeps them in a
+ * SparseObstacles instead: runs along the rows where there are many trees, a quadtree where
+ * there are few. The grid answers the same queries either way. Either way the map must have
+ * fewer cells than an int can number, because the cell indices and the per-cell arrays of
+ * the searches built on them are ints.
+ */
+public class ObstacleGrid {
+
+    private final int xExtent, yExtent;
+    // one of the two holds the trees, the other is null
+    private final long[] bits;
+    private final SparseObstacles sparse;
+    private int blockedCount;
+    private long fingerprint;
+
+    public ObstacleGrid(int xExtent, int yExtent)
+    {
+        this(xExtent, yExtent, null);
+    }
+
+    private ObstacleGrid(int xExtent, int yExtent, SparseObstacles sparse)
+    {
+        if((long) xExtent * yExtent > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Map of " + xExtent + " x " + yExtent + " has more cells than an int can number");
+        }
+        this.xExtent = xExtent;
+        this.yExtent = yExtent;
+        this.sparse = sparse;
+        this.bits = sparse == null ? new long[(int) (((long) xExtent * yExtent + 63) >>> 6)] : null;
+        this.fingerprint = mix(((long) xExtent << 32) | yExtent);
+    }
+
+    /**
+     * Creates a grid with the storage that takes the least memory for the expected number of
+     * trees: the bitmap, or the compressed storage chosen by SparseObstacles.forMap.
+     *
+     * @param expectedBlocked Number of trees the map starts with
+     * @throws IllegalArgumentException if the map has more cells than an int can number
+     */
+    public static ObstacleGrid forMap(int xExtent, int yExtent, int expectedBlocked)
+    {
+        long bitmapBytes = ((long) xExtent * yExtent + 63) / 64 * 8;
+        if(bitmapBytes <= SparseObstacles.estimateFootprint(xExtent, yExtent, expectedBlocked)) {
+            return new ObstacleGrid(xExtent, yExtent);
+        }
+        return new ObstacleGrid(xExtent, yExtent, SparseObstacles.forMap(xExtent, yExtent, expectedBlocked));
+    }
+
+    public int getXExtent() {
+        return xExtent;
+    }
+
+    public int getYExtent() {
+        return yExtent;
+    }
+
+    public int cellCount() {
+        return xExtent * yExtent;
+    }
+
+    /**
+     * @return true when the trees are kept in compressed storage instead of the bitmap
+     */
+    public boolean isSparse() {
+        return sparse != null;
+    }
+
+    /**
+     * @return Approximate number of bytes the trees take
+     */
+    public long footprint() {
+        return sparse != null ? sparse.footprint() : 8L * bits.length;
+    }
+
+    public int blockedCount() {
+        return blockedCount;
+    }
+
+    public long fingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * @param extraBlockedCell A cell blocked on top of the grid, such as the enemy footman, or -1
+     * @return The fingerprint this grid would have with the extra cell blocked
+     */
+    public long fingerprint(int extraBlockedCell) {
+        if(extraBlockedCell == -1 || isBlocked(extraBlockedCell)) {
+            return fingerprint;
+        }
+        return fingerprint ^ hashCell(extraBlockedCell);
+    }
+
+    public int indexOf(int x, int y) {
+        return x * yExtent + y;
+    }
+
+    public boolean inBounds(int x, int y) {
+        return x >= 0 && x < xExtent && y >= 0 && y < yExtent;
+    }
+
+    public boolean isBlocked(int x, int y) {
+        if(sparse != null) {
+            return sparse.isBlocked(x, y);
+        }
+        return isBlocked(x * yExtent + y);
+    }
+
+    public boolean isBlocked(int cell) {
+        if(sparse != null) {
+            return sparse.isBlocked(cell / yExtent, cell % yExtent);
+        }
+        return (bits[cell >>> 6] & (1L << cell)) != 0;
+    }
+
+    /**
+     * @return The 64 cells from firstCell on as bits, bit 0 for firstCell, with cells past the end of the map clear
+     */
+    public long bitsFrom(int firstCell) {
+        if(sparse != null) {
+            return sparseBitsFrom(firstCell);
+        }
+        int word = firstCell >>> 6;
+        int offset = firstCell & 63;
+        long value = bits[word] >>> offset;
+        if(offset != 0 && word + 1 < bits.length) {
+            value |= bits[word + 1] << (64 - offset);
+        }
+        return value;
+    }
+
+    private long sparseBitsFrom(int firstCell) {
+        long value = 0;
+        int x = firstCell / yExtent;
+        int y = firstCell % yExtent;
+        // the 64 cells may run on into the rows after the first one
+        for(int read = 0; read < 64 && x < xExtent; x++, y = 0) {
+            int count = Math.min(64 - read, yExtent - y);
+            value |= sparse.rowBits(x, y, count) << read;
+            read += count;
+        }
+        return value;
+    }
+
+    /**
+     * @return true when the cell is inside the map and not occupied by an obstacle
+     */
+    public boolean isFree(int x, int y) {
+        return inBounds(x, y) && !isBlocked(x, y);
+    }
+
+    /**
+     * Finds the free neighbors of a cell by reading the three rows around it a few cells at a
+     * time, instead of looking up each of the eight cells.
+     *
+     * @return Bit (dx + 1) * 3 + (dy + 1) set for every neighbor (x + dx, y + dy) inside the
+     *         map and not occupied by an obstacle, the bit of the cell itself always clear
+     */
+    public int freeNeighbors(int x, int y) {
+        int lowY = Math.max(y - 1, 0);
+        int count = Math.min(y + 1, yExtent - 1) - lowY + 1;
+        int shift = lowY - (y - 1);
+        int inMap = ((1 << count) - 1) << shift;
+        int mask = 0;
+        for(int dx = -1; dx <= 1; dx++) {
+            int nextX = x + dx;
+            if(nextX < 0 || nextX >= xExtent) {
+                continue;
+            }
+            long trees = sparse != null ? sparse.rowBits(nextX, lowY, count)
+                    : bitsFrom(nextX * yExtent + lowY) & ((1L << count) - 1);
+            mask |= (~((int) trees << shift) & inMap) << (3 * (dx + 1));
+        }
+        return mask & ~(1 << 4);
+    }
+
+    public void block(int x, int y) {
+        if(sparse != null) {
+            if(sparse.block(x, y)) {
+                blockedCount++;
+                fingerprint ^= hashCell((long) x * yExtent + y);
+            }
+            return;
+        }
+        block(x * yExtent + y);
+    }
+
+    public void block(int cell) {
+        if(sparse != null) {
+            block(cell / yExtent, cell % yExtent);
+            return;
+        }
+        long mask = 1L << cell;
+        if((bits[cell >>> 6] & mask) == 0) {
+            bits[cell >>> 6] |= mask;
+            blockedCount++;
+            fingerprint ^= hashCell(cell);
+        }
+    }
+
+    /**
+     * Clears a cell, for example when the tree on it has been harvested.
+     */
+    public void unblock(int x, int y) {
+        if(sparse != null) {
+            if(sparse.unblock(x, y)) {
+                blockedCount--;
+                fingerprint ^= hashCell((long) x * yExtent + y);
+            }
+            return;
+        }
+        unblock(x * yExtent + y);
+    }
+
+    public void unblock(int cell) {
+        if(sparse != null) {
+            unblock(cell / yExtent, cell % yExtent);
+            return;
+        }
+        long mask = 1L << cell;
+        if((bits[cell >>> 6] & mask) != 0) {
+            bits[cell >>> 6] &= ~mask;
+            blockedCount--;
+            fingerprint ^= hashCell(cell);
+        }
+    }
+
+    private static long hashCell(long cell) {
+        return mix(cell + 0x9E3779B97F4A7C15L);
+    }
+
+    // SplitMix64 finalizer
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
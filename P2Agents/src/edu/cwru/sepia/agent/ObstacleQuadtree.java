@@ -0,0 +1,142 @@
+package edu.cwru.sepia.agent;
+
+import java.util.Arrays;
+
+/**
+ * Trees stored in a region quadtree over the smallest power of two square covering the map.
+ *
+ * Every node splits its square into four quadrants, and a quadrant that is all free or all
+ * trees is kept as a single leaf instead of a node. A lookup walks down one node per level,
+ * at most 32 for any map an int can address, and a square whose four quadrants become the
+ * same leaf is merged back into one. The nodes are four ints each in one array, with the
+ * slots of merged nodes reused, so the storage costs about the number of trees times the
+ * depth of the tree, and nothing for the open ground between them. That makes it the better
+ * choice for a few trees scattered over a very large map.
+ */
+public class ObstacleQuadtree extends SparseObstacles {
+
+    // leaves, every other child value is the index of a node
+    private static final int FREE = 0;
+    private static final int BLOCKED = -1;
+
+    // half the side of the square, a power of two, or 0 for a map of a single cell
+    private final int topHalf;
+    // the four children of node i at 4 * i, node 0 is never used so that 0 can mean FREE
+    private int[] children = new int[64];
+    private int nodeCount = 1;
+    private int[] releasedNodes = new int[16];
+    private int releasedCount;
+    private int root = FREE;
+
+    public ObstacleQuadtree(int xExtent, int yExtent)
+    {
+        int extent = Math.max(xExtent, yExtent);
+        this.topHalf = extent <= 1 ? 0 : Integer.highestOneBit(extent - 1);
+    }
+
+    @Override
+    public boolean isBlocked(int x, int y) {
+        int node = root;
+        for(int half = topHalf; node > 0; half >>>= 1) {
+            node = children[4 * node + quadrant(x, y, half)];
+        }
+        return node == BLOCKED;
+    }
+
+    @Override
+    public boolean block(int x, int y) {
+        if(isBlocked(x, y)) {
+            return false;
+        }
+        root = set(root, topHalf, x, y, BLOCKED);
+        return true;
+    }
+
+    @Override
+    public boolean unblock(int x, int y) {
+        if(!isBlocked(x, y)) {
+            return false;
+        }
+        root = set(root, topHalf, x, y, FREE);
+        return true;
+    }
+
+    @Override
+    public long rowBits(int x, int y, int count) {
+        long bits = 0;
+        for(int i = 0; i < count; i++) {
+            if(isBlocked(x, y + i)) {
+                bits |= 1L << i;
+            }
+        }
+        return bits;
+    }
+
+    @Override
+    public long footprint() {
+        return 4L * children.length + 4L * releasedNodes.length;
+    }
+
+    /**
+     * @return Number of nodes in use
+     */
+    public int getNodeCount() {
+        return nodeCount - 1 - releasedCount;
+    }
+
+    /**
+     * Sets one cell of the square covered by a child value and returns the new child value.
+     *
+     * @param half Half the side of the square the value covers, 0 for a single cell
+     * @param leaf FREE or BLOCKED
+     */
+    private int set(int value, int half, int x, int y, int leaf) {
+        if(value == leaf) {
+            return value;
+        }
+        if(half == 0) {
+            return leaf;
+        }
+        int node = value;
+        if(node <= 0) {
+            // a leaf of the other kind is split into four of the same kind first
+            node = allocate(value);
+        }
+        int slot = 4 * node + quadrant(x, y, half);
+        // set may grow the array, so the child is stored only once it returns
+        int child = set(children[slot], half >>> 1, x, y, leaf);
+        children[slot] = child;
+
+        int base = 4 * node;
+        if(children[base] == leaf && children[base + 1] == leaf && children[base + 2] == leaf && children[base + 3] == leaf) {
+            release(node);
+            return leaf;
+        }
+        return node;
+    }
+
+    private static int quadrant(int x, int y, int half) {
+        return ((x & half) != 0 ? 2 : 0) | ((y & half) != 0 ? 1 : 0);
+    }
+
+    private int allocate(int leaf) {
+        int node;
+        if(releasedCount > 0) {
+            node = releasedNodes[--releasedCount];
+        } else {
+            if(4 * (nodeCount + 1) > children.length) {
+                children = Arrays.copyOf(children, 2 * children.length);
+            }
+            node = nodeCount++;
+        }
+        Arrays.fill(children, 4 * node, 4 * node + 4, leaf);
+        return node;
+    }
+
+    private void release(int node) {
+        if(releasedCount == releasedNodes.length) {
+            releasedNodes = Arrays.copyOf(releasedNodes, 2 * releasedNodes.length);
+        }
+        releasedNodes[releasedCount++] = node;
+    }
+}
@@ -0,0 +1,105 @@
+package edu.cwru.sepia.agent;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded cache of planned paths with least recently used eviction.
+ *
+ * Entries are keyed by the start cell, the goal cell and the obstacle version, which is the
+ * ObstacleGrid fingerprint including the enemy footman. A harvested tree or a move of the
+ * enemy footman changes the version, so an entry can only be found again for exactly the
+ * same obstacles it was planned on.
+ */
+public class PathCache {
+
+    private static final class Key
+    {
+        private int start, goal;
+        private long obstacleVersion;
+
+        Key(int start, int goal, long obstacleVersion)
+        {
+            set(start, goal, obstacleVersion);
+        }
+
+        void set(int start, int goal, long obstacleVersion) {
+            this.start = start;
+            this.goal = goal;
+            this.obstacleVersion = obstacleVersion;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if(!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return start == other.start && goal == other.goal && obstacleVersion == other.obstacleVersion;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = 31 * start + goal;
+            return 31 * result + (int) (obstacleVersion ^ (obstacleVersion >>> 32));
+        }
+    }
+
+    private final int capacity;
+    private final LinkedHashMap<Key, int[]> entries;
+    // reused for lookups so that a get does not allocate, never stored in entries
+    private final Key lookupKey = new Key(-1, -1, 0);
+
+    private long hits;
+    private long misses;
+
+    public PathCache(final int capacity)
+    {
+        this.capacity = capacity;
+        // access order makes iteration start at the least recently used entry
+        this.entries = new LinkedHashMap<Key, int[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, int[]> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * @return The cached cells of the path, which must not be modified, or null on a miss
+     */
+    public synchronized int[] get(int start, int goal, long obstacleVersion) {
+        lookupKey.set(start, goal, obstacleVersion);
+        int[] cells = entries.get(lookupKey);
+        if(cells == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return cells;
+    }
+
+    public synchronized void put(int start, int goal, long obstacleVersion, int[] cells) {
+        entries.put(new Key(start, goal, obstacleVersion), cells);
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+}
@@ -0,0 +1,84 @@
+package edu.cwru.sepia.agent;
+
+import java.util.Arrays;
+
+/**
+ * Cell-indexed view of the path the footman is following.
+ *
+ * The remaining steps of the DirectionPath in AstarAgent are kept with the last step at index 0
+ * and the next step at the end, so taking the next step does not move any other step.
+ * Every cell also stores how many times the remaining path visits it and at which index it
+ * was last placed, which makes checking whether the enemy footman stands on the path O(1).
+ */
+public class PathOccupancy {
+
+    private final int[] visits;
+    private final int[] indexOfCell;
+    private int[] cells = new int[64];
+    private int size;
+
+    public PathOccupancy(int cellCount)
+    {
+        this.visits = new int[cellCount];
+        this.indexOfCell = new int[cellCount];
+    }
+
+    public boolean fits(int cellCount) {
+        return visits.length == cellCount;
+    }
+
+    /**
+     * Appends a cell at the next index. A path is indexed by calling clear and then add for
+     * every remaining cell from the last step to the next one.
+     */
+    public void add(int cell) {
+        if(size == cells.length) {
+            cells = Arrays.copyOf(cells, size * 2);
+        }
+        cells[size] = cell;
+        visits[cell]++;
+        indexOfCell[cell] = size;
+        size++;
+    }
+
+    /**
+     * Removes the next step, after the cursor of the path has moved past it.
+     */
+    public void removeNext() {
+        if(size > 0) {
+            visits[cells[--size]]--;
+        }
+    }
+
+    public void clear() {
+        for(int i = 0; i < size; i++) {
+            visits[cells[i]] = 0;
+        }
+        size = 0;
+    }
+
+    /**
+     * @return true when the remaining path goes through the cell
+     */
+    public boolean contains(int cell) {
+        return cell >= 0 && cell < visits.length && visits[cell] > 0;
+    }
+
+    /**
+     * @return Index of the cell in the remaining path. Only valid when contains(cell) is true
+     */
+    public int indexOf(int cell) {
+        return indexOfCell[cell];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return Cell at an index of the remaining path
+     */
+    public int cellAt(int index) {
+        return cells[index];
+    }
+}
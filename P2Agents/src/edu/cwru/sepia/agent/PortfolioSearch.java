@@ -0,0 +1,170 @@
+package edu.cwru.sepia.agent;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.IntSupplier;
+
+/**
+ * Races several searches for the same query on a fixed thread pool and takes the answer of
+ * the first one to finish.
+ *
+ * No single search is fastest on every map: jump point search wins on open maps, the
+ * bidirectional search where a dead end is next to the footman, and landmarks in mazes.
+ * Every engine in the race is optimal and complete, so the first one to finish decides the
+ * query, with a path or with none. The others are then cancelled through a shared flag that
+ * they check while expanding, and the race only returns once all of them have stopped,
+ * because each engine keeps its search state for the next query.
+ */
+public class PortfolioSearch {
+
+    /**
+     * One search taking part in the race.
+     */
+    public interface Engine {
+        /**
+         * @param cancelled Set once another engine has answered, the search should then give up
+         * @return Cell indices from the first move to the cell next to the goal, or null if
+         *         there is no path or the search was cancelled
+         */
+        int[] findPath(ObstacleGrid obstacles, int start, int goal, int blockedCell, AtomicBoolean cancelled);
+    }
+
+    private final ExecutorService executor;
+    private final List<String> names = new ArrayList<String>();
+    private final List<Engine> engines = new ArrayList<Engine>();
+    private final List<IntSupplier> expansionCounters = new ArrayList<IntSupplier>();
+    private int[] wins = new int[0];
+
+    private int lastWinner = -1;
+    private int expandedNodes;
+
+    /**
+     * @param executor Pool the engines run on. With fewer threads than engines, the engines
+     *                 that have not started when the first answer comes in are skipped
+     */
+    public PortfolioSearch(ExecutorService executor)
+    {
+        this.executor = executor;
+    }
+
+    /**
+     * @param name Name the engine is reported with
+     * @param expansionCounter Nodes expanded by the last findPath call of the engine
+     */
+    public void addEngine(String name, Engine engine, IntSupplier expansionCounter) {
+        names.add(name);
+        engines.add(engine);
+        expansionCounters.add(expansionCounter);
+        wins = Arrays.copyOf(wins, engines.size());
+    }
+
+    public int getEngineCount() {
+        return engines.size();
+    }
+
+    /**
+     * Runs every engine on the query and returns the first answer.
+     *
+     * @param obstacles Bitmap of the positions occupied by resources, not changed during the race
+     * @param start Cell index of the footman
+     * @param goal Cell index of the townhall
+     * @param blockedCell Cell index of the enemy footman, or -1
+     * @return Cell indices from the first move to the cell next to the goal, or null if there is no path
+     */
+    public int[] findPath(final ObstacleGrid obstacles, final int start, final int goal, final int blockedCell) {
+        final AtomicBoolean cancelled = new AtomicBoolean();
+        CompletionService<int[]> completion = new ExecutorCompletionService<int[]>(executor);
+        List<Future<int[]>> futures = new ArrayList<Future<int[]>>();
+        for(final Engine engine : engines) {
+            // an engine that only gets a thread after the race is decided does not start
+            futures.add(completion.submit(() -> cancelled.get() ? null : engine.findPath(obstacles, start, goal, blockedCell, cancelled)));
+        }
+
+        int[] cells = null;
+        lastWinner = -1;
+        try {
+            for(int answered = 0; answered < futures.size() && lastWinner == -1; answered++) {
+                Future<int[]> done = completion.take();
+                try {
+                    cells = done.get();
+                    lastWinner = futures.indexOf(done);
+                } catch(ExecutionException e) {
+                    // a failed engine drops out, the others still answer
+                    System.err.println("Search " + names.get(futures.indexOf(done)) + " failed: " + e.getCause());
+                }
+            }
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            cancelled.set(true);
+            awaitAll(futures);
+        }
+
+        expandedNodes = 0;
+        for(IntSupplier counter : expansionCounters) {
+            expandedNodes += counter.getAsInt();
+        }
+        if(lastWinner != -1) {
+            wins[lastWinner]++;
+        }
+        return cells;
+    }
+
+    /**
+     * Waits for the cancelled engines to stop, so none of them is still running when the next
+     * query starts.
+     */
+    private void awaitAll(List<Future<int[]>> futures) {
+        boolean interrupted = false;
+        for(Future<int[]> future : futures) {
+            while(true) {
+                try {
+                    future.get();
+                    break;
+                } catch(InterruptedException e) {
+                    interrupted = true;
+                } catch(ExecutionException e) {
+                    break;
+                }
+            }
+        }
+        if(interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return Name of the engine that answered the last query, or null if none did
+     */
+    public String getLastWinner() {
+        return lastWinner == -1 ? null : names.get(lastWinner);
+    }
+
+    /**
+     * @return Nodes expanded by all engines during the last query, including the cancelled ones
+     */
+    public int getExpandedNodes() {
+        return expandedNodes;
+    }
+
+    /**
+     * @return Number of queries each engine answered first, as "name wins" pairs
+     */
+    public String getWins() {
+        StringBuilder builder = new StringBuilder();
+        for(int i = 0; i < names.size(); i++) {
+            if(i > 0) {
+                builder.append(", ");
+            }
+            builder.append(names.get(i)).append(' ').append(wins[i]);
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,113 @@
+package edu.cwru.sepia.agent;
+
+import java.util.Arrays;
+
+/**
+ * Cells reserved by units at future time steps, shared by the units planning in a
+ * CooperativePathfinder.
+ *
+ * Reservations are kept in an open addressing hash table keyed by (time, cell), so the
+ * memory depends on the number of reservations and not on the size of the map. Every slot
+ * in use is remembered, which makes clear proportional to the reservations made since the
+ * last clear.
+ */
+public class ReservationTable {
+
+    public static final int FREE = -1;
+
+    private final int cellCount;
+    private long[] keys;
+    private int[] owners;
+    private int[] usedSlots;
+    private int size;
+
+    public ReservationTable(int cellCount)
+    {
+        this.cellCount = cellCount;
+        allocate(256);
+    }
+
+    /**
+     * Reserves a cell at a time step. A later reservation of the same cell and time replaces it.
+     *
+     * @param owner Non-negative id of the unit holding the cell
+     */
+    public void reserve(int cell, int time, int owner) {
+        if(2 * (size + 1) > keys.length) {
+            grow();
+        }
+        long key = key(cell, time);
+        int slot = slotOf(key);
+        if(keys[slot] == -1) {
+            keys[slot] = key;
+            usedSlots[size++] = slot;
+        }
+        owners[slot] = owner;
+    }
+
+    /**
+     * @return Unit holding the cell at the time step, or FREE
+     */
+    public int ownerOf(int cell, int time) {
+        int slot = slotOf(key(cell, time));
+        return keys[slot] == -1 ? FREE : owners[slot];
+    }
+
+    /**
+     * @return true when the cell is free or held by the unit itself at the time step
+     */
+    public boolean isAvailable(int cell, int time, int unit) {
+        int owner = ownerOf(cell, time);
+        return owner == FREE || owner == unit;
+    }
+
+    public void clear() {
+        for(int i = 0; i < size; i++) {
+            keys[usedSlots[i]] = -1;
+        }
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private long key(int cell, int time) {
+        return (long) time * cellCount + cell;
+    }
+
+    private int slotOf(long key) {
+        int mask = keys.length - 1;
+        // spread the bits of the key, consecutive cells and times would otherwise cluster
+        long hash = key * 0x9E3779B97F4A7C15L;
+        int slot = (int) (hash >>> 40) & mask;
+        while(keys[slot] != -1 && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        int[] oldOwners = owners;
+        int[] oldUsed = usedSlots;
+        int oldSize = size;
+
+        allocate(keys.length * 2);
+        for(int i = 0; i < oldSize; i++) {
+            int oldSlot = oldUsed[i];
+            int slot = slotOf(oldKeys[oldSlot]);
+            keys[slot] = oldKeys[oldSlot];
+            owners[slot] = oldOwners[oldSlot];
+            usedSlots[size++] = slot;
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        owners = new int[capacity];
+        usedSlots = new int[capacity / 2];
+        Arrays.fill(keys, -1);
+        size = 0;
+    }
+}
@@ -0,0 +1,167 @@
+package edu.cwru.sepia.agent;
+
+import java.util.Arrays;
+
+/**
+ * Trees stored as runs of blocked cells along every row, sorted by where they start.
+ *
+ * Every x coordinate has its own array of runs, each a start y and the y one past its end.
+ * A lookup is a binary search over the runs of one row, and blocking or clearing a cell
+ * grows, shrinks, joins or splits the runs next to it. Rows without trees keep no array, so
+ * the storage costs a reference per row and two ints per run, which suits maps where the
+ * trees stand in lines or in every other row.
+ */
+public class RunLengthRows extends SparseObstacles {
+
+    private final int xExtent;
+    // start and end of every run of the row, one after the other
+    private final int[][] runs;
+    private final int[] runCounts;
+    private long totalRuns;
+
+    public RunLengthRows(int xExtent)
+    {
+        this.xExtent = xExtent;
+        this.runs = new int[xExtent][];
+        this.runCounts = new int[xExtent];
+    }
+
+    @Override
+    public boolean isBlocked(int x, int y) {
+        int run = runAtOrBefore(x, y);
+        return run != -1 && y < runs[x][2 * run + 1];
+    }
+
+    @Override
+    public boolean block(int x, int y) {
+        int run = runAtOrBefore(x, y);
+        int[] row = runs[x];
+        if(run != -1 && y < row[2 * run + 1]) {
+            return false;
+        }
+        boolean extendsPrevious = run != -1 && row[2 * run + 1] == y;
+        boolean extendsNext = run + 1 < runCounts[x] && row[2 * (run + 1)] == y + 1;
+        if(extendsPrevious && extendsNext) {
+            // the cell closes the gap between two runs
+            row[2 * run + 1] = row[2 * (run + 1) + 1];
+            removeRun(x, run + 1);
+        } else if(extendsPrevious) {
+            row[2 * run + 1] = y + 1;
+        } else if(extendsNext) {
+            row[2 * (run + 1)] = y;
+        } else {
+            insertRun(x, run + 1, y, y + 1);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean unblock(int x, int y) {
+        int run = runAtOrBefore(x, y);
+        if(run == -1 || y >= runs[x][2 * run + 1]) {
+            return false;
+        }
+        int[] row = runs[x];
+        int start = row[2 * run];
+        int end = row[2 * run + 1];
+        if(start == y && end == y + 1) {
+            removeRun(x, run);
+        } else if(start == y) {
+            row[2 * run] = y + 1;
+        } else if(end == y + 1) {
+            row[2 * run + 1] = y;
+        } else {
+            // the cell splits the run in two
+            row[2 * run + 1] = y;
+            insertRun(x, run + 1, y + 1, end);
+        }
+        return true;
+    }
+
+    @Override
+    public long rowBits(int x, int y, int count) {
+        int run = runAtOrBefore(x, y);
+        if(run == -1) {
+            run = 0;
+        }
+        int[] row = runs[x];
+        int limit = y + count;
+        long bits = 0;
+        for(; run < runCounts[x] && row[2 * run] < limit; run++) {
+            int from = Math.max(row[2 * run], y);
+            int to = Math.min(row[2 * run + 1], limit);
+            if(from < to) {
+                int length = to - from;
+                long ones = length == 64 ? -1L : (1L << length) - 1;
+                bits |= ones << (from - y);
+            }
+        }
+        return bits;
+    }
+
+    @Override
+    public long footprint() {
+        // the row references and counts, plus a header and two ints per run for the rows in use
+        long bytes = 8L * xExtent;
+        for(int x = 0; x < xExtent; x++) {
+            if(runs[x] != null) {
+                bytes += 16 + 4L * runs[x].length;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * @return Number of runs over all rows
+     */
+    public long getRunCount() {
+        return totalRuns;
+    }
+
+    /**
+     * @return Index of the last run of the row starting at or before y, or -1 if there is none
+     */
+    private int runAtOrBefore(int x, int y) {
+        int[] row = runs[x];
+        int low = 0;
+        int high = runCounts[x] - 1;
+        int found = -1;
+        while(low <= high) {
+            int middle = (low + high) >>> 1;
+            if(row[2 * middle] <= y) {
+                found = middle;
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return found;
+    }
+
+    private void insertRun(int x, int index, int start, int end) {
+        int[] row = runs[x];
+        int count = runCounts[x];
+        if(row == null) {
+            row = new int[2];
+        } else if(2 * count == row.length) {
+            row = Arrays.copyOf(row, 2 * row.length);
+        }
+        System.arraycopy(row, 2 * index, row, 2 * index + 2, 2 * (count - index));
+        row[2 * index] = start;
+        row[2 * index + 1] = end;
+        runs[x] = row;
+        runCounts[x] = count + 1;
+        totalRuns++;
+    }
+
+    private void removeRun(int x, int index) {
+        int[] row = runs[x];
+        int count = runCounts[x] - 1;
+        System.arraycopy(row, 2 * index + 2, row, 2 * index, 2 * (count - index));
+        runCounts[x] = count;
+        totalRuns--;
+        if(count == 0) {
+            runs[x] = null;
+        }
+    }
+}
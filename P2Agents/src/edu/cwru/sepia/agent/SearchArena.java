@@ -0,0 +1,211 @@
+package edu.cwru.sepia.agent;
+
+import java.util.Arrays;
+
+/**
+ * Reusable storage for a grid search, kept as one array per field instead of one object per node.
+ *
+ * The arrays are sized once for the map and addressed by the cell index x * yExtent + y.
+ * Every cell a search writes to is remembered, so reset only has to clear those cells and
+ * the open set, and a search on the same map allocates nothing.
+ *
+ * A bounded arena is for searches that give up after a fixed number of expansions. It holds
+ * at most capacity cells, found through an open addressing hash table, so its memory grows
+ * with the search and not with the map. Its arrays are addressed by the order in which the
+ * cells were first recorded, which is also the id of a cell in its open set, so searches that
+ * may run on a bounded arena use push and pollOpen instead of openSet.
+ */
+public class SearchArena {
+
+    public static final int UNREACHED = Integer.MAX_VALUE;
+
+    private static final int EMPTY = -1;
+
+    private final int cellCount;
+    private final int[] cost;     // g value, UNREACHED for untouched cells
+    private final int[] estimate; // f value
+    private final int[] parent;   // cell the best known route came from, -1 for the start
+    private final boolean[] closed;
+    private final IndexedMinHeap openSet;
+
+    // cells in the order they were first recorded, the slot of a cell in a bounded arena
+    private final int[] touched;
+    private int touchedCount;
+
+    // bounded arenas only: the slot stored at every index of the hash table or EMPTY, and the table index of every slot
+    private final int[] tableSlots;
+    private final int[] tableIndex;
+
+    public SearchArena(int cellCount)
+    {
+        this.cellCount = cellCount;
+        this.cost = new int[cellCount];
+        this.estimate = new int[cellCount];
+        this.parent = new int[cellCount];
+        this.closed = new boolean[cellCount];
+        this.openSet = new IndexedMinHeap(cellCount);
+        this.touched = new int[cellCount];
+        this.tableSlots = null;
+        this.tableIndex = null;
+        Arrays.fill(cost, UNREACHED);
+    }
+
+    /**
+     * Bounded arena for a map with cellCount cells.
+     *
+     * @param capacity Most cells a search records, at least 8 per expansion plus the start
+     */
+    public SearchArena(int cellCount, int capacity)
+    {
+        this.cellCount = cellCount;
+        this.cost = new int[capacity];
+        this.estimate = new int[capacity];
+        this.parent = new int[capacity];
+        this.closed = new boolean[capacity];
+        this.openSet = new IndexedMinHeap(capacity);
+        this.touched = new int[capacity];
+        this.tableSlots = new int[Integer.highestOneBit(Math.max(capacity, 1)) * 4];
+        this.tableIndex = new int[capacity];
+        Arrays.fill(tableSlots, EMPTY);
+    }
+
+    /**
+     * @return true when the arena is sized for a map with this many cells
+     */
+    public boolean fits(int cellCount) {
+        return this.cellCount == cellCount;
+    }
+
+    /**
+     * Clears every cell written since the last reset.
+     */
+    public void reset() {
+        for(int i = 0; i < touchedCount; i++) {
+            if(tableSlots != null) {
+                tableSlots[tableIndex[i]] = EMPTY;
+                continue;
+            }
+            int cell = touched[i];
+            cost[cell] = UNREACHED;
+            closed[cell] = false;
+        }
+        touchedCount = 0;
+        openSet.clear();
+    }
+
+    /**
+     * @return The open set keyed by cell index. Only for arenas that are not bounded
+     */
+    public IndexedMinHeap openSet() {
+        return openSet;
+    }
+
+    /**
+     * Queues a recorded cell with its f value, or lowers the f value if it is already queued.
+     */
+    public void push(int cell, int f) {
+        int id = slotOf(cell);
+        if(openSet.contains(id)) {
+            openSet.decreaseKey(id, f);
+        } else {
+            openSet.insert(id, f);
+        }
+    }
+
+    /**
+     * @return The queued cell with the smallest f value, removed from the open set
+     */
+    public int pollOpen() {
+        int id = openSet.poll();
+        return tableSlots == null ? id : touched[id];
+    }
+
+    public boolean hasOpen() {
+        return !openSet.isEmpty();
+    }
+
+    /**
+     * Records a new best route to a cell.
+     */
+    public void record(int cell, int g, int f, int from) {
+        int slot = slotOf(cell);
+        if(slot == EMPTY) {
+            slot = add(cell);
+        } else if(tableSlots == null && cost[cell] == UNREACHED) {
+            touched[touchedCount++] = cell;
+        }
+        cost[slot] = g;
+        estimate[slot] = f;
+        parent[slot] = from;
+    }
+
+    public int cost(int cell) {
+        int slot = slotOf(cell);
+        return slot == EMPTY ? UNREACHED : cost[slot];
+    }
+
+    public int estimate(int cell) {
+        return estimate[slotOf(cell)];
+    }
+
+    public int parent(int cell) {
+        return parent[slotOf(cell)];
+    }
+
+    public boolean isClosed(int cell) {
+        int slot = slotOf(cell);
+        return slot != EMPTY && closed[slot];
+    }
+
+    public void close(int cell) {
+        closed[slotOf(cell)] = true;
+    }
+
+    /**
+     * @return Number of cells written since the last reset
+     */
+    public int touchedCount() {
+        return touchedCount;
+    }
+
+    /**
+     * @return Index of the cell in the arrays, the cell itself unless the arena is bounded, or
+     *         EMPTY for a cell a bounded arena has not recorded
+     */
+    private int slotOf(int cell) {
+        if(tableSlots == null) {
+            return cell;
+        }
+        int mask = tableSlots.length - 1;
+        // spread the bits of the cell, neighboring cells would otherwise cluster
+        int index = (int) ((cell * 0x9E3779B97F4A7C15L) >>> 40) & mask;
+        while(tableSlots[index] != EMPTY) {
+            int slot = tableSlots[index];
+            if(touched[slot] == cell) {
+                return slot;
+            }
+            index = (index + 1) & mask;
+        }
+        return EMPTY;
+    }
+
+    /**
+     * Gives a cell a slot in a bounded arena.
+     */
+    private int add(int cell) {
+        if(touchedCount == touched.length) {
+            throw new IllegalStateException("Bounded search arena holds at most " + touched.length + " cells");
+        }
+        int slot = touchedCount++;
+        int mask = tableSlots.length - 1;
+        int index = (int) ((cell * 0x9E3779B97F4A7C15L) >>> 40) & mask;
+        while(tableSlots[index] != EMPTY) {
+            index = (index + 1) & mask;
+        }
+        tableSlots[index] = slot;
+        tableIndex[slot] = index;
+        touched[slot] = cell;
+        closed[slot] = false;
+        return slot;
+    }
+}
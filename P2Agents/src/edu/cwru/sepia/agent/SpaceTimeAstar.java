@@ -0,0 +1,298 @@
+package edu.cwru.sepia.agent;
+
+import java.util.Arrays;
+
+/**
+ * Space-time A* for the footman against the predicted moves of the enemy footman.
+ *
+ * The enemy is assumed to move to intercept: it heads for the first cell of the footman's
+ * shortest route to the townhall that it can reach no later than the footman, one step per
+ * turn, and waits there. The search runs over (x, y, t) for the next horizon turns. The
+ * footman may move to one of its 8 neighbors or wait, and may not end a turn in the cell the
+ * enemy is predicted to hold at that turn or held the turn before, which also rules out the
+ * two swapping places. After the horizon the time is dropped and only the cell the enemy is
+ * predicted to end in stays blocked, so the rest of the path is found as by a plain A*.
+ *
+ * The heuristic is the exact distance to the townhall around the trees from a
+ * BitParallelDistanceField, whose shortest route is also the one the footman is assumed to
+ * take when predicting the enemy.
+ */
+public class SpaceTimeAstar {
+
+    private static final int UNREACHABLE = BitParallelDistanceField.UNREACHABLE;
+    // turns of a plan checked against a new prediction. Predictions further out change as both
+    // footmen move, and replanning for them caused more replans than it saved
+    private static final int CONFLICT_LOOKAHEAD = 1;
+
+    private final ObstacleGrid obstacles;
+    private final int xExtent, yExtent;
+    private final int horizon;
+    private final BitParallelDistanceField distanceField;
+
+    // a box of side 2 * horizon + 1 around the start for every turn before the horizon, then the whole map
+    private final int side;
+    private final int timedStates;
+    private final int[] visited;
+    private final int[] closed;
+    private final int[] parent;
+    private final int[] cost;
+    private final IndexedMinHeap openSet;
+    private int generation;
+
+    // cell of the enemy footman after every turn up to the horizon, -1 without an enemy
+    private final int[] predicted;
+    private int goal = -1;
+    private int expandedNodes;
+
+    /**
+     * @param obstacles Bitmap of the positions occupied by resources
+     * @param horizon Number of turns the enemy footman is predicted for, at most 64
+     */
+    public SpaceTimeAstar(ObstacleGrid obstacles, int horizon)
+    {
+        if(horizon < 1 || horizon > 64) {
+            throw new IllegalArgumentException("Horizon must be between 1 and 64, was " + horizon);
+        }
+        this.obstacles = obstacles;
+        this.xExtent = obstacles.getXExtent();
+        this.yExtent = obstacles.getYExtent();
+        this.horizon = horizon;
+        this.distanceField = new BitParallelDistanceField(obstacles);
+
+        this.side = 2 * horizon + 1;
+        this.timedStates = horizon * side * side;
+        int states = timedStates + obstacles.cellCount();
+        this.visited = new int[states];
+        this.closed = new int[states];
+        this.parent = new int[states];
+        this.cost = new int[states];
+        this.openSet = new IndexedMinHeap(states);
+        this.predicted = new int[horizon + 1];
+    }
+
+    /**
+     * @return true when the search was built for the map of the grid
+     */
+    public boolean fits(ObstacleGrid obstacles) {
+        return this.obstacles == obstacles;
+    }
+
+    /**
+     * @param start Cell index of the footman
+     * @param goal Cell index of the townhall
+     * @param enemyCell Cell index of the enemy footman, or -1 if there is none
+     * @return Cell of the footman after every turn with the first turn first, the same cell
+     *         twice where it waits, ending next to the goal. null if there is no path
+     */
+    public int[] findPath(int start, int goal, int enemyCell) {
+        prepare(start, goal, enemyCell);
+        expandedNodes = 0;
+        generation++;
+        openSet.clear();
+        if(distanceField.distance(start) == UNREACHABLE) {
+            return null;
+        }
+
+        int startState = stateOf(start, 0, start);
+        visited[startState] = generation;
+        cost[startState] = 0;
+        parent[startState] = -1;
+        openSet.insert(startState, key(start, 0));
+
+        int endState = -1;
+        while(!openSet.isEmpty()) {
+            int state = openSet.poll();
+            closed[state] = generation;
+            int t = state < timedStates ? state / (side * side) : horizon;
+            int cell = cellOf(state, start);
+            int g = cost[state];
+            expandedNodes++;
+
+            if(distanceField.distance(cell) <= 1) {
+                endState = state;
+                break;
+            }
+
+            int nextTime = Math.min(t + 1, horizon);
+            int x = cell / yExtent;
+            int y = cell % yExtent;
+            for(int dx = -1; dx <= 1; dx++) {
+                for(int dy = -1; dy <= 1; dy++) {
+                    // waiting only helps while the enemy's moves are still predicted
+                    if(dx == 0 && dy == 0 && t == horizon) {
+                        continue;
+                    }
+                    int nextX = x + dx;
+                    int nextY = y + dy;
+                    if(nextX < 0 || nextX >= xExtent || nextY < 0 || nextY >= yExtent) {
+                        continue;
+                    }
+                    int next = nextX * yExtent + nextY;
+                    if(next == goal || obstacles.isBlocked(next) || distanceField.distance(next) == UNREACHABLE
+                            || isPredicted(next, g + 1)) {
+                        continue;
+                    }
+
+                    int nextState = stateOf(next, nextTime, start);
+                    if(closed[nextState] == generation
+                            || (visited[nextState] == generation && cost[nextState] <= g + 1)) {
+                        continue;
+                    }
+                    visited[nextState] = generation;
+                    cost[nextState] = g + 1;
+                    parent[nextState] = state;
+                    openSet.update(nextState, key(next, g + 1));
+                }
+            }
+        }
+
+        if(endState == -1) {
+            return null;
+        }
+        int[] cells = new int[cost[endState]];
+        for(int state = endState; parent[state] != -1; state = parent[state]) {
+            cells[cost[state] - 1] = cellOf(state, start);
+        }
+        return cells;
+    }
+
+    /**
+     * Predicts the enemy footman again from the positions of this turn and checks the next
+     * turns of a plan against it.
+     *
+     * @param footmanCell Cell index of the footman
+     * @param plan Cell of the footman after every coming turn, first turn first
+     * @param goal Cell index of the townhall
+     * @param enemyCell Cell index of the enemy footman
+     * @return true when the footman would end a turn where the enemy is predicted to be
+     */
+    public boolean conflicts(int footmanCell, int[] plan, int goal, int enemyCell) {
+        prepare(footmanCell, goal, enemyCell);
+        for(int t = 1; t <= Math.min(plan.length, CONFLICT_LOOKAHEAD); t++) {
+            if(isPredicted(plan[t - 1], t)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return Nodes expanded by the last findPath call
+     */
+    public int getExpandedNodes() {
+        return expandedNodes;
+    }
+
+    private void prepare(int footmanCell, int goal, int enemyCell) {
+        this.goal = goal;
+        if(!distanceField.plansFor(obstacles, goal)) {
+            distanceField.build(goal);
+        }
+        predictEnemy(footmanCell, enemyCell);
+    }
+
+    /**
+     * Fills predicted with the intercept model: the enemy walks to the first cell of the
+     * footman's shortest route it can reach in time, and holds it.
+     */
+    private void predictEnemy(int footmanCell, int enemyCell) {
+        Arrays.fill(predicted, -1);
+        if(enemyCell == -1) {
+            return;
+        }
+        int target = footmanCell;
+        int[] route = distanceField.pathFrom(footmanCell, -1);
+        if(route != null && route.length > 0) {
+            target = route[route.length - 1];
+            for(int k = 0; k < route.length; k++) {
+                // the footman reaches route[k] after k + 1 turns
+                if(chebyshevDistance(enemyCell, route[k]) <= k + 1) {
+                    target = route[k];
+                    break;
+                }
+            }
+        }
+        predicted[0] = enemyCell;
+        for(int t = 1; t <= horizon; t++) {
+            predicted[t] = stepTowards(predicted[t - 1], target);
+        }
+    }
+
+    /**
+     * @return The free neighbor of the cell that gets closest to the target, or the cell itself if none gets closer
+     */
+    private int stepTowards(int cell, int target) {
+        int best = cell;
+        long bestScore = score(cell, target);
+        int x = cell / yExtent;
+        int y = cell % yExtent;
+        for(int dx = -1; dx <= 1; dx++) {
+            for(int dy = -1; dy <= 1; dy++) {
+                int nextX = x + dx;
+                int nextY = y + dy;
+                if(nextX < 0 || nextX >= xExtent || nextY < 0 || nextY >= yExtent) {
+                    continue;
+                }
+                int next = nextX * yExtent + nextY;
+                if(next == goal || obstacles.isBlocked(next)) {
+                    continue;
+                }
+                long nextScore = score(next, target);
+                if(nextScore < bestScore) {
+                    best = next;
+                    bestScore = nextScore;
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Chebyshev distance to the target, with the straight line distance breaking ties.
+     */
+    private long score(int cell, int target) {
+        long xDiff = cell / yExtent - target / yExtent;
+        long yDiff = cell % yExtent - target % yExtent;
+        return ((long) chebyshevDistance(cell, target) << 32) + xDiff * xDiff + yDiff * yDiff;
+    }
+
+    private int chebyshevDistance(int a, int b) {
+        return Math.max(Math.abs(a / yExtent - b / yExtent), Math.abs(a % yExtent - b % yExtent));
+    }
+
+    /**
+     * @return true when the enemy is predicted in the cell at the end of the turn or the turn before
+     */
+    private boolean isPredicted(int cell, int turn) {
+        if(turn > horizon) {
+            return cell == predicted[horizon];
+        }
+        return cell == predicted[turn] || cell == predicted[turn - 1];
+    }
+
+    /**
+     * f value of a state, with the longer route first among equal f values.
+     */
+    private long key(int cell, int g) {
+        return ((long) (g + distanceField.distance(cell) - 1) << 32) - g;
+    }
+
+    private int stateOf(int cell, int t, int start) {
+        if(t == horizon) {
+            return timedStates + cell;
+        }
+        int localX = cell / yExtent - start / yExtent + horizon;
+        int localY = cell % yExtent - start % yExtent + horizon;
+        return t * side * side + localX * side + localY;
+    }
+
+    private int cellOf(int state, int start) {
+        if(state >= timedStates) {
+            return state - timedStates;
+        }
+        int local = state % (side * side);
+        int x = local / side - horizon + start / yExtent;
+        int y = local % side - horizon + start % yExtent;
+        return x * yExtent + y;
+    }
+}
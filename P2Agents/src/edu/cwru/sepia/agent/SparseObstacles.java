@@ -0,0 +1,65 @@
+package edu.cwru.sepia.agent;
+
+/**
+ * Compressed storage for the trees of a map too large for a bitmap with one bit per cell.
+ *
+ * Cells are addressed by their coordinates only. Memory grows with the number of trees and
+ * how they are laid out instead of with the area of the map. ObstacleGrid still limits maps to
+ * fewer cells than an int can number, since the searches index their arrays by cell.
+ */
+public abstract class SparseObstacles {
+
+    /**
+     * Creates the storage that takes the least memory for the expected number of trees: runs
+     * along the rows when there are trees in most rows, a quadtree when there are few.
+     *
+     * @param expectedBlocked Number of trees the map starts with
+     */
+    public static SparseObstacles forMap(int xExtent, int yExtent, int expectedBlocked) {
+        if(runFootprint(xExtent, expectedBlocked) <= quadtreeFootprint(xExtent, yExtent, expectedBlocked)) {
+            return new RunLengthRows(xExtent);
+        }
+        return new ObstacleQuadtree(xExtent, yExtent);
+    }
+
+    /**
+     * @return Approximate number of bytes the storage chosen by forMap takes
+     */
+    public static long estimateFootprint(int xExtent, int yExtent, int expectedBlocked) {
+        return Math.min(runFootprint(xExtent, expectedBlocked), quadtreeFootprint(xExtent, yExtent, expectedBlocked));
+    }
+
+    private static long runFootprint(int xExtent, int expectedBlocked) {
+        // a run and a half per tree with the array growth, and a reference and count per row
+        return 8L * xExtent + 12L * expectedBlocked;
+    }
+
+    private static long quadtreeFootprint(int xExtent, int yExtent, int expectedBlocked) {
+        // at worst a node of 16 bytes on every level above every tree
+        int levels = 32 - Integer.numberOfLeadingZeros(Math.max(Math.max(xExtent, yExtent) - 1, 1));
+        return 16L * levels * expectedBlocked;
+    }
+
+    public abstract boolean isBlocked(int x, int y);
+
+    /**
+     * @return true when the cell was free before
+     */
+    public abstract boolean block(int x, int y);
+
+    /**
+     * @return true when the cell was blocked before
+     */
+    public abstract boolean unblock(int x, int y);
+
+    /**
+     * @param count Number of cells read, at most 64 and not past the end of the row
+     * @return The cells from (x, y) on along the row as bits, bit 0 for (x, y)
+     */
+    public abstract long rowBits(int x, int y, int count);
+
+    /**
+     * @return Approximate number of bytes the storage takes
+     */
+    public abstract long footprint();
+}